@@ -0,0 +1,75 @@
+import java.util.Arrays;
+import java.util.function.LongSupplier;
+
+/**
+ * Minimal benchmark harness, in the manner of JMH: each benchmark runs warmup iterations, then measured iterations,
+ * and reports the mean time per operation with its standard deviation. Each iteration calls the benchmark repeatedly
+ * for at least 100 ms. JMH itself requires benchmarks in a named package, which cannot use the classes of the default
+ * package.
+ *
+ * The benchmarks are compiled and run with the sources, e.g.:
+ *
+ * <pre>
+ * javac -d out src/*.java bench/*.java
+ * java -cp out IndexedListBenchmark
+ * </pre>
+ */
+final class Bench {
+
+	private static final int WARMUP_ITERATIONS = 5;
+	private static final int MEASURED_ITERATIONS = 10;
+	private static final long ITERATION_NANOS = 100_000_000L;
+	// Result of the benchmarks, printed at the end so the JIT cannot discard their work.
+	private static long sBlackhole;
+
+	private Bench() {
+	}
+
+	/**
+	 * Runs a benchmark and prints its time per operation.
+	 *
+	 * @param pName
+	 *            the name of the benchmark
+	 * @param pOperations
+	 *            the number of operations performed by each call of pBody
+	 * @param pBody
+	 *            performs the operations once and returns a value that depends on them
+	 */
+	static double run(String pName, long pOperations, LongSupplier pBody) {
+		for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+			iteration(pOperations, pBody);
+		}
+		double[] nanosPerOperation = new double[MEASURED_ITERATIONS];
+		for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+			nanosPerOperation[i] = iteration(pOperations, pBody);
+		}
+		double mean = Arrays.stream(nanosPerOperation).average().orElse(0);
+		double variance = Arrays.stream(nanosPerOperation).map(x -> (x - mean) * (x - mean)).sum()
+				/ Math.max(1, MEASURED_ITERATIONS - 1);
+		System.out.printf("%-50s %12.1f +- %8.1f ns/op%n", pName, mean, Math.sqrt(variance));
+		return mean;
+	}
+
+	/*
+	 * Calls pBody for at least ITERATION_NANOS and returns the mean time per operation.
+	 */
+	private static double iteration(long pOperations, LongSupplier pBody) {
+		long start = System.nanoTime();
+		long calls = 0;
+		long elapsed;
+		do {
+			sBlackhole += pBody.getAsLong();
+			calls++;
+			elapsed = System.nanoTime() - start;
+		}
+		while (elapsed < ITERATION_NANOS);
+		return elapsed / (double) (calls * pOperations);
+	}
+
+	/**
+	 * Prints a value that depends on all the benchmarks run.
+	 */
+	static void done() {
+		System.out.println("(" + sBlackhole + ")");
+	}
+}
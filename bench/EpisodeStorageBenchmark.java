@@ -0,0 +1,64 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the heap retained by the episodes of shows stored as objects and as columns, for a total of 1M and 10M
+ * episodes by default. Each episode has a distinct title and path, as in a real library. The heap is measured after
+ * garbage collection, so the JVM needs a heap large enough for the objects, e.g.:
+ *
+ * <pre>
+ * java -Xmx5g -cp out EpisodeStorageBenchmark [episode counts...]
+ * </pre>
+ */
+public final class EpisodeStorageBenchmark {
+
+	private static final long[] DEFAULT_COUNTS = { 1_000_000, 10_000_000 };
+	private static final int EPISODES_PER_SHOW = 100;
+
+	private EpisodeStorageBenchmark() {
+	}
+
+	public static void main(String[] pArgs) {
+		long[] counts = pArgs.length == 0 ? DEFAULT_COUNTS : new long[pArgs.length];
+		for (int i = 0; i < pArgs.length; i++) {
+			counts[i] = Long.parseLong(pArgs[i]);
+		}
+		for (long count : counts) {
+			for (TVShow.EpisodeStorage storage : TVShow.EpisodeStorage.values()) {
+				try {
+					measure(storage, count);
+				}
+				catch (OutOfMemoryError e) {
+					System.out.printf("%-8s %,12d episodes: out of memory%n", storage, count);
+				}
+			}
+		}
+	}
+
+	private static void measure(TVShow.EpisodeStorage pStorage, long pCount) {
+		long before = usedHeap();
+		List<TVShow> shows = new ArrayList<>();
+		for (long created = 0; created < pCount; created += EPISODES_PER_SHOW) {
+			TVShow show = new TVShow("Show " + shows.size(), Language.ENGLISH, "Studio " + shows.size() % 10,
+					pStorage);
+			for (int e = 0; e < EPISODES_PER_SHOW && created + e < pCount; e++) {
+				show.createAndAddEpisode(new File("/media/show" + shows.size() + "/episode" + e + ".mp4"),
+						"Show " + shows.size() + " episode " + e);
+			}
+			shows.add(show);
+		}
+		long retained = usedHeap() - before;
+		System.out.printf("%-8s %,12d episodes: %,8d MB, %6.1f bytes/episode%n", pStorage, pCount, retained >> 20,
+				retained / (double) pCount);
+		shows.clear();
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
@@ -0,0 +1,94 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures how the parallel generation of a watchlist scales with the number of threads, from 1 to the number of
+ * available processors, against the sequential generation. The filter does some work on each movie and episode, as a
+ * filter that reads metadata would.
+ *
+ * <pre>
+ * java -cp out GenerateWatchListBenchmark [thread counts...]
+ * </pre>
+ */
+public final class GenerateWatchListBenchmark {
+
+	private static final int SHOWS = 2000;
+	private static final int EPISODES_PER_SHOW = 100;
+	private static final int MOVIES = 50000;
+	private static final int WORK_PER_ITEM = 200;
+
+	private GenerateWatchListBenchmark() {
+	}
+
+	public static void main(String[] pArgs) {
+		Library library = new Library();
+		File file = new File("benchmark.mp4");
+		for (int s = 0; s < SHOWS; s++) {
+			TVShow show = new TVShow("Show " + s, Language.values()[s % Language.values().length], "Studio " + s % 10);
+			for (int e = 0; e < EPISODES_PER_SHOW; e++) {
+				show.createAndAddEpisode(file, "Episode " + e);
+			}
+			library.addTVShow(show);
+		}
+		for (int m = 0; m < MOVIES; m++) {
+			library.addMovie(new Movie(file, "Movie " + m, Language.values()[m % Language.values().length],
+					"Studio " + m % 10));
+		}
+		WatchListFilter filter = new WatchListFilter() {
+			@Override
+			public boolean filter(Movie pMovie) {
+				return work(pMovie);
+			}
+
+			@Override
+			public boolean filter(TVShow pTVShow) {
+				return true;
+			}
+
+			@Override
+			public boolean filter(TVShow.Episode pEpisode) {
+				return work(pEpisode);
+			}
+
+			private boolean work(Watchable pWatchable) {
+				int hash = 0;
+				for (int i = 0; i < WORK_PER_ITEM; i++) {
+					hash += pWatchable.getTitle().hashCode() * i;
+				}
+				return (hash & 1) == 0;
+			}
+		};
+		long items = (long) SHOWS * EPISODES_PER_SHOW + MOVIES;
+		double sequential = Bench.run("sequential", items,
+				() -> library.generateWatchList("benchmark", filter).getTotalCount());
+		for (int threads : threadCounts(pArgs)) {
+			ForkJoinPool pool = new ForkJoinPool(threads);
+			double parallel = Bench.run("fork-join, " + threads + " thread(s)", items,
+					() -> library.generateWatchList("benchmark", filter, pool).getTotalCount());
+			System.out.printf("  speedup %.2f%n", sequential / parallel);
+			pool.shutdown();
+		}
+		Bench.done();
+	}
+
+	/*
+	 * @return the thread counts given as arguments, or the powers of two up to the number of processors, and that
+	 *         number
+	 */
+	private static List<Integer> threadCounts(String[] pArgs) {
+		List<Integer> counts = new ArrayList<>();
+		for (String arg : pArgs) {
+			counts.add(Integer.parseInt(arg));
+		}
+		if (counts.isEmpty()) {
+			int processors = Runtime.getRuntime().availableProcessors();
+			for (int threads = 1; threads < processors; threads *= 2) {
+				counts.add(threads);
+			}
+			counts.add(processors);
+		}
+		return counts;
+	}
+}
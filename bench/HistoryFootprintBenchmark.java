@@ -0,0 +1,67 @@
+import java.io.File;
+import java.lang.ref.Reference;
+import java.util.function.Consumer;
+
+/**
+ * Measures the heap retained by each entry of the undo/redo history of a watchlist, for each kind of command, and
+ * compares it with the estimate the history uses for its footprint limit. The watchlist holds 2000 movies by default,
+ * since a history that copied the watchlist would retain heap in proportion to its size.
+ *
+ * <pre>
+ * java -cp out HistoryFootprintBenchmark [watchlist sizes...]
+ * </pre>
+ */
+public final class HistoryFootprintBenchmark {
+
+	private static final int[] DEFAULT_SIZES = { 2000 };
+	private static final int ENTRIES = 100_000;
+
+	private HistoryFootprintBenchmark() {
+	}
+
+	public static void main(String[] pArgs) {
+		int[] sizes = pArgs.length == 0 ? DEFAULT_SIZES : new int[pArgs.length];
+		for (int i = 0; i < pArgs.length; i++) {
+			sizes[i] = Integer.parseInt(pArgs[i]);
+		}
+		for (int size : sizes) {
+			Movie extra = new Movie(new File("extra.mp4"), "Extra", Language.ENGLISH, "Studio");
+			measure("next", size, watchList -> watchList.next());
+			measure("setName", size, watchList -> watchList.setName("Watchlist " + watchList.getHistoryDepth() % 2));
+			measure("add/remove", size, watchList -> {
+				if (watchList.getTotalCount() > size) {
+					watchList.removeWatchable(size);
+				}
+				else {
+					watchList.addWatchable(extra);
+				}
+			});
+		}
+	}
+
+	private static void measure(String pName, int pSize, Consumer<WatchList> pCommand) {
+		WatchList watchList = new WatchList("Watchlist");
+		for (int i = 0; i < pSize; i++) {
+			watchList.addWatchable(new Movie(new File("movie" + i + ".mp4"), "Movie " + i, Language.ENGLISH, "Studio"));
+		}
+		watchList.setHistoryLimits(Integer.MAX_VALUE, Long.MAX_VALUE);
+		long before = usedHeap();
+		long footprintBefore = watchList.getHistoryFootprint();
+		for (int i = 0; i < ENTRIES; i++) {
+			pCommand.accept(watchList);
+		}
+		long retained = usedHeap() - before;
+		long estimated = watchList.getHistoryFootprint() - footprintBefore;
+		System.out.printf("%-10s n=%-6d %8.1f bytes/entry retained, %8.1f estimated%n", pName, pSize,
+				retained / (double) ENTRIES, estimated / (double) ENTRIES);
+		Reference.reachabilityFence(watchList);
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
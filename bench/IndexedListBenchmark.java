@@ -0,0 +1,84 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Compares the backing lists of a watchlist on the accesses a watchlist makes: reading the element at the cursor, as
+ * next() does, inserting and removing at a position, and appending. LinkedList is the backing used before
+ * IndexedList.
+ *
+ * <pre>
+ * java -cp out IndexedListBenchmark [sizes...]
+ * </pre>
+ */
+public final class IndexedListBenchmark {
+
+	private static final int[] DEFAULT_SIZES = { 1000, 10000, 50000 };
+	private static final int EDITS = 1000;
+
+	private IndexedListBenchmark() {
+	}
+
+	public static void main(String[] pArgs) {
+		int[] sizes = pArgs.length == 0 ? DEFAULT_SIZES : new int[pArgs.length];
+		for (int i = 0; i < pArgs.length; i++) {
+			sizes[i] = Integer.parseInt(pArgs[i]);
+		}
+		for (int size : sizes) {
+			benchmark("LinkedList", size, LinkedList::new);
+			benchmark("ArrayList", size, ArrayList::new);
+			benchmark("IndexedList", size, IndexedList::new);
+			watchListNext(size);
+		}
+		Bench.done();
+	}
+
+	private static void benchmark(String pName, int pSize, Supplier<List<Integer>> pFactory) {
+		List<Integer> list = pFactory.get();
+		for (int i = 0; i < pSize; i++) {
+			list.add(i);
+		}
+		Bench.run(pName + " get at cursor, n=" + pSize, pSize, () -> {
+			long sum = 0;
+			for (int i = 0; i < pSize; i++) {
+				sum += list.get(i);
+			}
+			return sum;
+		});
+		Bench.run(pName + " insert+remove middle, n=" + pSize, 2 * EDITS, () -> {
+			for (int i = 0; i < EDITS; i++) {
+				list.add(pSize / 2, i);
+				list.remove(pSize / 2);
+			}
+			return list.size();
+		});
+		Bench.run(pName + " append, n=" + pSize, pSize, () -> {
+			List<Integer> built = pFactory.get();
+			for (int i = 0; i < pSize; i++) {
+				built.add(i);
+			}
+			return built.size();
+		});
+	}
+
+	/*
+	 * Watches a whole watchlist with next(), which was quadratic with a LinkedList.
+	 */
+	private static void watchListNext(int pSize) {
+		List<Watchable> movies = new ArrayList<>();
+		for (int i = 0; i < pSize; i++) {
+			movies.add(new Movie(new File("movie" + i + ".mp4"), "Movie " + i, Language.ENGLISH, "Studio"));
+		}
+		WatchList watchList = new WatchList("benchmark");
+		watchList.addAll(movies);
+		Bench.run("WatchList.next() lap, n=" + pSize, pSize, () -> {
+			long hash = 0;
+			for (int i = 0; i < pSize; i++) {
+				hash += watchList.next().hashCode();
+			}
+			return hash;
+		});
+	}
+}
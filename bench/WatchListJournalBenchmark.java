@@ -0,0 +1,105 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Measures the number of commands per second that a journal records in each durability mode, with 1 thread and with
+ * 8 threads that each change their own watchlist. The commands are next() calls, the smallest records. The journal is
+ * written to a temporary directory, so the results depend on the file system that holds it, e.g.:
+ *
+ * <pre>
+ * java -Djava.io.tmpdir=/mnt/ssd -cp out WatchListJournalBenchmark [thread counts...]
+ * </pre>
+ */
+public final class WatchListJournalBenchmark {
+
+	private static final int[] DEFAULT_THREAD_COUNTS = { 1, 8 };
+	private static final int MOVIES = 100;
+	private static final int COMMANDS_PER_THREAD = 200;
+
+	private WatchListJournalBenchmark() {
+	}
+
+	public static void main(String[] pArgs) throws IOException {
+		int[] threadCounts = pArgs.length == 0 ? DEFAULT_THREAD_COUNTS : new int[pArgs.length];
+		for (int i = 0; i < pArgs.length; i++) {
+			threadCounts[i] = Integer.parseInt(pArgs[i]);
+		}
+		List<Movie> movies = new ArrayList<>();
+		for (int i = 0; i < MOVIES; i++) {
+			movies.add(new Movie(new File("movie" + i + ".mp4"), "Movie " + i, Language.ENGLISH, "Studio"));
+		}
+		for (WatchListJournal.Durability durability : WatchListJournal.Durability.values()) {
+			for (int threads : threadCounts) {
+				measure(durability, threads, movies);
+			}
+		}
+		Bench.done();
+	}
+
+	private static void measure(WatchListJournal.Durability pDurability, int pThreads, List<Movie> pMovies)
+			throws IOException {
+		Path directory = Files.createTempDirectory("journal");
+		try (WatchListJournal journal = WatchListJournal.open(directory, pDurability)) {
+			List<WatchList> watchLists = new ArrayList<>();
+			for (int t = 0; t < pThreads; t++) {
+				WatchList watchList = new WatchList("Watchlist " + t);
+				journal.attach(watchList);
+				watchList.addAll(pMovies);
+				watchLists.add(watchList);
+			}
+			double nanos = Bench.run(pDurability + ", " + pThreads + " thread(s)",
+					(long) pThreads * COMMANDS_PER_THREAD, () -> nexts(watchLists));
+			System.out.printf("  %,.0f commands/s%n", 1e9 / nanos);
+		}
+		finally {
+			delete(directory);
+		}
+	}
+
+	/*
+	 * Calls next() COMMANDS_PER_THREAD times on each watchlist, each on its own thread, and returns the sum of the
+	 * remaining counts.
+	 */
+	private static long nexts(List<WatchList> pWatchLists) {
+		List<Thread> threads = new ArrayList<>();
+		for (WatchList watchList : pWatchLists) {
+			threads.add(new Thread(() -> {
+				for (int i = 0; i < COMMANDS_PER_THREAD; i++) {
+					watchList.next();
+				}
+			}));
+		}
+		threads.forEach(Thread::start);
+		long remaining = 0;
+		for (int t = 0; t < threads.size(); t++) {
+			try {
+				threads.get(t).join();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			remaining += pWatchLists.get(t).getRemainingCount();
+		}
+		return remaining;
+	}
+
+	private static void delete(Path pDirectory) throws IOException {
+		try (Stream<Path> files = Files.walk(pDirectory)) {
+			files.sorted(Comparator.reverseOrder()).forEach(file -> {
+				try {
+					Files.delete(file);
+				}
+				catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		}
+	}
+}
@@ -1,27 +1,32 @@
-public class AbstractCommand implements Command {
+/**
+ * Base class for the state-modifying actions of a WatchList. Subclasses only record the change they make (the delta)
+ * instead of a copy of the whole watchlist, so undoing or redoing an action costs the same whatever the list size.
+ */
+public abstract class AbstractCommand implements Command {
 
-    WatchList aWatchList;
-    WatchList aPrevState;
-    WatchList aNextState;
+    /**
+     * Estimated size of a command object: header, a few references and primitive fields.
+     */
+    static final long SHALLOW_FOOTPRINT = 32;
+
+    final WatchList aWatchList;
 
     public AbstractCommand(WatchList pWatchList) {
+        assert pWatchList != null;
         aWatchList = pWatchList;
     }
 
+    /**
+     * Redoing an action applies the same delta as executing it.
+     */
     @Override
-    public void execute() {
-        aPrevState = new WatchList(aWatchList);
-    }
-
-    @Override
-    public void unExecute() {
-        aNextState = new WatchList(aWatchList);
-        aWatchList.aList = aPrevState.aList;
+    public void reExecute() {
+        execute();
     }
 
     @Override
-    public void reExecute() {
-        aPrevState = new WatchList(aWatchList);
+    public long getFootprint() {
+        return SHALLOW_FOOTPRINT;
     }
 
 }
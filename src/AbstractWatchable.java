@@ -1,20 +1,27 @@
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public abstract class AbstractWatchable implements Watchable {
 
+    private static final AtomicInteger NEXT_ID = new AtomicInteger();
+    // The observers to update at the end of the batch of notifications of the thread, or null if there is no batch.
+    private static final ThreadLocal<List<WatchList>> PENDING_NOTIFICATIONS = new ThreadLocal<>();
+
+    private int aId = NEXT_ID.getAndIncrement();
     String aTitle;
     String aStudio;
     Language aLanguage;
-    Map<String, String> aTags = new HashMap<>();
-    private List<WatchList> aObservers = new ArrayList<>();
+    CompactMap aTags = CompactMap.EMPTY;
+    private ObserverRegistry aObservers = new ObserverRegistry();
+    // The catalog segment this watchable was read from and its record there, or null.
+    CatalogSegment aCatalog;
+    int aRecord = -1;
 
     public AbstractWatchable(String pTitle, String pStudio, Language pLanguage) {
         assert pTitle != null && pLanguage != null && pStudio != null;
         aTitle = pTitle;
-        aStudio = pStudio;
+        aStudio = StringDictionary.instance().intern(pStudio);
         aLanguage = pLanguage;
     }
 
@@ -24,25 +31,143 @@ public abstract class AbstractWatchable implements Watchable {
         notifyObservers();
     }
 
+    /**
+     * Notifies each observer once that this watchable was watched, however many times it occurs in the observer. While
+     * notifications are coalesced, the notification is only delivered at the end of the batch.
+     */
     @Override
     public final void notifyObservers() {
-        for(WatchList observer : aObservers)
-            observer.update(this);
+        List<WatchList> pending = PENDING_NOTIFICATIONS.get();
+        for (WatchList observer : aObservers) {
+            // A concurrent watchlist may be notified by several threads, each with its own batch.
+            if (pending == null || observer instanceof ConcurrentWatchList) {
+                observer.update(this);
+            }
+            else {
+                if (observer.aPendingLastWatched == null) {
+                    pending.add(observer);
+                }
+                observer.aPendingLastWatched = this;
+            }
+        }
+    }
+
+    /**
+     * Runs an action that may watch many watchables, e.g., all the episodes of a show, and delivers the resulting
+     * notifications at the end: each observer is updated once, with the last watchable notified to it. Nested
+     * batches are part of the outermost one.
+     *
+     * @param pAction
+     *            the action to run
+     * @pre pAction != null
+     */
+    public static void coalesceNotifications(Runnable pAction) {
+        assert pAction != null;
+        if (PENDING_NOTIFICATIONS.get() != null) {
+            pAction.run();
+            return;
+        }
+        List<WatchList> pending = new ArrayList<>();
+        PENDING_NOTIFICATIONS.set(pending);
+        try {
+            pAction.run();
+        }
+        finally {
+            PENDING_NOTIFICATIONS.remove();
+            for (WatchList observer : pending) {
+                Watchable lastWatched = observer.aPendingLastWatched;
+                observer.aPendingLastWatched = null;
+                observer.update(lastWatched);
+            }
+        }
+    }
+
+    /**
+     * Notifies the observers that this watchable became valid or invalid.
+     *
+     * @param pValid
+     *            the new validity of this watchable
+     */
+    final void notifyValidityChanged(boolean pValid) {
+        for(WatchList observer : aObservers.occurrences())
+            observer.validityChanged(this, pValid);
     }
 
     @Override
     public final void addObserver(WatchList pWatchList) {
         aObservers.add(pWatchList);
+        stateChanged();
+    }
+
+    /**
+     * Registers pWatchList as an observer without calling stateChanged(), so that the validity of this watchable is
+     * not tracked yet, e.g., for a watchlist read from a snapshot. The watchlist calls stateChanged() once it needs
+     * the validity of its elements.
+     */
+    final void addObserverUntracked(WatchList pWatchList) {
+        aObservers.add(pWatchList);
+    }
+
+    /**
+     * Called when this watchable acquires state that must be preserved, i.e., an observer or metadata. By default,
+     * keeps a watchable read from a catalog segment in memory, since its state is not in the segment.
+     */
+    void stateChanged() {
+        if (aCatalog != null) {
+            aCatalog.pin(this);
+        }
+    }
+
+    /**
+     * @return true if this watchable has observers or metadata
+     */
+    boolean hasState() {
+        return hasObservers() || !aTags.isEmpty();
+    }
+
+    final boolean hasObservers() {
+        return !aObservers.isEmpty();
     }
 
     @Override
     public final void removeObserver(WatchList pWatchList) {
         aObservers.remove(pWatchList);
+        if (!hasObservers()) {
+            observersRemoved();
+        }
+    }
+
+    /**
+     * Called when the last observer of this watchable is removed. By default, does nothing.
+     */
+    void observersRemoved() {
     }
 
     @Override
     public abstract boolean isValid();
 
+    /**
+     * A clone shares the tags of the original until either of them changes them, and is not observed by the
+     * watchlists of the original. The tags of the clone are not indexed: the creator of the clone indexes them with
+     * {@link TagIndex#add(AbstractWatchable)} once the clone is complete, if it is not a mere copy, e.g., a prototype.
+     */
+    @Override
+    protected AbstractWatchable clone() throws CloneNotSupportedException {
+        AbstractWatchable clone = (AbstractWatchable) super.clone();
+        clone.aId = NEXT_ID.getAndIncrement();
+        clone.aObservers = new ObserverRegistry();
+        clone.aCatalog = null;
+        clone.aRecord = -1;
+        return clone;
+    }
+
+    /**
+     * @return a number that identifies this watchable, distinct from the number of any other watchable
+     */
+    public final int getId() {
+        return aId;
+    }
+
     @Override
     public final String getTitle() {
         return aTitle;
@@ -61,8 +186,13 @@ public abstract class AbstractWatchable implements Watchable {
     @Override
     public final String setInfo(String key, String val) {
         assert key != null && !key.isBlank();
-        if (val == null) return aTags.remove(key);
-        else return aTags.put(key, val);
+        String old = aTags.get(key);
+        aTags = val == null ? aTags.without(key) : aTags.with(key, val);
+        if (old != null || val != null) {
+            TagIndex.instance().update(this, key, old, val, !aTags.isEmpty());
+            stateChanged();
+        }
+        return old;
     }
 
     @Override
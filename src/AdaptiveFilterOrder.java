@@ -0,0 +1,203 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * Evaluation order of the filters combined by a composite filter, learned at runtime. For each kind of watchable, the
+ * number of evaluations, the number of passes and a sample of the evaluation time of every filter are counted, and the
+ * filters are periodically reordered so that the filters most likely to decide the result cheaply run first: the ones
+ * that reject cheaply for a conjunction, the ones that accept cheaply for a disjunction.
+ *
+ * The counters can be updated from several threads at once. The order is replaced as a whole, so a concurrent
+ * evaluation always uses a complete order.
+ */
+public class AdaptiveFilterOrder {
+
+	/**
+	 * The kinds of watchables a filter can be evaluated on. Each kind has its own statistics and order.
+	 */
+	public enum Kind {
+		MOVIE, TV_SHOW, EPISODE
+	}
+
+	private static final int REORDER_PERIOD = 1024;
+	private static final int SAMPLING_RATE = 16;
+
+	private final List<WatchListFilter> aFilters;
+	private final boolean aDecidingValue;
+	private final Statistics[] aStatistics = new Statistics[Kind.values().length];
+
+	/**
+	 * @param pFilters
+	 *            the filters to order, in their initial order
+	 * @param pDecidingValue
+	 *            the result of a filter that decides the result of the composite filter: false for a conjunction,
+	 *            true for a disjunction
+	 */
+	AdaptiveFilterOrder(List<WatchListFilter> pFilters, boolean pDecidingValue) {
+		aFilters = pFilters;
+		aDecidingValue = pDecidingValue;
+		for (int i = 0; i < aStatistics.length; i++) {
+			aStatistics[i] = new Statistics(pFilters.size());
+		}
+	}
+
+	/**
+	 * Evaluates the filters in the current order until one of them returns the deciding value.
+	 *
+	 * @param pKind
+	 *            the kind of watchable being filtered
+	 * @param pTest
+	 *            evaluates a filter on the watchable
+	 * @return the deciding value if a filter returned it, its negation otherwise
+	 */
+	boolean evaluate(Kind pKind, Predicate<WatchListFilter> pTest) {
+		Statistics statistics = aStatistics[pKind.ordinal()];
+		boolean result = !aDecidingValue;
+		for (int index : statistics.aOrder) {
+			boolean sampled = ThreadLocalRandom.current().nextInt(SAMPLING_RATE) == 0;
+			long start = sampled ? System.nanoTime() : 0;
+			boolean value = pTest.test(aFilters.get(index));
+			if (sampled) {
+				statistics.aNanos[index].add(System.nanoTime() - start);
+				statistics.aSamples[index].increment();
+			}
+			statistics.aEvaluations[index].increment();
+			if (value) {
+				statistics.aPasses[index].increment();
+			}
+			if (value == aDecidingValue) {
+				result = aDecidingValue;
+				break;
+			}
+		}
+		if (statistics.aCountdown.decrementAndGet() == 0) {
+			reorder(statistics);
+			statistics.aCountdown.set(REORDER_PERIOD);
+		}
+		return result;
+	}
+
+	/**
+	 * @param pKind
+	 *            a kind of watchable
+	 * @return the filters in the order in which they are currently evaluated for pKind
+	 */
+	public List<WatchListFilter> getOrder(Kind pKind) {
+		List<WatchListFilter> order = new ArrayList<>();
+		for (int index : aStatistics[pKind.ordinal()].aOrder) {
+			order.add(aFilters.get(index));
+		}
+		return order;
+	}
+
+	/**
+	 * @return the number of times pFilter was evaluated on a watchable of kind pKind
+	 * @pre pFilter is one of the ordered filters
+	 */
+	public long getEvaluationCount(Kind pKind, WatchListFilter pFilter) {
+		return aStatistics[pKind.ordinal()].aEvaluations[indexOf(pFilter)].sum();
+	}
+
+	/**
+	 * @return the number of times pFilter accepted a watchable of kind pKind
+	 * @pre pFilter is one of the ordered filters
+	 */
+	public long getPassCount(Kind pKind, WatchListFilter pFilter) {
+		return aStatistics[pKind.ordinal()].aPasses[indexOf(pFilter)].sum();
+	}
+
+	/**
+	 * @return the average time, in nanoseconds, of the sampled evaluations of pFilter on watchables of kind pKind, or
+	 *         0 if none was sampled
+	 * @pre pFilter is one of the ordered filters
+	 */
+	public double getAverageNanos(Kind pKind, WatchListFilter pFilter) {
+		Statistics statistics = aStatistics[pKind.ordinal()];
+		int index = indexOf(pFilter);
+		long samples = statistics.aSamples[index].sum();
+		return samples == 0 ? 0 : (double) statistics.aNanos[index].sum() / samples;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder result = new StringBuilder();
+		for (Kind kind : Kind.values()) {
+			result.append(kind).append(':');
+			for (WatchListFilter filter : getOrder(kind)) {
+				String name = filter.getClass().getSimpleName();
+				if (name.isEmpty()) name = filter.getClass().getName();
+				result.append(String.format(" [%s evaluated=%d passed=%d avg=%.0fns]", name,
+						getEvaluationCount(kind, filter), getPassCount(kind, filter), getAverageNanos(kind, filter)));
+			}
+			result.append('\n');
+		}
+		return result.toString();
+	}
+
+	private int indexOf(WatchListFilter pFilter) {
+		for (int i = 0; i < aFilters.size(); i++) {
+			if (aFilters.get(i) == pFilter) return i;
+		}
+		assert false;
+		return -1;
+	}
+
+	/*
+	 * Sorts the filters by expected cost per decision: the average cost of an evaluation divided by the probability
+	 * that the evaluation decides the result. The probability is smoothed so filters that were never evaluated, or
+	 * never decided, are neither favoured nor excluded forever.
+	 */
+	private void reorder(Statistics pStatistics) {
+		int size = aFilters.size();
+		double[] scores = new double[size];
+		for (int i = 0; i < size; i++) {
+			long evaluations = pStatistics.aEvaluations[i].sum();
+			long passes = pStatistics.aPasses[i].sum();
+			long decisions = aDecidingValue ? passes : evaluations - passes;
+			double probability = (decisions + 1.0) / (evaluations + 2.0);
+			long samples = pStatistics.aSamples[i].sum();
+			double cost = samples == 0 ? 1 : Math.max(1, (double) pStatistics.aNanos[i].sum() / samples);
+			scores[i] = cost / probability;
+		}
+		Integer[] order = new Integer[size];
+		for (int i = 0; i < size; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, Comparator.comparingDouble(index -> scores[index]));
+		int[] result = new int[size];
+		for (int i = 0; i < size; i++) {
+			result[i] = order[i];
+		}
+		pStatistics.aOrder = result;
+	}
+
+	private static final class Statistics {
+		volatile int[] aOrder;
+		final LongAdder[] aEvaluations;
+		final LongAdder[] aPasses;
+		final LongAdder[] aNanos;
+		final LongAdder[] aSamples;
+		final AtomicInteger aCountdown = new AtomicInteger(REORDER_PERIOD);
+
+		Statistics(int pSize) {
+			aOrder = new int[pSize];
+			aEvaluations = new LongAdder[pSize];
+			aPasses = new LongAdder[pSize];
+			aNanos = new LongAdder[pSize];
+			aSamples = new LongAdder[pSize];
+			for (int i = 0; i < pSize; i++) {
+				aOrder[i] = i;
+				aEvaluations[i] = new LongAdder();
+				aPasses[i] = new LongAdder();
+				aNanos[i] = new LongAdder();
+				aSamples[i] = new LongAdder();
+			}
+		}
+	}
+}
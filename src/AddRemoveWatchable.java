@@ -1,19 +1,80 @@
+/**
+ * Adds or removes a single watchable at a given position of a watchlist.
+ */
 public class AddRemoveWatchable extends AbstractCommand {
 
-    public AddRemoveWatchable(WatchList pWatchList) {
+    private final Watchable aWatchable;
+    private final int aIndex;
+    private final boolean aIsAdd;
+    private int aPrevNext;
+
+    /**
+     * @param pWatchList the watchlist to modify
+     * @param pWatchable the watchable added or removed
+     * @param pIndex the position at which pWatchable is inserted, or from which it is removed
+     * @param pIsAdd true to add pWatchable, false to remove it
+     * @pre pWatchable != null
+     */
+    public AddRemoveWatchable(WatchList pWatchList, Watchable pWatchable, int pIndex, boolean pIsAdd) {
         super(pWatchList);
+        assert pWatchable != null;
+        aWatchable = pWatchable;
+        aIndex = pIndex;
+        aIsAdd = pIsAdd;
+    }
+
+    Watchable getWatchable() {
+        return aWatchable;
+    }
+
+    int getIndex() {
+        return aIndex;
+    }
+
+    boolean isAdd() {
+        return aIsAdd;
+    }
+
+    @Override
+    public void execute() {
+        aPrevNext = aWatchList.aNext;
+        if (aIsAdd) insert();
+        else delete();
     }
 
     @Override
     public void unExecute() {
-        super.unExecute();
-        aWatchList.aList = aPrevState.aList;
+        if (aIsAdd) delete();
+        else insert();
+        aWatchList.aNext = aPrevNext;
     }
 
+    /**
+     * Adding is repeated by adding the same watchable at the end of the watchlist, and removing by removing the
+     * watchable now at the same position, if there is one.
+     */
     @Override
-    public void reExecute() {
-        super.reExecute();
-        if(aNextState == null) return;
-        aWatchList.aList = aNextState.aList;
+    public Command repeat() {
+        if (aIsAdd) return new AddRemoveWatchable(aWatchList, aWatchable, aWatchList.aList.size(), true);
+        if (aIndex >= aWatchList.aList.size()) return null;
+        return new AddRemoveWatchable(aWatchList, aWatchList.aList.get(aIndex), aIndex, false);
+    }
+
+    private void insert() {
+        boolean valid = aWatchable.isValid();
+        aWatchList.aList.add(aIndex, aWatchable);
+        aWatchList.aList.publish();
+        aWatchable.addObserver(aWatchList);
+        if (valid) aWatchList.aValidCount++;
+    }
+
+    private void delete() {
+        if (aWatchList.aNext > aIndex) {
+            aWatchList.aNext--;
+        }
+        if (aWatchable.isValid()) aWatchList.aValidCount--;
+        aWatchList.aList.remove(aIndex);
+        aWatchList.aList.publish();
+        aWatchable.removeObserver(aWatchList);
     }
 }
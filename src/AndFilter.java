@@ -1,21 +1,38 @@
 
-import java.util.Set;
+import java.util.List;
 
 
 public class AndFilter implements WatchListFilter {
 	
-	private final Set<WatchListFilter> aFilters;
+	private final List<WatchListFilter> aFilters;
+	private final AdaptiveFilterOrder aOrder;
 	
 	/**
-	 * Creates a new filter that is the conjunction of the filters passed as argument. There is no guarantee about the
-	 * order of execution of the filters.
+	 * Creates a new filter that is the conjunction of the filters passed as argument. The filters are first executed
+	 * in the order of the arguments, then in the order learned from their cost and pass rate so that the filters most
+	 * likely to reject a watchable cheaply run first.
 	 * 
 	 * @param pFilters
 	 *            list of filters to combine
 	 */
 	public AndFilter(WatchListFilter... pFilters) {
 		assert pFilters != null;
-		aFilters = Set.of(pFilters);
+		aFilters = List.of(pFilters);
+		aOrder = new AdaptiveFilterOrder(aFilters, false);
+	}
+	
+	/**
+	 * @return the filters combined by this filter
+	 */
+	public List<WatchListFilter> getFilters() {
+		return aFilters;
+	}
+	
+	/**
+	 * @return the learned execution order of the filters, and the statistics it is based on
+	 */
+	public AdaptiveFilterOrder getOrder() {
+		return aOrder;
 	}
 	
 	/**
@@ -27,12 +44,7 @@ public class AndFilter implements WatchListFilter {
 	@Override
 	public boolean filter(Movie pMovie) {
 		assert pMovie != null;
-		for (WatchListFilter filter : aFilters) {
-			if (!filter.filter(pMovie)) {
-				return false;
-			}
-		}
-		return true;
+		return aOrder.evaluate(AdaptiveFilterOrder.Kind.MOVIE, filter -> filter.filter(pMovie));
 	}
 	
 	/**
@@ -44,12 +56,7 @@ public class AndFilter implements WatchListFilter {
 	@Override
 	public boolean filter(TVShow pTVShow) {
 		assert pTVShow != null;
-		for (WatchListFilter filter : aFilters) {
-			if (!filter.filter(pTVShow)) {
-				return false;
-			}
-		}
-		return true;
+		return aOrder.evaluate(AdaptiveFilterOrder.Kind.TV_SHOW, filter -> filter.filter(pTVShow));
 	}
 	
 	/**
@@ -61,11 +68,6 @@ public class AndFilter implements WatchListFilter {
 	@Override
 	public boolean filter(TVShow.Episode pEpisode) {
 		assert pEpisode != null;
-		for (WatchListFilter filter : aFilters) {
-			if (!filter.filter(pEpisode)) {
-				return false;
-			}
-		}
-		return true;
+		return aOrder.evaluate(AdaptiveFilterOrder.Kind.EPISODE, filter -> filter.filter(pEpisode));
 	}
 }
@@ -0,0 +1,684 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Imports movies, shows and episodes from a catalog dump into a library, one row per line. The dump is read in chunks
+ * of lines by a reader thread, the chunks are parsed in parallel, and the rows are added to the library in the order
+ * of the dump on the calling thread. Only a bounded number of chunks are in flight at a time: the reader waits when
+ * the library falls behind, so the memory used by the import does not depend on the size of the dump.
+ *
+ * <p>
+ * Each row has a type, "movie", "show" or "episode", and the following fields:
+ * <ul>
+ * <li>movie: title, language, studio and path;
+ * <li>show: title, language and studio;
+ * <li>episode: show, the title of its show, then title and path.
+ * </ul>
+ * A CSV dump starts with a header line naming its columns, e.g., <code>type,title,language,studio,path,show</code>.
+ * Quoted fields may contain commas and doubled quotes, but not line breaks. A JSONL dump has one flat object per line,
+ * e.g., <code>{"type":"episode","show":"Friends","title":"Pilot","path":"friends/1.mp4"}</code>. Languages are the
+ * names of {@link Language} constants, in any case. Rows that are malformed or miss a field are skipped and counted.
+ *
+ * <p>
+ * Episodes are added to their show in the order of the dump. Episodes that come before their show are kept until
+ * the show is imported, possibly from a later dump given to the same importer. Shows already in the library, and
+ * shows imported earlier by the same importer, are found by title.
+ *
+ * <p>
+ * The paths of the movies and episodes are not checked during the import: their validity is checked when they are
+ * used, or all at once with a {@link ValidityScanner}.
+ */
+public class CatalogImporter {
+
+	/**
+	 * The formats of the dumps that can be imported.
+	 */
+	public enum Format {
+		CSV, JSONL
+	}
+
+	private static final int DEFAULT_CHUNK_SIZE = 4096;
+
+	// Marks the end of the dump in the queue of parsed chunks.
+	private static final Chunk END = new Chunk(List.of(), 0);
+
+	private final Library aLibrary;
+	private final int aParallelism;
+	private int aChunkSize = DEFAULT_CHUNK_SIZE;
+	private TVShow.EpisodeStorage aStorage = TVShow.EpisodeStorage.OBJECTS;
+	private Consumer<Report> aProgressListener = report -> {};
+	private final Map<String, TVShow> aShows = new HashMap<>();
+	private final Map<String, List<Row>> aPendingEpisodes = new HashMap<>();
+	private int aPendingEpisodeCount;
+
+	/**
+	 * Creates an importer that adds to pLibrary.
+	 *
+	 * @param pLibrary
+	 *            the library to import into
+	 * @param pParallelism
+	 *            the number of threads that parse the dump
+	 * @pre pLibrary != null && pParallelism > 0
+	 */
+	public CatalogImporter(Library pLibrary, int pParallelism) {
+		assert pLibrary != null && pParallelism > 0;
+		aLibrary = pLibrary;
+		aParallelism = pParallelism;
+		for (TVShow show : pLibrary.getTVShows()) {
+			aShows.putIfAbsent(show.getTitle(), show);
+		}
+	}
+
+	/**
+	 * Sets the number of lines in a chunk, 4096 by default. At most a few chunks per parsing thread are in memory at
+	 * a time.
+	 *
+	 * @pre pChunkSize > 0
+	 */
+	public void setChunkSize(int pChunkSize) {
+		assert pChunkSize > 0;
+		aChunkSize = pChunkSize;
+	}
+
+	/**
+	 * Sets how the episodes of the imported shows are stored, {@link TVShow.EpisodeStorage#OBJECTS} by default.
+	 *
+	 * @pre pStorage != null
+	 */
+	public void setEpisodeStorage(TVShow.EpisodeStorage pStorage) {
+		assert pStorage != null;
+		aStorage = pStorage;
+	}
+
+	/**
+	 * Sets a listener called on the importing thread after each chunk is added to the library, with the progress of
+	 * the current import.
+	 *
+	 * @pre pListener != null
+	 */
+	public void setProgressListener(Consumer<Report> pListener) {
+		assert pListener != null;
+		aProgressListener = pListener;
+	}
+
+	/**
+	 * @return the number of episodes whose show has not been imported yet
+	 */
+	public int getPendingEpisodeCount() {
+		return aPendingEpisodeCount;
+	}
+
+	/**
+	 * Imports the dump stored in pPath, encoded in UTF-8.
+	 *
+	 * @return statistics about the import
+	 * @throws IOException
+	 *             if the file cannot be read. The rows read before the error stay in the library.
+	 * @pre pPath != null && pFormat != null
+	 */
+	public Report importFrom(Path pPath, Format pFormat) throws IOException {
+		assert pPath != null && pFormat != null;
+		try (Reader reader = Files.newBufferedReader(pPath, StandardCharsets.UTF_8)) {
+			return importFrom(reader, pFormat);
+		}
+	}
+
+	/**
+	 * Imports the dump read from pReader, which is not closed.
+	 *
+	 * @return statistics about the import
+	 * @throws IOException
+	 *             if the dump cannot be read. The rows read before the error stay in the library.
+	 * @pre pReader != null && pFormat != null
+	 */
+	public Report importFrom(Reader pReader, Format pFormat) throws IOException {
+		assert pReader != null && pFormat != null;
+		Progress progress = new Progress();
+		BlockingQueue<Future<Chunk>> chunks = new ArrayBlockingQueue<>(2 * aParallelism);
+		ExecutorService parsers = Executors.newFixedThreadPool(aParallelism, runnable -> {
+			Thread thread = new Thread(runnable, "catalog-parser");
+			thread.setDaemon(true);
+			return thread;
+		});
+		Thread reader = new Thread(() -> read(pReader, pFormat, chunks, parsers), "catalog-reader");
+		reader.setDaemon(true);
+		reader.start();
+		try {
+			while (true) {
+				Chunk chunk = chunks.take().get();
+				if (chunk == END) break;
+				insert(chunk, progress);
+				aProgressListener.accept(progress.report());
+			}
+			return progress.report();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Import interrupted");
+		}
+		catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof UncheckedIOException) throw ((UncheckedIOException) cause).getCause();
+			if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+			if (cause instanceof Error) throw (Error) cause;
+			throw new IOException(cause);
+		}
+		finally {
+			reader.interrupt();
+			parsers.shutdownNow();
+			joinUninterruptibly(reader);
+		}
+	}
+
+	/*
+	 * Reads the dump in chunks of lines and submits them to the parsers. The parsed chunks are queued in the order of
+	 * the dump, and the reader waits when the queue is full.
+	 */
+	private void read(Reader pReader, Format pFormat, BlockingQueue<Future<Chunk>> pChunks, ExecutorService pParsers) {
+		try {
+			try {
+				BufferedReader in = pReader instanceof BufferedReader ? (BufferedReader) pReader
+						: new BufferedReader(pReader);
+				Function<String, Row> parser;
+				if (pFormat == Format.CSV) {
+					String header = in.readLine();
+					if (header == null) {
+						pChunks.put(CompletableFuture.completedFuture(END));
+						return;
+					}
+					parser = csvParser(header);
+				}
+				else {
+					parser = CatalogImporter::parseJsonLine;
+				}
+				List<String> lines = new ArrayList<>(aChunkSize);
+				String line;
+				while ((line = in.readLine()) != null) {
+					lines.add(line);
+					if (lines.size() == aChunkSize) {
+						List<String> full = lines;
+						pChunks.put(pParsers.submit(() -> parse(full, parser)));
+						lines = new ArrayList<>(aChunkSize);
+					}
+				}
+				if (!lines.isEmpty()) {
+					List<String> last = lines;
+					pChunks.put(pParsers.submit(() -> parse(last, parser)));
+				}
+				pChunks.put(CompletableFuture.completedFuture(END));
+			}
+			catch (IOException e) {
+				pChunks.put(CompletableFuture.failedFuture(new UncheckedIOException(e)));
+			}
+			catch (RuntimeException e) {
+				pChunks.put(CompletableFuture.failedFuture(e));
+			}
+		}
+		catch (InterruptedException e) {
+			// The import was abandoned.
+		}
+	}
+
+	private static Chunk parse(List<String> pLines, Function<String, Row> pParser) {
+		List<Row> rows = new ArrayList<>(pLines.size());
+		int rejected = 0;
+		for (String line : pLines) {
+			if (line.isBlank()) continue;
+			Row row = pParser.apply(line);
+			if (row == null) {
+				rejected++;
+			}
+			else {
+				rows.add(row);
+			}
+		}
+		return new Chunk(rows, rejected);
+	}
+
+	private void insert(Chunk pChunk, Progress pProgress) {
+		pProgress.aRejectedCount += pChunk.aRejectedCount;
+		for (Row row : pChunk.aRows) {
+			switch (row.aType) {
+			case MOVIE:
+				aLibrary.addMovie(Movie.restore(new File(row.aPath), row.aTitle, row.aLanguage, row.aStudio));
+				pProgress.aMovieCount++;
+				break;
+			case SHOW:
+				TVShow show = new TVShow(row.aTitle, row.aLanguage, row.aStudio, aStorage);
+				aShows.put(row.aTitle, show);
+				aLibrary.addTVShow(show);
+				pProgress.aShowCount++;
+				List<Row> pending = aPendingEpisodes.remove(row.aTitle);
+				if (pending != null) {
+					aPendingEpisodeCount -= pending.size();
+					for (Row episode : pending) {
+						show.createAndAddEpisode(new File(episode.aPath), episode.aTitle);
+					}
+					pProgress.aEpisodeCount += pending.size();
+				}
+				break;
+			case EPISODE:
+				TVShow owner = aShows.get(row.aShow);
+				if (owner == null) {
+					aPendingEpisodes.computeIfAbsent(row.aShow, key -> new ArrayList<>()).add(row);
+					aPendingEpisodeCount++;
+				}
+				else {
+					owner.createAndAddEpisode(new File(row.aPath), row.aTitle);
+					pProgress.aEpisodeCount++;
+				}
+				break;
+			default:
+				throw new AssertionError(row.aType);
+			}
+		}
+		pProgress.aRowCount += pChunk.aRows.size() + pChunk.aRejectedCount;
+		pProgress.aPendingEpisodeCount = aPendingEpisodeCount;
+	}
+
+	private static void joinUninterruptibly(Thread pThread) {
+		boolean interrupted = false;
+		while (true) {
+			try {
+				pThread.join();
+				break;
+			}
+			catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/*
+	 * Returns a parser for the lines of a CSV dump whose header line is pHeader.
+	 */
+	private static Function<String, Row> csvParser(String pHeader) {
+		List<String> names = splitCsv(pHeader);
+		if (names == null) throw new IllegalArgumentException("Malformed CSV header: " + pHeader);
+		Map<String, Integer> columns = new HashMap<>();
+		for (int i = 0; i < names.size(); i++) {
+			columns.put(names.get(i).strip().toLowerCase(Locale.ROOT), i);
+		}
+		if (!columns.containsKey("type")) throw new IllegalArgumentException("The CSV header has no type column");
+		return line -> {
+			List<String> fields = splitCsv(line);
+			if (fields == null) return null;
+			return Row.of(name -> {
+				Integer column = columns.get(name);
+				return column == null || column >= fields.size() ? null : fields.get(column);
+			});
+		};
+	}
+
+	/*
+	 * Splits a CSV line into its fields, or returns null if a quoted field is not terminated.
+	 */
+	private static List<String> splitCsv(String pLine) {
+		List<String> fields = new ArrayList<>();
+		StringBuilder field = new StringBuilder();
+		int i = 0;
+		while (true) {
+			if (i < pLine.length() && pLine.charAt(i) == '"') {
+				i++;
+				while (true) {
+					if (i >= pLine.length()) return null;
+					char c = pLine.charAt(i++);
+					if (c == '"') {
+						if (i < pLine.length() && pLine.charAt(i) == '"') {
+							field.append('"');
+							i++;
+						}
+						else {
+							break;
+						}
+					}
+					else {
+						field.append(c);
+					}
+				}
+			}
+			while (i < pLine.length() && pLine.charAt(i) != ',') {
+				field.append(pLine.charAt(i++));
+			}
+			fields.add(field.toString());
+			field.setLength(0);
+			if (i >= pLine.length()) return fields;
+			i++;
+		}
+	}
+
+	/*
+	 * Parses a line of a JSONL dump, or returns null if it is not a flat object. Numbers and booleans are kept as
+	 * text, and null values are ignored.
+	 */
+	private static Row parseJsonLine(String pLine) {
+		Map<String, String> fields = new HashMap<>();
+		JsonCursor cursor = new JsonCursor(pLine);
+		if (!cursor.consume('{')) return null;
+		if (!cursor.consume('}')) {
+			do {
+				String name = cursor.string();
+				if (name == null || !cursor.consume(':')) return null;
+				String value;
+				if (cursor.peek() == '"') {
+					value = cursor.string();
+					if (value == null) return null;
+				}
+				else {
+					value = cursor.literal();
+					if (value == null) return null;
+					if (value.equals("null")) value = null;
+				}
+				if (value != null) {
+					fields.put(name.toLowerCase(Locale.ROOT), value);
+				}
+			}
+			while (cursor.consume(','));
+			if (!cursor.consume('}')) return null;
+		}
+		if (!cursor.atEnd()) return null;
+		return Row.of(fields::get);
+	}
+
+	/*
+	 * Reads the tokens of a line of JSON, skipping white space.
+	 */
+	private static final class JsonCursor {
+		private final String aLine;
+		private int aPosition;
+
+		JsonCursor(String pLine) {
+			aLine = pLine;
+		}
+
+		private void skipSpaces() {
+			while (aPosition < aLine.length() && Character.isWhitespace(aLine.charAt(aPosition))) {
+				aPosition++;
+			}
+		}
+
+		char peek() {
+			skipSpaces();
+			return aPosition < aLine.length() ? aLine.charAt(aPosition) : 0;
+		}
+
+		boolean consume(char pExpected) {
+			if (peek() != pExpected) return false;
+			aPosition++;
+			return true;
+		}
+
+		boolean atEnd() {
+			skipSpaces();
+			return aPosition == aLine.length();
+		}
+
+		/*
+		 * Reads a string, or returns null if there is none.
+		 */
+		String string() {
+			if (!consume('"')) return null;
+			StringBuilder result = new StringBuilder();
+			while (aPosition < aLine.length()) {
+				char c = aLine.charAt(aPosition++);
+				if (c == '"') return result.toString();
+				if (c != '\\') {
+					result.append(c);
+					continue;
+				}
+				if (aPosition >= aLine.length()) return null;
+				char escaped = aLine.charAt(aPosition++);
+				switch (escaped) {
+				case '"':
+				case '\\':
+				case '/':
+					result.append(escaped);
+					break;
+				case 'b':
+					result.append('\b');
+					break;
+				case 'f':
+					result.append('\f');
+					break;
+				case 'n':
+					result.append('\n');
+					break;
+				case 'r':
+					result.append('\r');
+					break;
+				case 't':
+					result.append('\t');
+					break;
+				case 'u':
+					if (aPosition + 4 > aLine.length()) return null;
+					try {
+						result.append((char) Integer.parseInt(aLine.substring(aPosition, aPosition + 4), 16));
+					}
+					catch (NumberFormatException e) {
+						return null;
+					}
+					aPosition += 4;
+					break;
+				default:
+					return null;
+				}
+			}
+			return null;
+		}
+
+		/*
+		 * Reads a number, true, false or null, or returns null if there is none.
+		 */
+		String literal() {
+			skipSpaces();
+			int start = aPosition;
+			while (aPosition < aLine.length() && ",}: \t".indexOf(aLine.charAt(aPosition)) < 0) {
+				aPosition++;
+			}
+			return aPosition == start ? null : aLine.substring(start, aPosition);
+		}
+	}
+
+	private enum RowType {
+		MOVIE, SHOW, EPISODE
+	}
+
+	/*
+	 * A row of the dump, checked by the parsing thread.
+	 */
+	private static final class Row {
+		private final RowType aType;
+		private final String aTitle;
+		private final Language aLanguage;
+		private final String aStudio;
+		private final String aPath;
+		private final String aShow;
+
+		private Row(RowType pType, String pTitle, Language pLanguage, String pStudio, String pPath, String pShow) {
+			aType = pType;
+			aTitle = pTitle;
+			aLanguage = pLanguage;
+			aStudio = pStudio;
+			aPath = pPath;
+			aShow = pShow;
+		}
+
+		/*
+		 * Creates a row from the values of its fields, or returns null if a field required by its type is missing or
+		 * invalid.
+		 */
+		static Row of(Function<String, String> pFields) {
+			String type = pFields.apply("type");
+			String title = pFields.apply("title");
+			if (type == null || title == null) return null;
+			switch (type.strip().toLowerCase(Locale.ROOT)) {
+			case "movie": {
+				Language language = language(pFields.apply("language"));
+				String studio = pFields.apply("studio");
+				String path = nonEmpty(pFields.apply("path"));
+				if (language == null || studio == null || path == null) return null;
+				return new Row(RowType.MOVIE, title, language, studio, path, null);
+			}
+			case "show": {
+				Language language = language(pFields.apply("language"));
+				String studio = pFields.apply("studio");
+				if (language == null || studio == null) return null;
+				return new Row(RowType.SHOW, title, language, studio, null, null);
+			}
+			case "episode": {
+				String show = pFields.apply("show");
+				String path = nonEmpty(pFields.apply("path"));
+				if (show == null || path == null) return null;
+				return new Row(RowType.EPISODE, title, null, null, path, show);
+			}
+			default:
+				return null;
+			}
+		}
+
+		private static Language language(String pName) {
+			if (pName == null) return null;
+			try {
+				return Language.valueOf(pName.strip().toUpperCase(Locale.ROOT));
+			}
+			catch (IllegalArgumentException e) {
+				return null;
+			}
+		}
+
+		private static String nonEmpty(String pValue) {
+			return pValue == null || pValue.isEmpty() ? null : pValue;
+		}
+	}
+
+	private static final class Chunk {
+		private final List<Row> aRows;
+		private final int aRejectedCount;
+
+		Chunk(List<Row> pRows, int pRejectedCount) {
+			aRows = pRows;
+			aRejectedCount = pRejectedCount;
+		}
+	}
+
+	/*
+	 * The counters of an import in progress, only used by the importing thread.
+	 */
+	private static final class Progress {
+		private final long aStart = System.nanoTime();
+		private long aRowCount;
+		private long aRejectedCount;
+		private long aMovieCount;
+		private long aShowCount;
+		private long aEpisodeCount;
+		private int aPendingEpisodeCount;
+
+		Report report() {
+			return new Report(aRowCount, aRejectedCount, aMovieCount, aShowCount, aEpisodeCount, aPendingEpisodeCount,
+					System.nanoTime() - aStart);
+		}
+	}
+
+	/**
+	 * Statistics about an import, complete or in progress.
+	 */
+	public static final class Report {
+		private final long aRowCount;
+		private final long aRejectedCount;
+		private final long aMovieCount;
+		private final long aShowCount;
+		private final long aEpisodeCount;
+		private final int aPendingEpisodeCount;
+		private final long aElapsedNanos;
+
+		private Report(long pRowCount, long pRejectedCount, long pMovieCount, long pShowCount, long pEpisodeCount,
+				int pPendingEpisodeCount, long pElapsedNanos) {
+			aRowCount = pRowCount;
+			aRejectedCount = pRejectedCount;
+			aMovieCount = pMovieCount;
+			aShowCount = pShowCount;
+			aEpisodeCount = pEpisodeCount;
+			aPendingEpisodeCount = pPendingEpisodeCount;
+			aElapsedNanos = pElapsedNanos;
+		}
+
+		/**
+		 * @return the number of rows read, including the rejected ones but not the blank lines
+		 */
+		public long getRowCount() {
+			return aRowCount;
+		}
+
+		/**
+		 * @return the number of rows skipped because they are malformed or miss a field
+		 */
+		public long getRejectedCount() {
+			return aRejectedCount;
+		}
+
+		public long getMovieCount() {
+			return aMovieCount;
+		}
+
+		public long getShowCount() {
+			return aShowCount;
+		}
+
+		/**
+		 * @return the number of episodes added to their show, including episodes of earlier imports whose show was
+		 *         found in this one
+		 */
+		public long getEpisodeCount() {
+			return aEpisodeCount;
+		}
+
+		/**
+		 * @return the number of episodes waiting for their show, including those of earlier imports
+		 */
+		public int getPendingEpisodeCount() {
+			return aPendingEpisodeCount;
+		}
+
+		public long getElapsedNanos() {
+			return aElapsedNanos;
+		}
+
+		/**
+		 * @return the throughput of the import, in rows per second
+		 */
+		public double getRowsPerSecond() {
+			return aElapsedNanos == 0 ? 0 : aRowCount * 1e9 / aElapsedNanos;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d rows (%d rejected): %d movies, %d shows, %d episodes (%d pending), %.0f rows/s",
+					aRowCount, aRejectedCount, aMovieCount, aShowCount, aEpisodeCount, aPendingEpisodeCount,
+					getRowsPerSecond());
+		}
+	}
+}
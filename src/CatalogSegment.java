@@ -0,0 +1,463 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+/**
+ * Movies and TV shows stored in a memory-mapped file instead of the heap, so that a catalog larger than the heap can be
+ * used and its cold parts paged out by the operating system.
+ *
+ * The file holds a header, one fixed-size record per movie, show and episode, and an area of UTF-8 strings referenced
+ * by the records. The movies come first, then the shows, then the episodes of each show in order. A record holds the
+ * offset and length of its title, studio and path, the ordinal of its language, and two links: the prequel and sequel
+ * of a movie, or the first episode and number of episodes of a show.
+ *
+ * A Movie or TVShow object is created from its record when it is accessed, and reused as long as it is reachable, so
+ * each one is always represented by a single object. Watchables that acquire observers, metadata or new links are
+ * kept in memory, since that state is not in the file.
+ *
+ * The movies and shows of each language and studio are indexed in memory, in compressed bitmaps of their positions,
+ * so that a query on a language or studio only reads the matching records. The indexes are built from the records on
+ * the first such query.
+ */
+public final class CatalogSegment {
+
+	private static final int MAGIC = 0x57434154;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 32;
+	private static final int RECORD_SIZE = 36;
+
+	private static final int TITLE = 0;
+	private static final int STUDIO = 8;
+	private static final int PATH = 16;
+	private static final int LANGUAGE = 24;
+	private static final int FIRST_LINK = 28;
+	private static final int SECOND_LINK = 32;
+
+	private static final Language[] LANGUAGES = Language.values();
+	private static final CompressedBitmap EMPTY = new CompressedBitmap();
+
+	private final ByteBuffer aRecords;
+	private final ByteBuffer aStrings;
+	private final int aMovieCount;
+	private final int aTVShowCount;
+	private final int aEpisodeCount;
+
+	private final Map<Integer, AbstractWatchable> aPinned = new HashMap<>();
+	private final Map<Integer, Handle> aLoaded = new HashMap<>();
+	private final ReferenceQueue<AbstractWatchable> aCollected = new ReferenceQueue<>();
+	// Built on the first query.
+	private Index aMovieIndex;
+	private Index aTVShowIndex;
+
+	private CatalogSegment(ByteBuffer pRecords, ByteBuffer pStrings, int pMovieCount, int pTVShowCount,
+			int pEpisodeCount) {
+		aRecords = pRecords;
+		aStrings = pStrings;
+		aMovieCount = pMovieCount;
+		aTVShowCount = pTVShowCount;
+		aEpisodeCount = pEpisodeCount;
+	}
+
+	/**
+	 * Writes movies and shows to a new catalog file and opens it. A link from a movie to a movie that is not in
+	 * pMovies is not written. The records and the strings are each limited to 2 GB.
+	 *
+	 * @param pFile
+	 *            the file to write, replaced if it exists
+	 * @param pMovies
+	 *            the movies to write
+	 * @param pTVShows
+	 *            the shows to write, with their episodes
+	 * @return the segment of the written file
+	 * @throws IOException
+	 *             if the file cannot be written, or the catalog is too large
+	 * @pre pFile != null && pMovies != null && pTVShows != null
+	 */
+	public static CatalogSegment write(Path pFile, Collection<Movie> pMovies, Collection<TVShow> pTVShows)
+			throws IOException {
+		assert pFile != null && pMovies != null && pTVShows != null;
+		Map<Movie, Integer> movies = new IdentityHashMap<>();
+		List<Movie> order = new ArrayList<>();
+		for (Movie movie : pMovies) {
+			if (movies.putIfAbsent(movie, movies.size()) == null) {
+				order.add(movie);
+			}
+		}
+		int episodeCount = 0;
+		for (TVShow show : pTVShows) {
+			episodeCount += show.getTotalCount();
+		}
+		long records = (long) movies.size() + pTVShows.size() + episodeCount;
+		if (records * RECORD_SIZE > Integer.MAX_VALUE) {
+			throw new IOException("Too many records for a catalog segment: " + records);
+		}
+		Strings strings = new Strings();
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(pFile)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(movies.size());
+			out.writeInt(pTVShows.size());
+			out.writeInt(episodeCount);
+			out.write(new byte[HEADER_SIZE - 20]);
+			for (Movie movie : order) {
+				writeRecord(out, strings, movie.getTitle(), movie.getStudio(), movie.getPath(), movie.getLanguage(),
+						movie.hasPrevious() ? movies.getOrDefault(movie.getPrevious(), -1) : -1,
+						movie.hasNext() ? movies.getOrDefault(movie.getNext(), -1) : -1);
+			}
+			int firstEpisode = movies.size() + pTVShows.size();
+			for (TVShow show : pTVShows) {
+				writeRecord(out, strings, show.getTitle(), show.getStudio(), null, show.getLanguage(), firstEpisode,
+						show.getTotalCount());
+				firstEpisode += show.getTotalCount();
+			}
+			for (TVShow show : pTVShows) {
+				for (TVShow.Episode episode : show) {
+					writeRecord(out, strings, episode.getTitle(), episode.getStudio(), episode.getPath(),
+							episode.getLanguage(), -1, -1);
+				}
+			}
+			strings.writeTo(out);
+		}
+		return open(pFile);
+	}
+
+	/**
+	 * Maps an existing catalog file.
+	 *
+	 * @throws IOException
+	 *             if the file cannot be read or is not a catalog segment
+	 * @pre pFile != null
+	 */
+	public static CatalogSegment open(Path pFile) throws IOException {
+		assert pFile != null;
+		try (FileChannel channel = FileChannel.open(pFile, StandardOpenOption.READ)) {
+			if (channel.size() < HEADER_SIZE) {
+				throw new IOException("Not a catalog segment: " + pFile);
+			}
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+			if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+				throw new IOException("Not a catalog segment: " + pFile);
+			}
+			int movieCount = header.getInt(8);
+			int showCount = header.getInt(12);
+			int episodeCount = header.getInt(16);
+			long recordsSize = ((long) movieCount + showCount + episodeCount) * RECORD_SIZE;
+			long stringsSize = channel.size() - HEADER_SIZE - recordsSize;
+			if (recordsSize > Integer.MAX_VALUE || stringsSize < 0 || stringsSize > Integer.MAX_VALUE) {
+				throw new IOException("Corrupted catalog segment: " + pFile);
+			}
+			// The mappings stay valid after the channel is closed.
+			ByteBuffer records = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, recordsSize);
+			ByteBuffer strings = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + recordsSize, stringsSize);
+			return new CatalogSegment(records, strings, movieCount, showCount, episodeCount);
+		}
+	}
+
+	public int getMovieCount() {
+		return aMovieCount;
+	}
+
+	public int getTVShowCount() {
+		return aTVShowCount;
+	}
+
+	public int getEpisodeCount() {
+		return aEpisodeCount;
+	}
+
+	/**
+	 * @param pIndex
+	 *            the position of the movie in the segment
+	 * @return the movie
+	 * @pre 0 <= pIndex && pIndex < getMovieCount()
+	 */
+	public Movie getMovie(int pIndex) {
+		assert 0 <= pIndex && pIndex < aMovieCount;
+		return (Movie) load(pIndex, record -> new Movie(this, record));
+	}
+
+	/**
+	 * @param pIndex
+	 *            the position of the show in the segment
+	 * @return the show, with all its episodes
+	 * @pre 0 <= pIndex && pIndex < getTVShowCount()
+	 */
+	public TVShow getTVShow(int pIndex) {
+		assert 0 <= pIndex && pIndex < aTVShowCount;
+		return (TVShow) load(aMovieCount + pIndex, this::readTVShow);
+	}
+
+	/**
+	 * @return the movies of the segment, read when they are accessed. The list cannot be modified.
+	 */
+	public List<Movie> getMovies() {
+		return new Records<>(aMovieCount, this::getMovie);
+	}
+
+	/**
+	 * @return the shows of the segment, read when they are accessed. The list cannot be modified.
+	 */
+	public List<TVShow> getTVShows() {
+		return new Records<>(aTVShowCount, this::getTVShow);
+	}
+
+	/**
+	 * @return the positions of the movies in pLanguage. The bitmap must not be modified.
+	 * @pre pLanguage != null
+	 */
+	public CompressedBitmap getMovieIndexes(Language pLanguage) {
+		assert pLanguage != null;
+		return movieIndex().aByLanguage.getOrDefault(pLanguage, EMPTY);
+	}
+
+	/**
+	 * @return the positions of the movies of pStudio. The bitmap must not be modified.
+	 * @pre pStudio != null
+	 */
+	public CompressedBitmap getMovieIndexes(String pStudio) {
+		assert pStudio != null;
+		return movieIndex().aByStudio.getOrDefault(pStudio, EMPTY);
+	}
+
+	/**
+	 * @return the positions of the shows in pLanguage. The bitmap must not be modified.
+	 * @pre pLanguage != null
+	 */
+	public CompressedBitmap getTVShowIndexes(Language pLanguage) {
+		assert pLanguage != null;
+		return tvShowIndex().aByLanguage.getOrDefault(pLanguage, EMPTY);
+	}
+
+	/**
+	 * @return the positions of the shows of pStudio. The bitmap must not be modified.
+	 * @pre pStudio != null
+	 */
+	public CompressedBitmap getTVShowIndexes(String pStudio) {
+		assert pStudio != null;
+		return tvShowIndex().aByStudio.getOrDefault(pStudio, EMPTY);
+	}
+
+	/**
+	 * Calls pAction on the file of every movie and episode of the segment, without creating the watchables.
+	 */
+	public void forEachMediaFile(Consumer<File> pAction) {
+		for (int i = 0; i < aMovieCount; i++) {
+			pAction.accept(getPath(i));
+		}
+		int firstEpisode = aMovieCount + aTVShowCount;
+		for (int i = 0; i < aEpisodeCount; i++) {
+			pAction.accept(getPath(firstEpisode + i));
+		}
+	}
+
+	String getTitle(int pRecord) {
+		return getString(pRecord, TITLE);
+	}
+
+	String getStudio(int pRecord) {
+		return getString(pRecord, STUDIO);
+	}
+
+	File getPath(int pRecord) {
+		return new File(getString(pRecord, PATH));
+	}
+
+	Language getLanguage(int pRecord) {
+		return LANGUAGES[aRecords.getInt(pRecord * RECORD_SIZE + LANGUAGE)];
+	}
+
+	/**
+	 * @return the prequel written for the movie of record pRecord, or null if there is none
+	 */
+	Movie getPrequel(int pRecord) {
+		int prequel = aRecords.getInt(pRecord * RECORD_SIZE + FIRST_LINK);
+		return prequel < 0 ? null : getMovie(prequel);
+	}
+
+	/**
+	 * @return the sequel written for the movie of record pRecord, or null if there is none
+	 */
+	Movie getSequel(int pRecord) {
+		int sequel = aRecords.getInt(pRecord * RECORD_SIZE + SECOND_LINK);
+		return sequel < 0 ? null : getMovie(sequel);
+	}
+
+	/**
+	 * Keeps pWatchable in memory, if it was read from this segment.
+	 */
+	synchronized void pin(AbstractWatchable pWatchable) {
+		if (pWatchable.aCatalog == this && loaded(pWatchable.aRecord) == pWatchable) {
+			aPinned.put(pWatchable.aRecord, pWatchable);
+			aLoaded.remove(pWatchable.aRecord);
+		}
+	}
+
+	private synchronized AbstractWatchable load(int pRecord, IntFunction<AbstractWatchable> pFactory) {
+		AbstractWatchable watchable = loaded(pRecord);
+		if (watchable == null) {
+			watchable = pFactory.apply(pRecord);
+			watchable.aCatalog = this;
+			watchable.aRecord = pRecord;
+			aLoaded.put(pRecord, new Handle(watchable, pRecord, aCollected));
+		}
+		return watchable;
+	}
+
+	private synchronized Index movieIndex() {
+		if (aMovieIndex == null) {
+			aMovieIndex = new Index(0, aMovieCount);
+		}
+		return aMovieIndex;
+	}
+
+	private synchronized Index tvShowIndex() {
+		if (aTVShowIndex == null) {
+			aTVShowIndex = new Index(aMovieCount, aTVShowCount);
+		}
+		return aTVShowIndex;
+	}
+
+	private AbstractWatchable loaded(int pRecord) {
+		Handle handle;
+		while ((handle = (Handle) aCollected.poll()) != null) {
+			aLoaded.remove(handle.aRecord, handle);
+		}
+		AbstractWatchable watchable = aPinned.get(pRecord);
+		if (watchable != null) return watchable;
+		handle = aLoaded.get(pRecord);
+		return handle == null ? null : handle.get();
+	}
+
+	private TVShow readTVShow(int pRecord) {
+		TVShow show = new TVShow(getTitle(pRecord), getLanguage(pRecord), getStudio(pRecord),
+				TVShow.EpisodeStorage.COLUMNS);
+		int first = aRecords.getInt(pRecord * RECORD_SIZE + FIRST_LINK);
+		int count = aRecords.getInt(pRecord * RECORD_SIZE + SECOND_LINK);
+		for (int i = first; i < first + count; i++) {
+			show.createAndAddEpisode(getPath(i), getTitle(i));
+		}
+		return show;
+	}
+
+	private String getString(int pRecord, int pField) {
+		int offset = aRecords.getInt(pRecord * RECORD_SIZE + pField);
+		int length = aRecords.getInt(pRecord * RECORD_SIZE + pField + 4);
+		byte[] bytes = new byte[length];
+		aStrings.get(offset, bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static void writeRecord(DataOutputStream pOut, Strings pStrings, String pTitle, String pStudio,
+			File pPath, Language pLanguage, int pFirstLink, int pSecondLink) throws IOException {
+		pStrings.write(pOut, pTitle);
+		pStrings.write(pOut, pStudio);
+		pStrings.write(pOut, pPath == null ? "" : pPath.getPath());
+		pOut.writeInt(pLanguage.ordinal());
+		pOut.writeInt(pFirstLink);
+		pOut.writeInt(pSecondLink);
+	}
+
+	/*
+	 * The string area being written. Equal strings, e.g., the studios, are only stored once.
+	 */
+	private static final class Strings {
+		private final ByteArrayOutputStream aBytes = new ByteArrayOutputStream();
+		private final Map<String, Integer> aOffsets = new HashMap<>();
+
+		void write(DataOutputStream pOut, String pString) throws IOException {
+			byte[] bytes = pString.getBytes(StandardCharsets.UTF_8);
+			Integer offset = aOffsets.get(pString);
+			if (offset == null) {
+				if ((long) aBytes.size() + bytes.length > Integer.MAX_VALUE) {
+					throw new IOException("Too many strings for a catalog segment");
+				}
+				offset = aBytes.size();
+				aBytes.write(bytes);
+				aOffsets.put(pString, offset);
+			}
+			pOut.writeInt(offset);
+			pOut.writeInt(bytes.length);
+		}
+
+		void writeTo(DataOutputStream pOut) throws IOException {
+			aBytes.writeTo(pOut);
+		}
+	}
+
+	/*
+	 * The positions of pCount consecutive records by language and by studio. Each distinct studio is only decoded
+	 * once, since equal strings share their offset in the string area.
+	 */
+	private final class Index {
+		private final Map<Language, CompressedBitmap> aByLanguage = new HashMap<>();
+		private final Map<String, CompressedBitmap> aByStudio = new HashMap<>();
+
+		Index(int pFirstRecord, int pCount) {
+			// The bitmap of each studio, and a record of that studio, by offset of the studio in the string area.
+			Map<Integer, CompressedBitmap> byStudioOffset = new HashMap<>();
+			Map<Integer, Integer> recordByStudioOffset = new HashMap<>();
+			for (int i = 0; i < pCount; i++) {
+				int record = pFirstRecord + i;
+				int studio = aRecords.getInt(record * RECORD_SIZE + STUDIO);
+				aByLanguage.computeIfAbsent(getLanguage(record), language -> new CompressedBitmap()).add(i);
+				byStudioOffset.computeIfAbsent(studio, offset -> new CompressedBitmap()).add(i);
+				recordByStudioOffset.putIfAbsent(studio, record);
+			}
+			for (Map.Entry<Integer, CompressedBitmap> studio : byStudioOffset.entrySet()) {
+				aByStudio.put(getStudio(recordByStudioOffset.get(studio.getKey())), studio.getValue());
+			}
+		}
+	}
+
+	private static final class Handle extends WeakReference<AbstractWatchable> {
+		final int aRecord;
+
+		Handle(AbstractWatchable pWatchable, int pRecord, ReferenceQueue<AbstractWatchable> pQueue) {
+			super(pWatchable, pQueue);
+			aRecord = pRecord;
+		}
+	}
+
+	private static final class Records<T> extends AbstractList<T> implements RandomAccess {
+		private final int aSize;
+		private final IntFunction<T> aLoader;
+
+		Records(int pSize, IntFunction<T> pLoader) {
+			aSize = pSize;
+			aLoader = pLoader;
+		}
+
+		@Override
+		public T get(int pIndex) {
+			if (pIndex < 0 || pIndex >= aSize) {
+				throw new IndexOutOfBoundsException("Index: " + pIndex + ", Size: " + aSize);
+			}
+			return aLoader.apply(pIndex);
+		}
+
+		@Override
+		public int size() {
+			return aSize;
+		}
+	}
+}
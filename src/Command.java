@@ -2,4 +2,16 @@ public interface Command {
     void execute();
     void reExecute();
     void unExecute();
+
+    /**
+     * @return an estimate, in bytes, of the memory retained by this command while it is kept in a history
+     */
+    long getFootprint();
+
+    /**
+     * @return a new command that performs the same action again on the current state of the watchlist, e.g., watching
+     *         the element after the current one for a command that watched the next element, or null if the action
+     *         cannot be performed again
+     */
+    Command repeat();
 }
@@ -0,0 +1,210 @@
+import java.util.Arrays;
+
+/**
+ * Undo/redo history of the commands executed on a watchlist, bounded both by a number of entries and by an estimated
+ * number of bytes. Commands are kept in a ring buffer: the oldest entries are evicted in constant time when a bound
+ * is exceeded, and the undone entries are discarded at once when a new command is executed.
+ */
+public class CommandHistory {
+
+	public static final int DEFAULT_MAX_DEPTH = 1000;
+	public static final long DEFAULT_MAX_FOOTPRINT = 1024 * 1024;
+	private static final int INITIAL_CAPACITY = 16;
+
+	private Command[] aCommands = new Command[INITIAL_CAPACITY];
+	private long[] aFootprints = new long[INITIAL_CAPACITY];
+	private int aHead;          // position of the oldest command in the ring
+	private int aDoneCount;     // commands that can be undone
+	private int aUndoneCount;   // commands that can be redone, stored right after the done ones
+	private long aDoneFootprint;
+	private long aUndoneFootprint;
+	private int aMaxDepth;
+	private long aMaxFootprint;
+
+	/**
+	 * Creates an empty history with the default bounds.
+	 */
+	public CommandHistory() {
+		this(DEFAULT_MAX_DEPTH, DEFAULT_MAX_FOOTPRINT);
+	}
+
+	/**
+	 * Creates an empty history.
+	 *
+	 * @param pMaxDepth
+	 *            maximum number of commands kept in the history
+	 * @param pMaxFootprint
+	 *            maximum estimated number of bytes retained by the commands of the history
+	 * @pre pMaxDepth > 0 && pMaxFootprint > 0
+	 */
+	public CommandHistory(int pMaxDepth, long pMaxFootprint) {
+		setLimits(pMaxDepth, pMaxFootprint);
+	}
+
+	/**
+	 * Changes the bounds of this history, evicting the oldest commands if they are exceeded.
+	 *
+	 * @param pMaxDepth
+	 *            maximum number of commands kept in the history
+	 * @param pMaxFootprint
+	 *            maximum estimated number of bytes retained by the commands of the history
+	 * @pre pMaxDepth > 0 && pMaxFootprint > 0
+	 */
+	public void setLimits(int pMaxDepth, long pMaxFootprint) {
+		assert pMaxDepth > 0 && pMaxFootprint > 0;
+		aMaxDepth = pMaxDepth;
+		aMaxFootprint = pMaxFootprint;
+		evict();
+	}
+
+	/**
+	 * Executes a command and records it as the most recent one. Commands that were undone can no longer be redone.
+	 *
+	 * @param pCommand
+	 *            the command to execute
+	 * @pre pCommand != null
+	 */
+	public void execute(Command pCommand) {
+		assert pCommand != null;
+		truncate();
+		pCommand.execute();
+		if (aDoneCount == aCommands.length) {
+			grow();
+		}
+		int position = position(aDoneCount);
+		long footprint = pCommand.getFootprint();
+		aCommands[position] = pCommand;
+		aFootprints[position] = footprint;
+		aDoneCount++;
+		aDoneFootprint += footprint;
+		evict();
+	}
+
+	/**
+	 * Reverses the most recent command that was not undone. Does nothing if there is none.
+	 */
+	public void undo() {
+		if (aDoneCount == 0) return;
+		aDoneCount--;
+		aUndoneCount++;
+		int position = position(aDoneCount);
+		aDoneFootprint -= aFootprints[position];
+		aUndoneFootprint += aFootprints[position];
+		aCommands[position].unExecute();
+	}
+
+	/**
+	 * Performs again the most recently undone command. Does nothing if there is none.
+	 */
+	public void redo() {
+		if (aUndoneCount == 0) return;
+		int position = position(aDoneCount);
+		aDoneCount++;
+		aUndoneCount--;
+		aDoneFootprint += aFootprints[position];
+		aUndoneFootprint -= aFootprints[position];
+		aCommands[position].reExecute();
+	}
+
+	/**
+	 * @return the number of commands currently kept in the history, whether they can be undone or redone
+	 */
+	public int getDepth() {
+		return aDoneCount + aUndoneCount;
+	}
+
+	/**
+	 * @return the estimated number of bytes retained by the commands currently kept in the history
+	 */
+	public long getFootprint() {
+		return aDoneFootprint + aUndoneFootprint;
+	}
+
+	/**
+	 * @return the number of commands that can be undone
+	 */
+	public int getUndoCount() {
+		return aDoneCount;
+	}
+
+	/**
+	 * @return the number of commands that can be redone
+	 */
+	public int getRedoCount() {
+		return aUndoneCount;
+	}
+
+	/**
+	 * @param pOffset
+	 *            the position of a command in the history, from the oldest one
+	 * @return the command at pOffset, whether it can be undone or redone
+	 * @pre 0 <= pOffset && pOffset < getDepth()
+	 */
+	Command getCommand(int pOffset) {
+		assert 0 <= pOffset && pOffset < getDepth();
+		return aCommands[position(pOffset)];
+	}
+
+	public int getMaxDepth() {
+		return aMaxDepth;
+	}
+
+	public long getMaxFootprint() {
+		return aMaxFootprint;
+	}
+
+	private int position(int pOffset) {
+		return (aHead + pOffset) % aCommands.length;
+	}
+
+	/*
+	 * Drops every undone command in one step. The slots are cleared so the commands can be garbage collected.
+	 */
+	private void truncate() {
+		if (aUndoneCount == 0) return;
+		int from = position(aDoneCount);
+		int to = from + aUndoneCount;
+		if (to <= aCommands.length) {
+			Arrays.fill(aCommands, from, to, null);
+		}
+		else {
+			Arrays.fill(aCommands, from, aCommands.length, null);
+			Arrays.fill(aCommands, 0, to - aCommands.length, null);
+		}
+		aUndoneCount = 0;
+		aUndoneFootprint = 0;
+	}
+
+	/*
+	 * Drops the oldest commands until the history fits within its bounds. The most recent command is always kept.
+	 */
+	private void evict() {
+		while (getDepth() > 1 && (getDepth() > aMaxDepth || getFootprint() > aMaxFootprint)) {
+			long footprint = aFootprints[aHead];
+			aCommands[aHead] = null;
+			aHead = (aHead + 1) % aCommands.length;
+			if (aDoneCount > 0) {
+				aDoneCount--;
+				aDoneFootprint -= footprint;
+			}
+			else {
+				aUndoneCount--;
+				aUndoneFootprint -= footprint;
+			}
+		}
+	}
+
+	private void grow() {
+		int capacity = (int) Math.min(aCommands.length * 2L, Math.max(aMaxDepth, aCommands.length) + 1L);
+		Command[] commands = new Command[capacity];
+		long[] footprints = new long[capacity];
+		int size = getDepth();
+		for (int i = 0; i < size; i++) {
+			commands[i] = aCommands[position(i)];
+			footprints[i] = aFootprints[position(i)];
+		}
+		aCommands = commands;
+		aFootprints = footprints;
+		aHead = 0;
+	}
+}
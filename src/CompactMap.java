@@ -0,0 +1,116 @@
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Immutable map from strings to strings, stored as two arrays sorted by key. It is meant for the small maps of
+ * metadata held by each watchable: it takes much less memory than a HashMap, and since it is never modified, copies of
+ * a watchable (e.g., episodes created from a prototype) can share it until one of them changes its metadata. Changes
+ * are made with {@link #with(String, String)} and {@link #without(String)}, which return a new map.
+ */
+public final class CompactMap extends AbstractMap<String, String> {
+
+	public static final CompactMap EMPTY = new CompactMap(new String[0], new String[0]);
+
+	private final String[] aKeys;
+	private final String[] aValues;
+
+	private CompactMap(String[] pKeys, String[] pValues) {
+		aKeys = pKeys;
+		aValues = pValues;
+	}
+
+	/**
+	 * @return a map with the same entries as this one, except that pKey is mapped to pValue. The key and value are
+	 *         interned in the {@link StringDictionary}.
+	 * @pre pKey != null && pValue != null
+	 */
+	public CompactMap with(String pKey, String pValue) {
+		assert pKey != null && pValue != null;
+		int position = Arrays.binarySearch(aKeys, pKey);
+		if (position >= 0 && aValues[position].equals(pValue)) return this;
+		String value = StringDictionary.instance().intern(pValue);
+		if (position >= 0) {
+			String[] values = aValues.clone();
+			values[position] = value;
+			return new CompactMap(aKeys, values);
+		}
+		position = -position - 1;
+		String[] keys = new String[aKeys.length + 1];
+		String[] values = new String[aKeys.length + 1];
+		System.arraycopy(aKeys, 0, keys, 0, position);
+		System.arraycopy(aValues, 0, values, 0, position);
+		keys[position] = StringDictionary.instance().intern(pKey);
+		values[position] = value;
+		System.arraycopy(aKeys, position, keys, position + 1, aKeys.length - position);
+		System.arraycopy(aValues, position, values, position + 1, aKeys.length - position);
+		return new CompactMap(keys, values);
+	}
+
+	/**
+	 * @return a map with the same entries as this one, except for pKey
+	 */
+	public CompactMap without(String pKey) {
+		if (pKey == null) return this;
+		int position = Arrays.binarySearch(aKeys, pKey);
+		if (position < 0) return this;
+		if (aKeys.length == 1) return EMPTY;
+		String[] keys = new String[aKeys.length - 1];
+		String[] values = new String[aKeys.length - 1];
+		System.arraycopy(aKeys, 0, keys, 0, position);
+		System.arraycopy(aValues, 0, values, 0, position);
+		System.arraycopy(aKeys, position + 1, keys, position, keys.length - position);
+		System.arraycopy(aValues, position + 1, values, position, keys.length - position);
+		return new CompactMap(keys, values);
+	}
+
+	@Override
+	public String get(Object pKey) {
+		if (!(pKey instanceof String)) return null;
+		int position = Arrays.binarySearch(aKeys, pKey);
+		return position >= 0 ? aValues[position] : null;
+	}
+
+	@Override
+	public boolean containsKey(Object pKey) {
+		return pKey instanceof String && Arrays.binarySearch(aKeys, pKey) >= 0;
+	}
+
+	@Override
+	public int size() {
+		return aKeys.length;
+	}
+
+	@Override
+	public Set<Entry<String, String>> entrySet() {
+		return new AbstractSet<>() {
+			@Override
+			public Iterator<Entry<String, String>> iterator() {
+				return new Iterator<>() {
+					private int aPosition;
+
+					@Override
+					public boolean hasNext() {
+						return aPosition < aKeys.length;
+					}
+
+					@Override
+					public Entry<String, String> next() {
+						if (!hasNext()) throw new NoSuchElementException();
+						Entry<String, String> entry = new SimpleImmutableEntry<>(aKeys[aPosition], aValues[aPosition]);
+						aPosition++;
+						return entry;
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return aKeys.length;
+			}
+		};
+	}
+}
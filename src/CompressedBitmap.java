@@ -0,0 +1,222 @@
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Set of non-negative integers compressed in the style of roaring bitmaps. The integers are partitioned by their 16
+ * high bits; each partition stores its 16 low bits either in a sorted array, when it holds few values, or in a bit set
+ * of 65536 bits otherwise. Membership is answered with a binary search on the partitions followed by a binary search
+ * or a bit test.
+ */
+public class CompressedBitmap {
+
+	/*
+	 * Maximum number of values of a sorted array partition: above it, a bit set takes less memory.
+	 */
+	private static final int ARRAY_LIMIT = 4096;
+	private static final int BITSET_WORDS = 1 << 10;
+
+	private char[] aKeys = new char[4];
+	private Container[] aContainers = new Container[4];
+	private int aSize;
+	private int aCardinality;
+
+	/**
+	 * @pre pValue >= 0
+	 * @return true if pValue was not already in the set
+	 */
+	public boolean add(int pValue) {
+		assert pValue >= 0;
+		char key = (char) (pValue >>> 16);
+		int position = Arrays.binarySearch(aKeys, 0, aSize, key);
+		if (position < 0) {
+			position = -position - 1;
+			insertContainer(position, key, new ArrayContainer());
+		}
+		Container container = aContainers[position];
+		if (!container.add((char) pValue)) return false;
+		if (container instanceof ArrayContainer && container.cardinality() > ARRAY_LIMIT) {
+			aContainers[position] = ((ArrayContainer) container).toBitSet();
+		}
+		aCardinality++;
+		return true;
+	}
+
+	/**
+	 * @return true if pValue was in the set
+	 */
+	public boolean remove(int pValue) {
+		if (pValue < 0) return false;
+		int position = Arrays.binarySearch(aKeys, 0, aSize, (char) (pValue >>> 16));
+		if (position < 0) return false;
+		Container container = aContainers[position];
+		if (!container.remove((char) pValue)) return false;
+		if (container.cardinality() == 0) {
+			removeContainer(position);
+		}
+		else if (container instanceof BitSetContainer && container.cardinality() <= ARRAY_LIMIT / 2) {
+			aContainers[position] = ((BitSetContainer) container).toArray();
+		}
+		aCardinality--;
+		return true;
+	}
+
+	public boolean contains(int pValue) {
+		if (pValue < 0) return false;
+		int position = Arrays.binarySearch(aKeys, 0, aSize, (char) (pValue >>> 16));
+		return position >= 0 && aContainers[position].contains((char) pValue);
+	}
+
+	/**
+	 * @return the number of values in the set
+	 */
+	public int getCardinality() {
+		return aCardinality;
+	}
+
+	public boolean isEmpty() {
+		return aCardinality == 0;
+	}
+
+	/**
+	 * Calls pAction on every value of the set, in increasing order.
+	 */
+	public void forEach(IntConsumer pAction) {
+		for (int i = 0; i < aSize; i++) {
+			aContainers[i].forEach(aKeys[i] << 16, pAction);
+		}
+	}
+
+	private void insertContainer(int pPosition, char pKey, Container pContainer) {
+		if (aSize == aKeys.length) {
+			aKeys = Arrays.copyOf(aKeys, aSize * 2);
+			aContainers = Arrays.copyOf(aContainers, aSize * 2);
+		}
+		System.arraycopy(aKeys, pPosition, aKeys, pPosition + 1, aSize - pPosition);
+		System.arraycopy(aContainers, pPosition, aContainers, pPosition + 1, aSize - pPosition);
+		aKeys[pPosition] = pKey;
+		aContainers[pPosition] = pContainer;
+		aSize++;
+	}
+
+	private void removeContainer(int pPosition) {
+		System.arraycopy(aKeys, pPosition + 1, aKeys, pPosition, aSize - pPosition - 1);
+		System.arraycopy(aContainers, pPosition + 1, aContainers, pPosition, aSize - pPosition - 1);
+		aSize--;
+		aContainers[aSize] = null;
+	}
+
+	private interface Container {
+		boolean add(char pLow);
+
+		boolean remove(char pLow);
+
+		boolean contains(char pLow);
+
+		int cardinality();
+
+		void forEach(int pHigh, IntConsumer pAction);
+	}
+
+	private static final class ArrayContainer implements Container {
+		private char[] aValues = new char[4];
+		private int aCardinality;
+
+		@Override
+		public boolean add(char pLow) {
+			int position = Arrays.binarySearch(aValues, 0, aCardinality, pLow);
+			if (position >= 0) return false;
+			position = -position - 1;
+			if (aCardinality == aValues.length) {
+				aValues = Arrays.copyOf(aValues, aCardinality * 2);
+			}
+			System.arraycopy(aValues, position, aValues, position + 1, aCardinality - position);
+			aValues[position] = pLow;
+			aCardinality++;
+			return true;
+		}
+
+		@Override
+		public boolean remove(char pLow) {
+			int position = Arrays.binarySearch(aValues, 0, aCardinality, pLow);
+			if (position < 0) return false;
+			System.arraycopy(aValues, position + 1, aValues, position, aCardinality - position - 1);
+			aCardinality--;
+			return true;
+		}
+
+		@Override
+		public boolean contains(char pLow) {
+			return Arrays.binarySearch(aValues, 0, aCardinality, pLow) >= 0;
+		}
+
+		@Override
+		public int cardinality() {
+			return aCardinality;
+		}
+
+		@Override
+		public void forEach(int pHigh, IntConsumer pAction) {
+			for (int i = 0; i < aCardinality; i++) {
+				pAction.accept(pHigh | aValues[i]);
+			}
+		}
+
+		BitSetContainer toBitSet() {
+			BitSetContainer result = new BitSetContainer();
+			for (int i = 0; i < aCardinality; i++) {
+				result.add(aValues[i]);
+			}
+			return result;
+		}
+	}
+
+	private static final class BitSetContainer implements Container {
+		private final long[] aWords = new long[BITSET_WORDS];
+		private int aCardinality;
+
+		@Override
+		public boolean add(char pLow) {
+			long mask = 1L << pLow;
+			if ((aWords[pLow >>> 6] & mask) != 0) return false;
+			aWords[pLow >>> 6] |= mask;
+			aCardinality++;
+			return true;
+		}
+
+		@Override
+		public boolean remove(char pLow) {
+			long mask = 1L << pLow;
+			if ((aWords[pLow >>> 6] & mask) == 0) return false;
+			aWords[pLow >>> 6] &= ~mask;
+			aCardinality--;
+			return true;
+		}
+
+		@Override
+		public boolean contains(char pLow) {
+			return (aWords[pLow >>> 6] & (1L << pLow)) != 0;
+		}
+
+		@Override
+		public int cardinality() {
+			return aCardinality;
+		}
+
+		@Override
+		public void forEach(int pHigh, IntConsumer pAction) {
+			for (int i = 0; i < BITSET_WORDS; i++) {
+				long word = aWords[i];
+				while (word != 0) {
+					pAction.accept(pHigh | (i << 6) | Long.numberOfTrailingZeros(word));
+					word &= word - 1;
+				}
+			}
+		}
+
+		ArrayContainer toArray() {
+			ArrayContainer result = new ArrayContainer();
+			forEach(0, value -> result.add((char) value));
+			return result;
+		}
+	}
+}
@@ -0,0 +1,314 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+/**
+ * A watchlist that can be used by several threads at once without external locking, e.g., by the consumers of a
+ * playback service.
+ *
+ * <p>
+ * The operations that change the watchlist, including next(), undo() and redo(), are appended to a lock-free log of
+ * operations. Whichever thread wins a compare-and-set on the log applies the pending operations up to its own, in the
+ * order of the log, with the commands and history of {@link WatchList}; the other threads wait for their operation
+ * to be applied, and one of them applies the following ones. A thread thus never applies operations that were
+ * appended after its own. The order of the log is thus the order in which the operations take effect, and every operation, e.g., an
+ * undo(), sees the effects of all the operations before it and none of those after it.
+ *
+ * <p>
+ * After applying operations, the applying thread publishes an immutable view of the watchlist: its elements, which
+ * share their storage with the watchlist, cursor, name, valid count and history size. The reading methods only read
+ * the latest view, so they never wait, and an iterator sees the elements of a single view however the watchlist
+ * changes during the iteration.
+ *
+ * <p>
+ * Copying the watchlist with {@link WatchList#WatchList(WatchList)}, writing it to a {@link LibrarySnapshot} and
+ * attaching it to a {@link WatchListJournal} read its state directly, so no other thread may change the watchlist at
+ * the same time.
+ */
+public class ConcurrentWatchList extends WatchList {
+
+	// Number of times a waiting thread spins before yielding the processor.
+	private static final int SPIN_LIMIT = 64;
+
+	private final Queue<Operation<?>> aLog = new ConcurrentLinkedQueue<>();
+	private final AtomicBoolean aApplying = new AtomicBoolean();
+	private volatile View aView;
+	// Set by the applying thread when an operation may change the elements, so that the next view copies them.
+	private boolean aElementsChanged;
+	private final AtomicReference<Optional<Watchable>> aLastWatched = new AtomicReference<>(Optional.empty());
+	// Validity changes notified since the elements were added, which may happen on any thread.
+	private final AtomicInteger aValidityChanges = new AtomicInteger();
+
+	/**
+	 * Creates a new empty watchlist.
+	 *
+	 * @param pName
+	 *            the name of the list
+	 * @pre pName!=null;
+	 */
+	public ConcurrentWatchList(String pName) {
+		super(pName);
+		aElementsChanged = true;
+		publish();
+	}
+
+	/*
+	 * An operation waiting in the log, with its result once it is applied.
+	 */
+	private static final class Operation<T> {
+		private final boolean aChangesElements;
+		private final Supplier<T> aAction;
+		private T aResult;
+		private Throwable aFailure;
+		private volatile boolean aApplied;
+
+		Operation(boolean pChangesElements, Supplier<T> pAction) {
+			aChangesElements = pChangesElements;
+			aAction = pAction;
+		}
+
+		void apply() {
+			try {
+				aResult = aAction.get();
+			}
+			catch (RuntimeException | Error e) {
+				aFailure = e;
+			}
+		}
+	}
+
+	/*
+	 * The state of the watchlist after a prefix of the log. The elements are never modified.
+	 */
+	private static final class View {
+		private final List<Watchable> aElements;
+		private final int aNext;
+		private final String aName;
+		private final int aValidCount;
+		private final int aHistoryDepth;
+		private final long aHistoryFootprint;
+
+		View(List<Watchable> pElements, int pNext, String pName, int pValidCount, int pHistoryDepth,
+				long pHistoryFootprint) {
+			aElements = pElements;
+			aNext = pNext;
+			aName = pName;
+			aValidCount = pValidCount;
+			aHistoryDepth = pHistoryDepth;
+			aHistoryFootprint = pHistoryFootprint;
+		}
+	}
+
+	/*
+	 * Appends an operation to the log and returns its result once it is applied, possibly by this thread. A failure,
+	 * e.g., a violated precondition, is thrown on the thread that requested the operation.
+	 */
+	private <T> T apply(boolean pChangesElements, Supplier<T> pAction) {
+		Operation<T> operation = new Operation<>(pChangesElements, pAction);
+		aLog.add(operation);
+		for (int spins = 0; !operation.aApplied; spins++) {
+			if (!aApplying.get() && aApplying.compareAndSet(false, true)) {
+				try {
+					applyPending(operation);
+				}
+				finally {
+					aApplying.set(false);
+				}
+			}
+			else if (spins < SPIN_LIMIT) {
+				Thread.onSpinWait();
+			}
+			else {
+				Thread.yield();
+			}
+		}
+		if (operation.aFailure instanceof RuntimeException) throw (RuntimeException) operation.aFailure;
+		if (operation.aFailure instanceof Error) throw (Error) operation.aFailure;
+		return operation.aResult;
+	}
+
+	/*
+	 * Applies the operations of the log in order up to pOwn, or until the log is empty if pOwn was already applied
+	 * by another thread, publishes the resulting view, and only then releases the threads that wait for them, so that
+	 * each sees at least the effects of its own operation.
+	 */
+	private void applyPending(Operation<?> pOwn) {
+		List<Operation<?>> applied = new ArrayList<>();
+		Operation<?> operation;
+		while ((operation = aLog.poll()) != null) {
+			aElementsChanged |= operation.aChangesElements;
+			operation.apply();
+			applied.add(operation);
+			if (operation == pOwn) break;
+		}
+		if (applied.isEmpty()) return;
+		publish();
+		for (Operation<?> done : applied) {
+			done.aApplied = true;
+		}
+	}
+
+	/*
+	 * Publishes the current state. The commands publish the elements after each change, so the view takes the last
+	 * published version of the elements if they may have changed.
+	 */
+	private void publish() {
+		List<Watchable> elements = aView == null || aElementsChanged ? aList.snapshot() : aView.aElements;
+		aElementsChanged = false;
+		aView = new View(elements, aNext, aName, aValidCount, aHistory.getDepth(), aHistory.getFootprint());
+	}
+
+	@Override
+	public void update(Watchable pLastWatched) {
+		aLastWatched.set(Optional.of(pLastWatched));
+	}
+
+	@Override
+	public Optional<Watchable> lastWatched() {
+		return aLastWatched.get();
+	}
+
+	@Override
+	public void validityChanged(Watchable pWatchable, boolean pValid) {
+		aValidityChanges.addAndGet(pValid ? 1 : -1);
+	}
+
+	@Override
+	public String getName() {
+		return aView.aName;
+	}
+
+	@Override
+	public void addWatchable(Watchable pWatchable) {
+		apply(true, () -> {
+			super.addWatchable(pWatchable);
+			return null;
+		});
+	}
+
+	@Override
+	public Watchable removeWatchable(int pIndex) {
+		return apply(true, () -> super.removeWatchable(pIndex));
+	}
+
+	@Override
+	public void addAll(Collection<? extends Watchable> pWatchables) {
+		List<Watchable> watchables = new ArrayList<>(pWatchables);
+		apply(true, () -> {
+			super.addAll(watchables);
+			return null;
+		});
+	}
+
+	@Override
+	public void removeRange(int pFrom, int pTo) {
+		apply(true, () -> {
+			super.removeRange(pFrom, pTo);
+			return null;
+		});
+	}
+
+	/**
+	 * {@inheritDoc} The operator is applied on the thread that applies the pending operations.
+	 */
+	@Override
+	public void replaceAll(UnaryOperator<Watchable> pOperator) {
+		apply(true, () -> {
+			super.replaceAll(pOperator);
+			return null;
+		});
+	}
+
+	@Override
+	public int getValidCount() {
+		ValidityCache.instance().refresh();
+		return aView.aValidCount + aValidityChanges.get();
+	}
+
+	@Override
+	public int getTotalCount() {
+		return aView.aElements.size();
+	}
+
+	@Override
+	public int getRemainingCount() {
+		View view = aView;
+		return view.aElements.size() - view.aNext;
+	}
+
+	/**
+	 * {@inheritDoc} Since the list wraps around at its end, there is always a next element unless the list is empty.
+	 */
+	@Override
+	public Watchable next() {
+		return apply(false, super::next);
+	}
+
+	@Override
+	public void reset() {
+		apply(false, () -> {
+			super.reset();
+			return null;
+		});
+	}
+
+	@Override
+	public void setName(String pName) {
+		apply(false, () -> {
+			super.setName(pName);
+			return null;
+		});
+	}
+
+	@Override
+	public void undo() {
+		apply(true, () -> {
+			super.undo();
+			return null;
+		});
+	}
+
+	@Override
+	public void redo() {
+		apply(true, () -> {
+			super.redo();
+			return null;
+		});
+	}
+
+	@Override
+	public void setHistoryLimits(int pMaxDepth, long pMaxFootprint) {
+		apply(false, () -> {
+			super.setHistoryLimits(pMaxDepth, pMaxFootprint);
+			return null;
+		});
+	}
+
+	@Override
+	public int getHistoryDepth() {
+		return aView.aHistoryDepth;
+	}
+
+	@Override
+	public long getHistoryFootprint() {
+		return aView.aHistoryFootprint;
+	}
+
+	/**
+	 * Returns an iterator over the elements as of the call. Changes made afterwards, by any thread, are not seen.
+	 */
+	@Override
+	public Iterator<Watchable> iterator() {
+		return Collections.unmodifiableList(aView.aElements).iterator();
+	}
+}
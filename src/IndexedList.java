@@ -0,0 +1,681 @@
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+
+/**
+ * List stored as a B+tree of small arrays, in which every branch knows the number of elements below it. Accessing,
+ * inserting or removing an element at a given position takes O(log n) time, instead of the O(n) walk of a LinkedList
+ * or the O(n) shift of an ArrayList.
+ *
+ * The tree is persistent: copying an IndexedList with {@link #IndexedList(Collection)} takes constant time, and the copy
+ * shares all its nodes with the original. Each node belongs to the list that created it; a list only modifies the nodes
+ * it owns, and copies the path to any shared node before modifying it, so neither list observes the changes of the
+ * other.
+ *
+ * Inserting or removing k consecutive elements, with {@link #addAll(int, Collection)} or {@link #removeRange(int, int)},
+ * takes O(k + log n) time: whole leaves are built or dropped at once instead of one element at a time.
+ *
+ * The same sharing gives readers on other threads consistent versions of the list. The thread that modifies the list
+ * calls {@link #publish()} once its changes are complete; from then on, the list copies the path to any node before
+ * modifying it, so the published nodes are never modified again. {@link #snapshot()} returns the last published
+ * version, in constant time and without waiting for the thread that modifies the list.
+ *
+ * @param <E>
+ *            the type of the elements in the list
+ */
+public class IndexedList<E> extends AbstractList<E> implements RandomAccess {
+
+	/*
+	 * Maximum number of elements in a leaf, and of children in a branch.
+	 */
+	private static final int MAX_WIDTH = 32;
+	private static final int MIN_WIDTH = MAX_WIDTH / 4;
+
+	private Object aOwner = new Object();
+	private Node aRoot = new Leaf(aOwner);
+
+	/*
+	 * Last leaf accessed by get, so that sequential reads do not walk the tree every time. Only valid as long as the
+	 * list is not modified.
+	 */
+	private Leaf aCachedLeaf;
+	private int aCachedStart;
+	private int aCachedModCount;
+
+	// Root of the last published version, or null if the list was never published.
+	private volatile Node aPublished;
+
+	/**
+	 * Creates an empty list.
+	 */
+	public IndexedList() {
+	}
+
+	/**
+	 * Creates a list with the elements of pElements, in the order of their iterator. If pElements is itself an
+	 * IndexedList, the new list shares its structure and is created in constant time.
+	 *
+	 * @param pElements
+	 *            the elements to copy
+	 * @pre pElements != null
+	 */
+	public IndexedList(Collection<? extends E> pElements) {
+		assert pElements != null;
+		if (pElements instanceof IndexedList) {
+			IndexedList<? extends E> original = (IndexedList<? extends E>) pElements;
+			// From now on, neither list owns the current nodes: both copy them before any change.
+			original.aOwner = new Object();
+			aRoot = original.aRoot;
+		}
+		else {
+			addAll(pElements);
+		}
+	}
+
+	/*
+	 * Creates a list with the nodes of a published version, which it only shares.
+	 */
+	private IndexedList(Node pRoot) {
+		aRoot = pRoot;
+	}
+
+	/**
+	 * Publishes the current state of the list as the version returned by {@link #snapshot()}. Must be called by the
+	 * thread that modifies the list, between modifications. The next modification copies the nodes on its path, so
+	 * publishing after every change costs O(log n) space per change.
+	 */
+	public void publish() {
+		if (aPublished == aRoot) return;
+		// The published nodes no longer belong to this list, so they are never modified again.
+		aOwner = new Object();
+		aPublished = aRoot;
+	}
+
+	/**
+	 * Returns the last published version of the list, or an empty list if it was never published. May be called by
+	 * any thread. The version is created in constant time, shares its nodes with this list, and does not change when
+	 * this list does.
+	 *
+	 * @return a list with the elements of the last published version
+	 */
+	public IndexedList<E> snapshot() {
+		Node published = aPublished;
+		return published == null ? new IndexedList<>() : new IndexedList<>(published);
+	}
+
+	@Override
+	public int size() {
+		return aRoot.aSize;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public E get(int pIndex) {
+		checkIndex(pIndex, size());
+		if (aCachedLeaf != null && aCachedModCount == modCount && pIndex >= aCachedStart
+				&& pIndex < aCachedStart + aCachedLeaf.aSize) {
+			return (E) aCachedLeaf.aItems[pIndex - aCachedStart];
+		}
+		int start = 0;
+		Node node = aRoot;
+		while (node instanceof Branch) {
+			Branch branch = (Branch) node;
+			int child = 0;
+			while (pIndex - start >= branch.aChildren[child].aSize) {
+				start += branch.aChildren[child].aSize;
+				child++;
+			}
+			node = branch.aChildren[child];
+		}
+		aCachedLeaf = (Leaf) node;
+		aCachedStart = start;
+		aCachedModCount = modCount;
+		return (E) aCachedLeaf.aItems[pIndex - start];
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public E set(int pIndex, E pElement) {
+		checkIndex(pIndex, size());
+		aCachedLeaf = null;
+		aRoot = aRoot.editable(aOwner);
+		return (E) aRoot.set(aOwner, pIndex, pElement);
+	}
+
+	@Override
+	public void add(int pIndex, E pElement) {
+		checkIndex(pIndex, size() + 1);
+		aRoot = aRoot.editable(aOwner);
+		Node split = aRoot.insert(aOwner, pIndex, pElement);
+		if (split != null) {
+			Branch root = new Branch(aOwner);
+			root.append(aRoot);
+			root.append(split);
+			aRoot = root;
+		}
+		modCount++;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public E remove(int pIndex) {
+		checkIndex(pIndex, size());
+		aRoot = aRoot.editable(aOwner);
+		Object removed = aRoot.remove(aOwner, pIndex);
+		while (aRoot instanceof Branch && ((Branch) aRoot).aWidth == 1) {
+			aRoot = ((Branch) aRoot).aChildren[0];
+		}
+		modCount++;
+		return (E) removed;
+	}
+
+	@Override
+	public boolean addAll(Collection<? extends E> pElements) {
+		return addAll(size(), pElements);
+	}
+
+	/**
+	 * Inserts the elements of pElements at pIndex, in the order of their iterator, in O(k + log n) time for k
+	 * elements.
+	 */
+	@Override
+	public boolean addAll(int pIndex, Collection<? extends E> pElements) {
+		checkIndex(pIndex, size() + 1);
+		Object[] items = pElements.toArray();
+		if (items.length == 0) return false;
+		aRoot = aRoot.editable(aOwner);
+		List<Node> splits = aRoot.insertAll(aOwner, pIndex, items);
+		while (!splits.isEmpty()) {
+			// The root was split: its parts become the children of new roots, one level up.
+			List<Node> level = new ArrayList<>(splits.size() + 1);
+			level.add(aRoot);
+			level.addAll(splits);
+			List<Node> roots = Branch.group(aOwner, level);
+			aRoot = roots.get(0);
+			splits = roots.subList(1, roots.size());
+		}
+		modCount++;
+		return true;
+	}
+
+	/**
+	 * Removes the elements from pFrom, inclusive, to pTo, exclusive, in O(k + log n) time for k elements. Also used
+	 * by the clear() method of the sublists.
+	 *
+	 * @pre 0 <= pFrom && pFrom <= pTo && pTo <= size()
+	 */
+	@Override
+	public void removeRange(int pFrom, int pTo) {
+		if (pFrom < 0 || pFrom > pTo || pTo > size()) {
+			throw new IndexOutOfBoundsException("From: " + pFrom + ", To: " + pTo + ", Size: " + size());
+		}
+		if (pFrom == pTo) return;
+		aRoot = aRoot.editable(aOwner);
+		aRoot.removeRange(aOwner, pFrom, pTo);
+		while (aRoot instanceof Branch && ((Branch) aRoot).aWidth <= 1) {
+			aRoot = ((Branch) aRoot).aWidth == 0 ? new Leaf(aOwner) : ((Branch) aRoot).aChildren[0];
+		}
+		modCount++;
+	}
+
+	@Override
+	public void clear() {
+		aRoot = new Leaf(aOwner);
+		modCount++;
+	}
+
+	@Override
+	public Iterator<E> iterator() {
+		return new LeafIterator();
+	}
+
+	private static void checkIndex(int pIndex, int pBound) {
+		if (pIndex < 0 || pIndex >= pBound) {
+			throw new IndexOutOfBoundsException("Index: " + pIndex + ", Size: " + (pBound));
+		}
+	}
+
+	/*
+	 * The insert, remove and set operations may only be called on a node owned by pOwner. They make the children they
+	 * modify editable by pOwner first.
+	 */
+	private abstract static class Node {
+		final Object aOwner;
+		int aSize;
+
+		Node(Object pOwner) {
+			aOwner = pOwner;
+		}
+
+		/**
+		 * @return this node if it is owned by pOwner, otherwise a shallow copy of this node owned by pOwner
+		 */
+		final Node editable(Object pOwner) {
+			return aOwner == pOwner ? this : copy(pOwner);
+		}
+
+		abstract Node copy(Object pOwner);
+
+		/**
+		 * @return the number of elements (for a leaf) or children (for a branch) directly held by this node
+		 */
+		abstract int width();
+
+		abstract Object set(Object pOwner, int pIndex, Object pElement);
+
+		/**
+		 * Inserts an element, splitting this node if it is full.
+		 *
+		 * @return the new right sibling of this node if it was split, null otherwise
+		 */
+		abstract Node insert(Object pOwner, int pIndex, Object pElement);
+
+		abstract Object remove(Object pOwner, int pIndex);
+
+		/**
+		 * Inserts elements, splitting this node into as many nodes as needed.
+		 *
+		 * @return the new right siblings of this node, in order, possibly none
+		 */
+		abstract List<Node> insertAll(Object pOwner, int pIndex, Object[] pElements);
+
+		/**
+		 * Removes the elements from pFrom, inclusive, to pTo, exclusive. Children entirely in the range are dropped
+		 * without being visited.
+		 */
+		abstract void removeRange(Object pOwner, int pFrom, int pTo);
+
+		/**
+		 * Copies all the content of pRight, the right sibling of this node, at the end of this node. pRight must be
+		 * discarded afterwards. pRight itself is not modified, so it may be shared.
+		 *
+		 * @pre width() + pRight.width() <= MAX_WIDTH
+		 */
+		abstract void absorb(Node pRight);
+	}
+
+	private static final class Leaf extends Node {
+		final Object[] aItems;
+
+		Leaf(Object pOwner) {
+			super(pOwner);
+			aItems = new Object[MAX_WIDTH];
+		}
+
+		private Leaf(Object pOwner, Leaf pLeaf) {
+			super(pOwner);
+			aItems = pLeaf.aItems.clone();
+			aSize = pLeaf.aSize;
+		}
+
+		@Override
+		Node copy(Object pOwner) {
+			return new Leaf(pOwner, this);
+		}
+
+		@Override
+		int width() {
+			return aSize;
+		}
+
+		@Override
+		Object set(Object pOwner, int pIndex, Object pElement) {
+			Object old = aItems[pIndex];
+			aItems[pIndex] = pElement;
+			return old;
+		}
+
+		@Override
+		Node insert(Object pOwner, int pIndex, Object pElement) {
+			if (aSize < MAX_WIDTH) {
+				System.arraycopy(aItems, pIndex, aItems, pIndex + 1, aSize - pIndex);
+				aItems[pIndex] = pElement;
+				aSize++;
+				return null;
+			}
+			Leaf right = new Leaf(pOwner);
+			int half = MAX_WIDTH / 2;
+			System.arraycopy(aItems, half, right.aItems, 0, MAX_WIDTH - half);
+			Arrays.fill(aItems, half, MAX_WIDTH, null);
+			right.aSize = MAX_WIDTH - half;
+			aSize = half;
+			if (pIndex <= half) insert(pOwner, pIndex, pElement);
+			else right.insert(pOwner, pIndex - half, pElement);
+			return right;
+		}
+
+		@Override
+		Object remove(Object pOwner, int pIndex) {
+			Object removed = aItems[pIndex];
+			System.arraycopy(aItems, pIndex + 1, aItems, pIndex, aSize - pIndex - 1);
+			aSize--;
+			aItems[aSize] = null;
+			return removed;
+		}
+
+		@Override
+		List<Node> insertAll(Object pOwner, int pIndex, Object[] pElements) {
+			if (aSize + pElements.length <= MAX_WIDTH) {
+				System.arraycopy(aItems, pIndex, aItems, pIndex + pElements.length, aSize - pIndex);
+				System.arraycopy(pElements, 0, aItems, pIndex, pElements.length);
+				aSize += pElements.length;
+				return List.of();
+			}
+			// Fills this leaf, then full new leaves, with the inserted elements followed by those after pIndex.
+			Object[] tail = Arrays.copyOfRange(aItems, pIndex, aSize);
+			Arrays.fill(aItems, pIndex, aSize, null);
+			aSize = pIndex;
+			List<Node> leaves = new ArrayList<>();
+			Leaf leaf = this;
+			for (Object[] source : new Object[][] { pElements, tail }) {
+				int copied = 0;
+				while (copied < source.length) {
+					if (leaf.aSize == MAX_WIDTH) {
+						leaf = new Leaf(pOwner);
+						leaves.add(leaf);
+					}
+					int count = Math.min(MAX_WIDTH - leaf.aSize, source.length - copied);
+					System.arraycopy(source, copied, leaf.aItems, leaf.aSize, count);
+					leaf.aSize += count;
+					copied += count;
+				}
+			}
+			return leaves;
+		}
+
+		@Override
+		void removeRange(Object pOwner, int pFrom, int pTo) {
+			System.arraycopy(aItems, pTo, aItems, pFrom, aSize - pTo);
+			Arrays.fill(aItems, aSize - (pTo - pFrom), aSize, null);
+			aSize -= pTo - pFrom;
+		}
+
+		@Override
+		void absorb(Node pRight) {
+			Leaf right = (Leaf) pRight;
+			System.arraycopy(right.aItems, 0, aItems, aSize, right.aSize);
+			aSize += right.aSize;
+		}
+	}
+
+	private static final class Branch extends Node {
+		final Node[] aChildren;
+		int aWidth;
+
+		Branch(Object pOwner) {
+			super(pOwner);
+			aChildren = new Node[MAX_WIDTH];
+		}
+
+		private Branch(Object pOwner, Branch pBranch) {
+			super(pOwner);
+			aChildren = pBranch.aChildren.clone();
+			aWidth = pBranch.aWidth;
+			aSize = pBranch.aSize;
+		}
+
+		@Override
+		Node copy(Object pOwner) {
+			return new Branch(pOwner, this);
+		}
+
+		@Override
+		int width() {
+			return aWidth;
+		}
+
+		void append(Node pChild) {
+			aChildren[aWidth++] = pChild;
+			aSize += pChild.aSize;
+		}
+
+		@Override
+		Object set(Object pOwner, int pIndex, Object pElement) {
+			int child = 0;
+			while (pIndex >= aChildren[child].aSize) {
+				pIndex -= aChildren[child].aSize;
+				child++;
+			}
+			aChildren[child] = aChildren[child].editable(pOwner);
+			return aChildren[child].set(pOwner, pIndex, pElement);
+		}
+
+		@Override
+		Node insert(Object pOwner, int pIndex, Object pElement) {
+			// An insertion at a child boundary goes at the end of the left child.
+			int child = 0;
+			while (child < aWidth - 1 && pIndex > aChildren[child].aSize) {
+				pIndex -= aChildren[child].aSize;
+				child++;
+			}
+			aChildren[child] = aChildren[child].editable(pOwner);
+			Node split = aChildren[child].insert(pOwner, pIndex, pElement);
+			aSize++;
+			if (split == null) return null;
+			if (aWidth < MAX_WIDTH) {
+				insertChild(child + 1, split);
+				return null;
+			}
+			Branch right = new Branch(pOwner);
+			int half = MAX_WIDTH / 2;
+			for (int i = half; i < MAX_WIDTH; i++) {
+				right.append(aChildren[i]);
+				aChildren[i] = null;
+			}
+			aWidth = half;
+			aSize -= right.aSize;
+			if (child < half) {
+				insertChild(child + 1, split);
+			}
+			else {
+				right.insertChild(child + 1 - half, split);
+				right.aSize += split.aSize;
+				aSize -= split.aSize;
+			}
+			return right;
+		}
+
+		private void insertChild(int pPosition, Node pChild) {
+			System.arraycopy(aChildren, pPosition, aChildren, pPosition + 1, aWidth - pPosition);
+			aChildren[pPosition] = pChild;
+			aWidth++;
+		}
+
+		private void removeChild(int pPosition) {
+			System.arraycopy(aChildren, pPosition + 1, aChildren, pPosition, aWidth - pPosition - 1);
+			aWidth--;
+			aChildren[aWidth] = null;
+		}
+
+		@Override
+		Object remove(Object pOwner, int pIndex) {
+			int child = 0;
+			while (pIndex >= aChildren[child].aSize) {
+				pIndex -= aChildren[child].aSize;
+				child++;
+			}
+			aChildren[child] = aChildren[child].editable(pOwner);
+			Object removed = aChildren[child].remove(pOwner, pIndex);
+			aSize--;
+			if (aChildren[child].width() < MIN_WIDTH) {
+				merge(pOwner, child);
+			}
+			return removed;
+		}
+
+		@Override
+		List<Node> insertAll(Object pOwner, int pIndex, Object[] pElements) {
+			int child = 0;
+			while (child < aWidth - 1 && pIndex > aChildren[child].aSize) {
+				pIndex -= aChildren[child].aSize;
+				child++;
+			}
+			aChildren[child] = aChildren[child].editable(pOwner);
+			List<Node> splits = aChildren[child].insertAll(pOwner, pIndex, pElements);
+			aSize += pElements.length;
+			if (splits.isEmpty()) return splits;
+			if (aWidth + splits.size() <= MAX_WIDTH) {
+				System.arraycopy(aChildren, child + 1, aChildren, child + 1 + splits.size(), aWidth - child - 1);
+				for (int i = 0; i < splits.size(); i++) {
+					aChildren[child + 1 + i] = splits.get(i);
+				}
+				aWidth += splits.size();
+				return List.of();
+			}
+			List<Node> children = new ArrayList<>(aWidth + splits.size());
+			children.addAll(Arrays.asList(aChildren).subList(0, child + 1));
+			children.addAll(splits);
+			children.addAll(Arrays.asList(aChildren).subList(child + 1, aWidth));
+			Arrays.fill(aChildren, null);
+			aWidth = 0;
+			aSize = 0;
+			int kept = Math.min(MAX_WIDTH, children.size());
+			for (Node node : children.subList(0, kept)) {
+				append(node);
+			}
+			return group(pOwner, children.subList(kept, children.size()));
+		}
+
+		/*
+		 * @return new branches owned by pOwner whose children are pNodes, in order, as few branches as possible
+		 */
+		static List<Node> group(Object pOwner, List<Node> pNodes) {
+			List<Node> branches = new ArrayList<>(pNodes.size() / MAX_WIDTH + 1);
+			Branch branch = null;
+			for (Node node : pNodes) {
+				if (branch == null || branch.aWidth == MAX_WIDTH) {
+					branch = new Branch(pOwner);
+					branches.add(branch);
+				}
+				branch.append(node);
+			}
+			return branches;
+		}
+
+		@Override
+		void removeRange(Object pOwner, int pFrom, int pTo) {
+			int start = 0;
+			int kept = 0;
+			int leftPartial = -1;
+			int rightPartial = -1;
+			for (int i = 0; i < aWidth; i++) {
+				Node node = aChildren[i];
+				int end = start + node.aSize;
+				int from = Math.max(pFrom, start);
+				int to = Math.min(pTo, end);
+				if (from <= start && to >= end && from < to) {
+					// Entirely removed.
+					start = end;
+					continue;
+				}
+				if (from < to) {
+					node = node.editable(pOwner);
+					node.removeRange(pOwner, from - start, to - start);
+					if (leftPartial < 0) leftPartial = kept;
+					else rightPartial = kept;
+				}
+				aChildren[kept++] = node;
+				start = end;
+			}
+			Arrays.fill(aChildren, kept, aWidth, null);
+			aWidth = kept;
+			aSize -= pTo - pFrom;
+			// The children cut by the range may be underfull: merge them with their neighbours, right one first so
+			// that the position of the left one does not change.
+			if (rightPartial >= 0 && aChildren[rightPartial].width() < MIN_WIDTH) {
+				merge(pOwner, rightPartial);
+			}
+			if (leftPartial >= 0 && leftPartial < aWidth && aChildren[leftPartial].width() < MIN_WIDTH) {
+				merge(pOwner, leftPartial);
+			}
+		}
+
+		/*
+		 * Merges an underfull child with one of its neighbours, if their content fits in a single node.
+		 */
+		private void merge(Object pOwner, int pChild) {
+			Node node = aChildren[pChild];
+			if (pChild + 1 < aWidth && node.width() + aChildren[pChild + 1].width() <= MAX_WIDTH) {
+				node.absorb(aChildren[pChild + 1]);
+				removeChild(pChild + 1);
+			}
+			else if (pChild > 0 && aChildren[pChild - 1].width() + node.width() <= MAX_WIDTH) {
+				aChildren[pChild - 1] = aChildren[pChild - 1].editable(pOwner);
+				aChildren[pChild - 1].absorb(node);
+				removeChild(pChild);
+			}
+			else if (node.aSize == 0) {
+				removeChild(pChild);
+			}
+		}
+
+		@Override
+		void absorb(Node pRight) {
+			Branch right = (Branch) pRight;
+			System.arraycopy(right.aChildren, 0, aChildren, aWidth, right.aWidth);
+			aWidth += right.aWidth;
+			aSize += right.aSize;
+		}
+	}
+
+	/*
+	 * Walks the leaves of the tree, locating a new leaf only once the current one is exhausted.
+	 */
+	private final class LeafIterator implements Iterator<E> {
+		private int aIndex;
+		private int aLastReturned = -1;
+		private Leaf aLeaf;
+		private int aOffset;
+		private int aExpectedModCount = modCount;
+
+		@Override
+		public boolean hasNext() {
+			return aIndex < size();
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public E next() {
+			if (modCount != aExpectedModCount) throw new ConcurrentModificationException();
+			if (!hasNext()) throw new NoSuchElementException();
+			if (aLeaf == null || aOffset >= aLeaf.aSize) {
+				locate();
+			}
+			aLastReturned = aIndex++;
+			return (E) aLeaf.aItems[aOffset++];
+		}
+
+		@Override
+		public void remove() {
+			if (aLastReturned < 0) throw new IllegalStateException();
+			if (modCount != aExpectedModCount) throw new ConcurrentModificationException();
+			IndexedList.this.remove(aLastReturned);
+			aIndex = aLastReturned;
+			aLastReturned = -1;
+			aLeaf = null;
+			aExpectedModCount = modCount;
+		}
+
+		private void locate() {
+			int index = aIndex;
+			Node node = aRoot;
+			while (node instanceof Branch) {
+				Branch branch = (Branch) node;
+				int child = 0;
+				while (index >= branch.aChildren[child].aSize) {
+					index -= branch.aChildren[child].aSize;
+					child++;
+				}
+				node = branch.aChildren[child];
+			}
+			aLeaf = (Leaf) node;
+			aOffset = index;
+		}
+	}
+}
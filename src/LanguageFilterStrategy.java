@@ -11,6 +11,10 @@ public class LanguageFilterStrategy implements WatchListFilter {
         aLanguage = pLanguage;
     }
 
+    public Language getLanguage() {
+        return aLanguage;
+    }
+
     /**
      * Indicates whether a Watchable elements should be included in the watchlist.
      *
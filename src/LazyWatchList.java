@@ -0,0 +1,108 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * A sequence of matches of a filter that is evaluated as it is watched, returned by
+ * {@link Library#generateLazyWatchList(WatchListFilter, int)}. The matches found so far are kept, so the sequence can
+ * be reset and iterated again without evaluating the filter again.
+ */
+public class LazyWatchList implements Bingeable<Watchable> {
+
+	private final Iterator<Watchable> aMatches;
+	private final int aLimit;
+	private final List<Watchable> aFound = new ArrayList<>();
+	private int aNext;
+
+	/**
+	 * @param pMatches
+	 *            the matches, evaluated as the iterator advances
+	 * @param pLimit
+	 *            the maximum number of matches to take from pMatches
+	 * @pre pMatches != null && pLimit >= 0
+	 */
+	LazyWatchList(Iterator<Watchable> pMatches, int pLimit) {
+		assert pMatches != null && pLimit >= 0;
+		aMatches = pMatches;
+		aLimit = pLimit;
+	}
+
+	/*
+	 * Evaluates the filter until there are more than pIndex matches or no more matches, and returns true in the first
+	 * case.
+	 */
+	private boolean find(int pIndex) {
+		while (aFound.size() <= pIndex) {
+			if (aFound.size() == aLimit || !aMatches.hasNext()) return false;
+			aFound.add(aMatches.next());
+		}
+		return true;
+	}
+
+	/**
+	 * Indicates whether there is an element left to watch. Only evaluates the filter until the next match.
+	 *
+	 * @return true if getRemainingCount() > 0
+	 */
+	public boolean hasRemaining() {
+		return find(aNext);
+	}
+
+	/**
+	 * {@inheritDoc} Evaluates the filter on all the remaining candidates, until the limit is reached.
+	 */
+	@Override
+	public int getTotalCount() {
+		find(aLimit - 1);
+		return aFound.size();
+	}
+
+	/**
+	 * {@inheritDoc} Evaluates the filter on all the remaining candidates, until the limit is reached.
+	 */
+	@Override
+	public int getRemainingCount() {
+		return getTotalCount() - aNext;
+	}
+
+	@Override
+	public void reset() {
+		aNext = 0;
+	}
+
+	/**
+	 * Returns the next element, evaluating the filter until the next match if needed.
+	 *
+	 * @pre hasRemaining()
+	 */
+	@Override
+	public Watchable next() {
+		boolean found = find(aNext);
+		assert found;
+		return aFound.get(aNext++);
+	}
+
+	/**
+	 * Returns an iterator over all the elements, watched or not, that evaluates the filter as it advances.
+	 */
+	@Override
+	public Iterator<Watchable> iterator() {
+		return new Iterator<Watchable>() {
+			private int aIndex;
+
+			@Override
+			public boolean hasNext() {
+				return find(aIndex);
+			}
+
+			@Override
+			public Watchable next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return aFound.get(aIndex++);
+			}
+		};
+	}
+}
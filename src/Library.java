@@ -1,6 +1,30 @@
 
+import java.io.File;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.WeakHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Represents a movie library, with individual movie titles and watch lists.
@@ -10,6 +34,25 @@ public class Library {
 	private Set<Movie> aMovies = new HashSet<>();
 	private Set<WatchList> aWatchLists = new HashSet<>();
 	private Set<TVShow> aTVShows = new HashSet<>();
+	private final List<CatalogSegment> aCatalogs = new ArrayList<>();
+	
+	/*
+	 * Secondary indexes used to avoid scanning the whole library when generating a watchlist. Episodes always have the
+	 * language and studio of their show, so indexing the shows also covers the episodes, including those created
+	 * after the show was added.
+	 */
+	private final Map<Language, Set<Movie>> aMoviesByLanguage = new EnumMap<>(Language.class);
+	private final Map<Language, Set<TVShow>> aTVShowsByLanguage = new EnumMap<>(Language.class);
+	private final Map<String, Set<Movie>> aMoviesByStudio = new HashMap<>();
+	private final Map<String, Set<TVShow>> aTVShowsByStudio = new HashMap<>();
+	
+	/*
+	 * Watchlists kept up to date with filters. The library listens to the episodes added to its shows and to the tag
+	 * changes only while there are standing queries.
+	 */
+	private final List<StandingQuery> aStandingQueries = new ArrayList<>();
+	private final Consumer<TVShow.Episode> aEpisodeListener = this::episodeAdded;
+	private final Consumer<AbstractWatchable> aTagListener = this::tagsChanged;
 	
 	/**
 	 * Adds a movie to the library. Duplicate movies aren't added twice.
@@ -20,7 +63,13 @@ public class Library {
 	 */
 	public void addMovie(Movie pMovie) {
 		assert pMovie != null;
-		aMovies.add(pMovie);
+		if (aMovies.add(pMovie)) {
+			aMoviesByLanguage.computeIfAbsent(pMovie.getLanguage(), key -> new HashSet<>()).add(pMovie);
+			aMoviesByStudio.computeIfAbsent(pMovie.getStudio(), key -> new HashSet<>()).add(pMovie);
+			for (StandingQuery query : aStandingQueries) {
+				query.evaluate(pMovie);
+			}
+		}
 	}
 	
 	/**
@@ -55,11 +104,173 @@ public class Library {
 	 */
 	public void addTVShow(TVShow pTVShow) {
 		assert pTVShow != null;
-		aTVShows.add(pTVShow);
+		if (aTVShows.add(pTVShow)) {
+			aTVShowsByLanguage.computeIfAbsent(pTVShow.getLanguage(), key -> new HashSet<>()).add(pTVShow);
+			aTVShowsByStudio.computeIfAbsent(pTVShow.getStudio(), key -> new HashSet<>()).add(pTVShow);
+			if (!aStandingQueries.isEmpty()) {
+				pTVShow.addEpisodeListener(aEpisodeListener);
+				for (StandingQuery query : aStandingQueries) {
+					query.evaluate(pTVShow);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Adds the movies and shows of a catalog segment to the library. They are read from the segment when they are
+	 * needed, and only stay in memory while they are used. They are considered after the other movies and shows when
+	 * a watchlist is generated.
+	 *
+	 * @param pCatalog
+	 *            the catalog to add
+	 * @pre pCatalog!=null
+	 */
+	public void addCatalog(CatalogSegment pCatalog) {
+		assert pCatalog != null;
+		if (!aCatalogs.contains(pCatalog)) {
+			aCatalogs.add(pCatalog);
+			for (StandingQuery query : aStandingQueries) {
+				for (TVShow show : pCatalog.getTVShows()) {
+					query.evaluate(show);
+				}
+				for (Movie movie : pCatalog.getMovies()) {
+					query.evaluate(movie);
+				}
+			}
+		}
 	}
 	
 	/**
-	 * Method to generate a new watchlist based on some filtering mechanism
+	 * Registers a filter as a standing query, and returns a watchlist of the matches of the filter that the library
+	 * keeps up to date. The watchlist initially has the same elements as {@link #generateWatchList(String,
+	 * WatchListFilter)}. Afterwards, the movies, shows and episodes added to the library, and the watchables whose
+	 * tags change, are evaluated against the filter as they change: new matches are added at the end of the
+	 * watchlist, and the watchables that no longer match are removed from it. These updates are actions of the
+	 * watchlist like any other. Direct changes to the watchlist, including undoing an update, are not seen by the
+	 * standing query.
+	 *
+	 * @param pName
+	 *            the name of the watchlist to create
+	 * @param pFilter
+	 *            the filter, whose result must only depend on the language, studio and tags of the watchables
+	 * @return the watchlist kept up to date
+	 * @pre pName!=null && pFilter!=null;
+	 */
+	public WatchList addStandingQuery(String pName, WatchListFilter pFilter) {
+		assert (pName != null) && (pFilter != null);
+		WatchList watchlist = generateWatchList(pName, pFilter);
+		if (aStandingQueries.isEmpty()) {
+			for (TVShow show : aTVShows) {
+				show.addEpisodeListener(aEpisodeListener);
+			}
+			TagIndex.instance().addListener(aTagListener);
+		}
+		aStandingQueries.add(new StandingQuery(pFilter, watchlist));
+		return watchlist;
+	}
+	
+	/**
+	 * Stops keeping a watchlist returned by {@link #addStandingQuery(String, WatchListFilter)} up to date. Does
+	 * nothing if pWatchList is not the result of a standing query of this library.
+	 *
+	 * @param pWatchList
+	 *            the watchlist of the standing query
+	 * @pre pWatchList!=null
+	 */
+	public void removeStandingQuery(WatchList pWatchList) {
+		assert pWatchList != null;
+		if (aStandingQueries.removeIf(query -> query.aWatchList == pWatchList) && aStandingQueries.isEmpty()) {
+			for (TVShow show : aTVShows) {
+				show.removeEpisodeListener(aEpisodeListener);
+			}
+			TagIndex.instance().removeListener(aTagListener);
+		}
+	}
+	
+	private void episodeAdded(TVShow.Episode pEpisode) {
+		for (StandingQuery query : aStandingQueries) {
+			query.evaluate(pEpisode);
+		}
+	}
+	
+	/*
+	 * Evaluates the standing queries again on a watchable of the library whose tags changed. A change to the tags of
+	 * a show or of one of its episodes only evaluates all the episodes again if it changes whether the show matches.
+	 */
+	private void tagsChanged(AbstractWatchable pWatchable) {
+		if (pWatchable instanceof Movie) {
+			Movie movie = (Movie) pWatchable;
+			if (aMovies.contains(movie) || fromCatalog(movie)) {
+				for (StandingQuery query : aStandingQueries) {
+					query.evaluate(movie);
+				}
+			}
+			return;
+		}
+		if (pWatchable instanceof TVShow) {
+			TVShow show = (TVShow) pWatchable;
+			if (aTVShows.contains(show) || fromCatalog(show)) {
+				for (StandingQuery query : aStandingQueries) {
+					query.showChanged(show);
+				}
+			}
+		}
+		else if (pWatchable instanceof TVShow.Episode) {
+			TVShow.Episode episode = (TVShow.Episode) pWatchable;
+			TVShow show = episode.getTVShow();
+			if (aTVShows.contains(show) || fromCatalog(show)) {
+				for (StandingQuery query : aStandingQueries) {
+					query.evaluate(episode);
+				}
+			}
+		}
+	}
+	
+	private boolean fromCatalog(AbstractWatchable pWatchable) {
+		return pWatchable.aCatalog != null && aCatalogs.contains(pWatchable.aCatalog);
+	}
+	
+	/**
+	 * @return the movies added to the library, excluding those of catalog segments
+	 */
+	Set<Movie> getMovies() {
+		return Collections.unmodifiableSet(aMovies);
+	}
+	
+	/**
+	 * @return the shows added to the library, excluding those of catalog segments
+	 */
+	Set<TVShow> getTVShows() {
+		return Collections.unmodifiableSet(aTVShows);
+	}
+	
+	Set<WatchList> getWatchLists() {
+		return Collections.unmodifiableSet(aWatchLists);
+	}
+	
+	/**
+	 * @return the distinct files of all the movies and episodes of the library
+	 */
+	public Set<File> getMediaFiles() {
+		Set<File> files = new HashSet<>();
+		for (Movie movie : aMovies) {
+			files.add(movie.getPath().getAbsoluteFile());
+		}
+		for (TVShow show : aTVShows) {
+			for (TVShow.Episode episode : show) {
+				files.add(episode.getPath().getAbsoluteFile());
+			}
+		}
+		for (CatalogSegment catalog : aCatalogs) {
+			catalog.forEachMediaFile(file -> files.add(file.getAbsoluteFile()));
+		}
+		return files;
+	}
+
+	/**
+	 * Method to generate a new watchlist based on some filtering mechanism. Language, studio and tag filters,
+	 * including when they are combined with AndFilter or OrFilter, are answered from indexes to only evaluate the
+	 * filter on the shows and movies that can match.
 	 * 
 	 * @param pName
 	 *            the name of the watchlist to create
@@ -69,21 +280,698 @@ public class Library {
 	 */
 	public WatchList generateWatchList(String pName, WatchListFilter pGenerationParameters) {
 		assert (pName != null) && (pGenerationParameters != null);
+		List<Watchable> matches = new ArrayList<>();
+		matches(pGenerationParameters).forEachRemaining(matches::add);
 		WatchList watchlist = new WatchList(pName);
-		for (TVShow show : aTVShows) {
-			if (pGenerationParameters.filter(show)) {
-				for (TVShow.Episode episode : show) {
-					if (pGenerationParameters.filter(episode)) {
-						watchlist.addWatchable(episode);
+		watchlist.addAll(matches);
+		return watchlist;
+	}
+
+	/**
+	 * Generates the same watchlist as {@link #generateWatchList(String, WatchListFilter)}, in the same order, but
+	 * evaluates the filter on the shows, episodes and movies in parallel. The filter must be safe to use from several
+	 * threads at once, as the filters of this library are, and no tag may change during the generation.
+	 *
+	 * @param pName
+	 *            the name of the watchlist to create
+	 * @param pGenerationParameters
+	 *            the generation parameters
+	 * @param pPool
+	 *            the pool whose threads evaluate the filter
+	 * @pre pName!=null && pGenerationParameters!=null && pPool!=null;
+	 */
+	public WatchList generateWatchList(String pName, WatchListFilter pGenerationParameters, ForkJoinPool pPool) {
+		assert (pName != null) && (pGenerationParameters != null) && (pPool != null);
+		// The threads of the pool only read the tag index.
+		TagIndex.instance().expunge();
+		List<TVShow> shows = withCatalogs(candidateTVShows(pGenerationParameters),
+				catalog -> candidateTVShows(catalog, pGenerationParameters));
+		List<Movie> movies = withCatalogs(candidateMovies(pGenerationParameters),
+				catalog -> candidateMovies(catalog, pGenerationParameters));
+		List<Watchable> matches = pPool.invoke(new GenerationTask(shows, movies, pGenerationParameters, 0,
+				shows.size() + movies.size()));
+		WatchList watchlist = new WatchList(pName);
+		watchlist.addAll(matches);
+		return watchlist;
+	}
+
+	/**
+	 * Returns the matches of a filter, in the same order as {@link #generateWatchList(String, WatchListFilter)}, but
+	 * evaluates the filter only as the stream is consumed. A short-circuiting operation such as
+	 * {@link Stream#limit(long)} or {@link Stream#findFirst()} stops the evaluation as soon as it has enough matches.
+	 * The library must not be modified while the stream is consumed.
+	 *
+	 * @param pGenerationParameters
+	 *            the generation parameters
+	 * @return a sequential stream of the matches
+	 * @pre pGenerationParameters!=null;
+	 */
+	public Stream<Watchable> streamWatchList(WatchListFilter pGenerationParameters) {
+		assert pGenerationParameters != null;
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(matches(pGenerationParameters),
+				Spliterator.ORDERED | Spliterator.NONNULL), false);
+	}
+
+	/**
+	 * Returns a watchable sequence of at most pLimit matches of a filter, in the same order as
+	 * {@link #generateWatchList(String, WatchListFilter)}. The filter is only evaluated as the sequence is watched,
+	 * and the evaluation stops once pLimit matches are found. The library must not be modified while the sequence
+	 * is evaluated.
+	 *
+	 * @param pGenerationParameters
+	 *            the generation parameters
+	 * @param pLimit
+	 *            the maximum number of matches
+	 * @pre pGenerationParameters!=null && pLimit >= 0;
+	 */
+	public LazyWatchList generateLazyWatchList(WatchListFilter pGenerationParameters, int pLimit) {
+		assert pGenerationParameters != null && pLimit >= 0;
+		return new LazyWatchList(matches(pGenerationParameters), pLimit);
+	}
+
+	/**
+	 * Returns a page of the matches of a filter in a given order, as if the whole result were sorted and pOffset
+	 * matches skipped. Only pOffset + pLimit matches are kept while the filter is evaluated, so the cost does not
+	 * depend on the number of matches beyond the indexes and the evaluation of the filter. For deep pages, prefer
+	 * {@link #queryPage(WatchListFilter, Page.Cursor, int)}.
+	 *
+	 * @param pFilter
+	 *            the generation parameters
+	 * @param pOrder
+	 *            the order of the matches
+	 * @param pOffset
+	 *            the number of matches before the page
+	 * @param pLimit
+	 *            the maximum number of matches in the page
+	 * @pre pFilter!=null && pOrder!=null && pOffset >= 0 && pLimit > 0
+	 */
+	public Page queryPage(WatchListFilter pFilter, Page.Order pOrder, int pOffset, int pLimit) {
+		assert pFilter != null && pOrder != null && pOffset >= 0 && pLimit > 0;
+		List<Watchable> first = top(pFilter, pOrder, null, pOffset + pLimit + 1);
+		List<Watchable> items = new ArrayList<>(first.subList(Math.min(pOffset, first.size()),
+				Math.min(pOffset + pLimit, first.size())));
+		boolean hasNext = first.size() > pOffset + pLimit;
+		return new Page(items, hasNext ? Page.Cursor.after(pOrder, first.subList(0, pOffset + pLimit), null) : null);
+	}
+
+	/**
+	 * Returns the page of matches of a filter that follows a cursor, in the order of the cursor. Only pLimit matches
+	 * are kept while the filter is evaluated, however deep the page is.
+	 *
+	 * @param pFilter
+	 *            the generation parameters, the same as for the page of the cursor
+	 * @param pAfter
+	 *            the cursor of the previous page
+	 * @param pLimit
+	 *            the maximum number of matches in the page
+	 * @pre pFilter!=null && pAfter!=null && pLimit > 0
+	 */
+	public Page queryPage(WatchListFilter pFilter, Page.Cursor pAfter, int pLimit) {
+		assert pFilter != null && pAfter != null && pLimit > 0;
+		List<Watchable> items = top(pFilter, pAfter.getOrder(), pAfter, pLimit + 1);
+		boolean hasNext = items.size() > pLimit;
+		if (hasNext) {
+			items.remove(pLimit);
+		}
+		return new Page(items, hasNext ? Page.Cursor.after(pAfter.getOrder(), items, pAfter) : null);
+	}
+
+	/*
+	 * Returns, in order, the pCount first matches of pFilter that come after pAfter, or all of them if pAfter is
+	 * null. The matches are selected with a bounded heap whose head is the greatest match kept so far. Matches with
+	 * equal keys are ordered by their position in the enumeration of the matches.
+	 */
+	private List<Watchable> top(WatchListFilter pFilter, Page.Order pOrder, Page.Cursor pAfter, int pCount) {
+		Comparator<Ranked> comparator = Comparator.<Ranked, Watchable>comparing(ranked -> ranked.aWatchable,
+				pOrder.comparator()).thenComparingLong(ranked -> ranked.aPosition);
+		PriorityQueue<Ranked> heap = new PriorityQueue<>(comparator.reversed());
+		Iterator<Watchable> matches = matches(pFilter);
+		long position = 0;
+		int ties = 0;
+		while (matches.hasNext()) {
+			Ranked match = new Ranked(matches.next(), position++);
+			if (pAfter != null) {
+				int order = pAfter.compareTo(match.aWatchable);
+				if (order > 0 || order == 0 && ++ties <= pAfter.getTies()) continue;
+			}
+			if (heap.size() < pCount) {
+				heap.add(match);
+			}
+			else if (comparator.compare(match, heap.peek()) < 0) {
+				heap.poll();
+				heap.add(match);
+			}
+		}
+		List<Ranked> ranked = new ArrayList<>(heap);
+		ranked.sort(comparator);
+		List<Watchable> result = new ArrayList<>(ranked.size());
+		for (Ranked match : ranked) {
+			result.add(match.aWatchable);
+		}
+		return result;
+	}
+
+	/*
+	 * A match and its position in the enumeration of the matches.
+	 */
+	private static final class Ranked {
+		private final Watchable aWatchable;
+		private final long aPosition;
+
+		Ranked(Watchable pWatchable, long pPosition) {
+			aWatchable = pWatchable;
+			aPosition = pPosition;
+		}
+	}
+
+	/*
+	 * Returns an iterator over the episodes of the candidate shows accepted by pFilter, followed by the accepted
+	 * candidate movies, including those of the catalogs. The filter is evaluated when the iterator advances, and
+	 * the candidate movies are only looked up once the shows are exhausted.
+	 */
+	private Iterator<Watchable> matches(WatchListFilter pFilter) {
+		return new Iterator<Watchable>() {
+			private Iterator<TVShow> aShows = iterateWithCatalogs(candidateTVShows(pFilter),
+					catalog -> candidateTVShows(catalog, pFilter));
+			private Iterator<TVShow.Episode> aEpisodes = Collections.emptyIterator();
+			private Iterator<Movie> aMovies;
+			private Watchable aNext;
+
+			@Override
+			public boolean hasNext() {
+				while (aNext == null) {
+					if (aEpisodes.hasNext()) {
+						TVShow.Episode episode = aEpisodes.next();
+						if (pFilter.filter(episode)) {
+							aNext = episode;
+						}
+					}
+					else if (aShows.hasNext()) {
+						TVShow show = aShows.next();
+						if (pFilter.filter(show)) {
+							aEpisodes = show.iterator();
+						}
+					}
+					else {
+						if (aMovies == null) {
+							aMovies = iterateWithCatalogs(candidateMovies(pFilter),
+									catalog -> candidateMovies(catalog, pFilter));
+						}
+						if (!aMovies.hasNext()) return false;
+						Movie movie = aMovies.next();
+						if (pFilter.filter(movie)) {
+							aNext = movie;
+						}
+					}
+				}
+				return true;
+			}
+
+			@Override
+			public Watchable next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				Watchable next = aNext;
+				aNext = null;
+				return next;
+			}
+		};
+	}
+
+	/*
+	 * Returns an iterator over the elements of pIndexed followed by those of the catalogs, which are only read when
+	 * they are reached.
+	 */
+	private <T> Iterator<T> iterateWithCatalogs(Set<T> pIndexed, Function<CatalogSegment, List<T>> pRecords) {
+		Iterator<CatalogSegment> catalogs = aCatalogs.iterator();
+		return new Iterator<T>() {
+			private Iterator<T> aCurrent = pIndexed.iterator();
+
+			@Override
+			public boolean hasNext() {
+				while (!aCurrent.hasNext()) {
+					if (!catalogs.hasNext()) return false;
+					aCurrent = pRecords.apply(catalogs.next()).iterator();
+				}
+				return true;
+			}
+
+			@Override
+			public T next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return aCurrent.next();
+			}
+		};
+	}
+
+	/*
+	 * Returns the elements of pIndexed followed by those of the catalogs, which are only read when they are accessed.
+	 */
+	private <T> List<T> withCatalogs(Set<T> pIndexed, Function<CatalogSegment, List<T>> pRecords) {
+		List<List<T>> parts = new ArrayList<>();
+		parts.add(new ArrayList<>(pIndexed));
+		for (CatalogSegment catalog : aCatalogs) {
+			parts.add(pRecords.apply(catalog));
+		}
+		int size = 0;
+		for (List<T> part : parts) {
+			size += part.size();
+		}
+		int total = size;
+		return new AbstractList<T>() {
+			@Override
+			public T get(int pIndex) {
+				if (pIndex < 0 || pIndex >= total) {
+					throw new IndexOutOfBoundsException("Index: " + pIndex + ", Size: " + total);
+				}
+				int index = pIndex;
+				for (List<T> part : parts) {
+					if (index < part.size()) return part.get(index);
+					index -= part.size();
+				}
+				throw new AssertionError();
+			}
+
+			@Override
+			public int size() {
+				return total;
+			}
+		};
+	}
+
+	/*
+	 * Returns the movies that may be accepted by pFilter, using the indexes when possible. The result is only a
+	 * superset of the matches: the filter must still be evaluated on each movie.
+	 */
+	private Set<Movie> candidateMovies(WatchListFilter pFilter) {
+		Set<Movie> candidates = indexed(pFilter, filter -> {
+			if (filter instanceof LanguageFilterStrategy) {
+				return aMoviesByLanguage.getOrDefault(((LanguageFilterStrategy) filter).getLanguage(), Set.of());
+			}
+			if (filter instanceof StudioFilterStrategy) {
+				return aMoviesByStudio.getOrDefault(((StudioFilterStrategy) filter).getStudio(), Set.of());
+			}
+			if (filter instanceof TagFilterStrategy) {
+				Set<Movie> result = new HashSet<>();
+				((TagFilterStrategy) filter).getMatches().forEach(id -> {
+					Watchable watchable = TagIndex.instance().get(id);
+					if (watchable instanceof Movie && aMovies.contains(watchable)) {
+						result.add((Movie) watchable);
+					}
+				});
+				return result;
+			}
+			return null;
+		});
+		return candidates == null ? aMovies : candidates;
+	}
+
+	/*
+	 * Returns the shows that may be accepted by pFilter, using the indexes when possible. The result is only a
+	 * superset of the matches: the filter must still be evaluated on each show and its episodes.
+	 */
+	private Set<TVShow> candidateTVShows(WatchListFilter pFilter) {
+		Set<TVShow> candidates = indexed(pFilter, filter -> {
+			if (filter instanceof LanguageFilterStrategy) {
+				return aTVShowsByLanguage.getOrDefault(((LanguageFilterStrategy) filter).getLanguage(), Set.of());
+			}
+			if (filter instanceof StudioFilterStrategy) {
+				return aTVShowsByStudio.getOrDefault(((StudioFilterStrategy) filter).getStudio(), Set.of());
+			}
+			if (filter instanceof TagFilterStrategy) {
+				// A show may match through the tags of one of its episodes.
+				Set<TVShow> result = new HashSet<>();
+				((TagFilterStrategy) filter).getMatches().forEach(id -> {
+					Watchable watchable = TagIndex.instance().get(id);
+					TVShow show = null;
+					if (watchable instanceof TVShow) {
+						show = (TVShow) watchable;
 					}
+					else if (watchable instanceof TVShow.Episode) {
+						show = ((TVShow.Episode) watchable).getTVShow();
+					}
+					if (show != null && aTVShows.contains(show)) {
+						result.add(show);
+					}
+				});
+				return result;
+			}
+			return null;
+		});
+		return candidates == null ? aTVShows : candidates;
+	}
+
+	/*
+	 * Returns the movies of pCatalog that may be accepted by pFilter, in the order of the catalog, using the indexes
+	 * of the catalog when possible. Only the candidates are read from the catalog.
+	 */
+	private static List<Movie> candidateMovies(CatalogSegment pCatalog, WatchListFilter pFilter) {
+		Set<Integer> candidates = indexed(pFilter, filter -> {
+			if (filter instanceof LanguageFilterStrategy) {
+				return positions(pCatalog.getMovieIndexes(((LanguageFilterStrategy) filter).getLanguage()));
+			}
+			if (filter instanceof StudioFilterStrategy) {
+				return positions(pCatalog.getMovieIndexes(((StudioFilterStrategy) filter).getStudio()));
+			}
+			if (filter instanceof TagFilterStrategy) {
+				// The catalog watchables with tags are pinned, so they are in the tag index.
+				Set<Integer> result = new HashSet<>();
+				((TagFilterStrategy) filter).getMatches().forEach(id -> {
+					Watchable watchable = TagIndex.instance().get(id);
+					if (watchable instanceof Movie && ((Movie) watchable).aCatalog == pCatalog) {
+						result.add(((Movie) watchable).aRecord);
+					}
+				});
+				return result;
+			}
+			return null;
+		});
+		return candidates == null ? pCatalog.getMovies() : records(candidates, pCatalog::getMovie);
+	}
+
+	/*
+	 * Returns the shows of pCatalog that may be accepted by pFilter, in the order of the catalog, using the indexes
+	 * of the catalog when possible. Only the candidates are read from the catalog.
+	 */
+	private static List<TVShow> candidateTVShows(CatalogSegment pCatalog, WatchListFilter pFilter) {
+		Set<Integer> candidates = indexed(pFilter, filter -> {
+			if (filter instanceof LanguageFilterStrategy) {
+				return positions(pCatalog.getTVShowIndexes(((LanguageFilterStrategy) filter).getLanguage()));
+			}
+			if (filter instanceof StudioFilterStrategy) {
+				return positions(pCatalog.getTVShowIndexes(((StudioFilterStrategy) filter).getStudio()));
+			}
+			if (filter instanceof TagFilterStrategy) {
+				// A show may match through the tags of one of its episodes.
+				Set<Integer> result = new HashSet<>();
+				((TagFilterStrategy) filter).getMatches().forEach(id -> {
+					Watchable watchable = TagIndex.instance().get(id);
+					TVShow show = null;
+					if (watchable instanceof TVShow) {
+						show = (TVShow) watchable;
+					}
+					else if (watchable instanceof TVShow.Episode) {
+						show = ((TVShow.Episode) watchable).getTVShow();
+					}
+					if (show != null && show.aCatalog == pCatalog) {
+						result.add(show.aRecord - pCatalog.getMovieCount());
+					}
+				});
+				return result;
+			}
+			return null;
+		});
+		return candidates == null ? pCatalog.getTVShows() : records(candidates, pCatalog::getTVShow);
+	}
+
+	private static Set<Integer> positions(CompressedBitmap pBitmap) {
+		Set<Integer> positions = new HashSet<>();
+		pBitmap.forEach(positions::add);
+		return positions;
+	}
+
+	/*
+	 * Returns the records of a catalog at pPositions, in increasing order of position, read when they are accessed.
+	 */
+	private static <T> List<T> records(Set<Integer> pPositions, IntFunction<T> pRecords) {
+		int[] positions = pPositions.stream().mapToInt(Integer::intValue).sorted().toArray();
+		return new AbstractList<T>() {
+			@Override
+			public T get(int pIndex) {
+				return pRecords.apply(positions[pIndex]);
+			}
+
+			@Override
+			public int size() {
+				return positions.length;
+			}
+		};
+	}
+
+	/*
+	 * Returns the elements that may be accepted by pFilter according to the indexes, or null if the indexes cannot
+	 * tell. pLeaves answers for a filter that is not a combination of filters, or returns null. The returned set must
+	 * not be modified.
+	 */
+	private static <T> Set<T> indexed(WatchListFilter pFilter, Function<WatchListFilter, Set<T>> pLeaves) {
+		if (pFilter instanceof AndFilter) {
+			// Filters that cannot be answered from the indexes do not restrict the intersection.
+			Set<T> result = null;
+			for (WatchListFilter filter : ((AndFilter) pFilter).getFilters()) {
+				Set<T> candidates = indexed(filter, pLeaves);
+				if (candidates != null) {
+					result = result == null ? candidates : intersection(result, candidates);
 				}
 			}
+			return result;
 		}
-		for (Movie movie : aMovies) {
-			if (pGenerationParameters.filter(movie)) {
-				watchlist.addWatchable(movie);
+		if (pFilter instanceof OrFilter) {
+			Set<T> result = new HashSet<>();
+			for (WatchListFilter filter : ((OrFilter) pFilter).getFilters()) {
+				Set<T> candidates = indexed(filter, pLeaves);
+				if (candidates == null) return null;
+				result.addAll(candidates);
 			}
+			return result;
+		}
+		return pLeaves.apply(pFilter);
+	}
+
+	private static <T> Set<T> intersection(Set<T> pFirst, Set<T> pSecond) {
+		Set<T> smaller = pFirst.size() <= pSecond.size() ? pFirst : pSecond;
+		Set<T> larger = smaller == pFirst ? pSecond : pFirst;
+		Set<T> result = new HashSet<>();
+		for (T element : smaller) {
+			if (larger.contains(element)) {
+				result.add(element);
+			}
+		}
+		return result;
+	}
+
+	/*
+	 * A filter registered as a standing query, with its watchlist and the watchables it added there.
+	 *
+	 * The position of each match in the watchlist is kept in a Fenwick tree of the elements of the watchlist, in the
+	 * order they were added, so that a former match is found in logarithmic time. A position is checked against the
+	 * watchlist before it is used: if the watchlist was modified by its clients, the positions are computed again.
+	 */
+	private static final class StandingQuery {
+		private final WatchListFilter aFilter;
+		private final WatchList aWatchList;
+		private final Set<Watchable> aMatches = Collections.newSetFromMap(new IdentityHashMap<>());
+		// The slot of the last occurrence of each match, and the slots still in the watchlist.
+		private final Map<Watchable, Integer> aSlots = new IdentityHashMap<>();
+		private Positions aPositions;
+		// Whether each show matched when it was last evaluated, so that a change to the tags of a show or episode only
+		// evaluates the other episodes again if it changes whether the show matches. A show that was not evaluated
+		// has no matching episode, as if it did not match.
+		private final Map<TVShow, Boolean> aShowMatches = new WeakHashMap<>();
+
+		StandingQuery(WatchListFilter pFilter, WatchList pWatchList) {
+			aFilter = pFilter;
+			aWatchList = pWatchList;
+			for (Watchable watchable : pWatchList) {
+				aMatches.add(watchable);
+				if (watchable instanceof TVShow.Episode) {
+					aShowMatches.put(((TVShow.Episode) watchable).getTVShow(), true);
+				}
+			}
+			index();
+		}
+
+		void evaluate(Movie pMovie) {
+			update(pMovie, aFilter.filter(pMovie));
+		}
+
+		void evaluate(TVShow pTVShow) {
+			evaluate(pTVShow, aFilter.filter(pTVShow));
+		}
+
+		/*
+		 * Evaluates all the episodes of a show whose tags changed, if the change makes the show match or stop
+		 * matching.
+		 */
+		void showChanged(TVShow pTVShow) {
+			boolean matches = aFilter.filter(pTVShow);
+			if (matches != aShowMatches.getOrDefault(pTVShow, false)) {
+				evaluate(pTVShow, matches);
+			}
+		}
+
+		void evaluate(TVShow.Episode pEpisode) {
+			TVShow show = pEpisode.getTVShow();
+			boolean matches = aFilter.filter(show);
+			if (matches != aShowMatches.getOrDefault(show, false)) {
+				evaluate(show, matches);
+			}
+			else {
+				update(pEpisode, matches && aFilter.filter(pEpisode));
+			}
+		}
+
+		private void evaluate(TVShow pTVShow, boolean pMatches) {
+			aShowMatches.put(pTVShow, pMatches);
+			for (TVShow.Episode episode : pTVShow) {
+				update(episode, pMatches && aFilter.filter(episode));
+			}
+		}
+
+		/*
+		 * Adds a new match at the end of the watchlist, or removes a former match.
+		 */
+		private void update(Watchable pWatchable, boolean pMatches) {
+			if (pMatches) {
+				if (aMatches.add(pWatchable)) {
+					if (aPositions.getCount() != aWatchList.aList.size()) {
+						index();
+					}
+					aWatchList.addWatchable(pWatchable);
+					aSlots.put(pWatchable, aPositions.append());
+				}
+			}
+			else if (aMatches.remove(pWatchable)) {
+				Integer slot = aSlots.remove(pWatchable);
+				int index = slot == null ? -1 : aPositions.rank(slot);
+				if (aPositions.getCount() == aWatchList.aList.size() && index >= 0
+						&& aWatchList.aList.get(index) == pWatchable) {
+					aPositions.remove(slot);
+					aWatchList.removeWatchable(index);
+					return;
+				}
+				index = aWatchList.aList.lastIndexOf(pWatchable);
+				if (index >= 0) {
+					aWatchList.removeWatchable(index);
+				}
+				index();
+			}
+		}
+
+		/*
+		 * Computes the positions of the matches from the content of the watchlist.
+		 */
+		private void index() {
+			aSlots.clear();
+			aPositions = new Positions();
+			for (Watchable watchable : aWatchList.aList) {
+				int slot = aPositions.append();
+				if (aMatches.contains(watchable)) {
+					aSlots.put(watchable, slot);
+				}
+			}
+		}
+	}
+
+	/*
+	 * Fenwick tree of slots that are each occupied or free, numbered from 0 in the order they were appended. Answers
+	 * the number of occupied slots before a slot, i.e., the position of its element in the watchlist, in logarithmic
+	 * time.
+	 */
+	private static final class Positions {
+		// 1-based, of a power of two length plus one, so that it can double in place.
+		private int[] aTree = new int[17];
+		private int aSlots;
+		private int aCount;
+
+		int getCount() {
+			return aCount;
+		}
+
+		/*
+		 * Appends an occupied slot and returns it.
+		 */
+		int append() {
+			int capacity = aTree.length - 1;
+			if (aSlots == capacity) {
+				// The last node of the doubled tree covers all the slots; the nodes in between cover free slots.
+				aTree = Arrays.copyOf(aTree, 2 * capacity + 1);
+				aTree[2 * capacity] = aTree[capacity];
+			}
+			add(aSlots, 1);
+			aCount++;
+			return aSlots++;
+		}
+
+		void remove(int pSlot) {
+			add(pSlot, -1);
+			aCount--;
+		}
+
+		/*
+		 * @return the number of occupied slots before pSlot
+		 */
+		int rank(int pSlot) {
+			int rank = 0;
+			for (int i = pSlot; i > 0; i -= i & -i) {
+				rank += aTree[i];
+			}
+			return rank;
+		}
+
+		private void add(int pSlot, int pDelta) {
+			for (int i = pSlot + 1; i < aTree.length; i += i & -i) {
+				aTree[i] += pDelta;
+			}
+		}
+	}
+
+	/*
+	 * Filters a range of the shows followed by the movies of the library, by splitting it in halves until it is small
+	 * enough. The results of the halves are concatenated in order, so the result does not depend on the scheduling.
+	 */
+	private static final class GenerationTask extends RecursiveTask<List<Watchable>> {
+		private static final long serialVersionUID = 1L;
+		private static final int THRESHOLD = 64;
+
+		private final List<TVShow> aShows;
+		private final List<Movie> aMovies;
+		private final WatchListFilter aFilter;
+		private final int aFrom;
+		private final int aTo;
+
+		GenerationTask(List<TVShow> pShows, List<Movie> pMovies, WatchListFilter pFilter, int pFrom, int pTo) {
+			aShows = pShows;
+			aMovies = pMovies;
+			aFilter = pFilter;
+			aFrom = pFrom;
+			aTo = pTo;
+		}
+
+		@Override
+		protected List<Watchable> compute() {
+			if (aTo - aFrom > THRESHOLD) {
+				int middle = (aFrom + aTo) >>> 1;
+				GenerationTask left = new GenerationTask(aShows, aMovies, aFilter, aFrom, middle);
+				GenerationTask right = new GenerationTask(aShows, aMovies, aFilter, middle, aTo);
+				left.fork();
+				List<Watchable> result = right.compute();
+				List<Watchable> leftResult = left.join();
+				leftResult.addAll(result);
+				return leftResult;
+			}
+			List<Watchable> result = new ArrayList<>();
+			for (int i = aFrom; i < aTo; i++) {
+				if (i < aShows.size()) {
+					TVShow show = aShows.get(i);
+					if (aFilter.filter(show)) {
+						for (TVShow.Episode episode : show) {
+							if (aFilter.filter(episode)) {
+								result.add(episode);
+							}
+						}
+					}
+				}
+				else {
+					Movie movie = aMovies.get(i - aShows.size());
+					if (aFilter.filter(movie)) {
+						result.add(movie);
+					}
+				}
+			}
+			return result;
 		}
-		return watchlist;
 	}
 }
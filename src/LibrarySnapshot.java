@@ -0,0 +1,462 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Binary snapshot of a library: its movies with their prequel and sequel links, its shows with their episodes and
+ * cast, the tags of all of them, and its watchlists with their position and last watched element. Movies and shows
+ * referenced by the watchlists or by links are included even if they were not added to the library, and are added to
+ * the restored library.
+ *
+ * The file holds a header, a table of the distinct strings, then the movies, shows and watchlists, each as a sequence
+ * of integers that refer to the strings and to the previously read watchables by position. It is written through a
+ * channel and read in a single pass over a memory mapping. The paths are not checked again when a snapshot is read:
+ * the validity of a watchable is checked when it is first needed.
+ *
+ * Episode prototypes, undo histories and catalog segments are not part of a snapshot.
+ */
+public final class LibrarySnapshot {
+
+	private static final int MAGIC = 0x574c4942;
+	private static final int VERSION = 1;
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private static final int MOVIE = 0;
+	private static final int TV_SHOW = 1;
+	private static final int EPISODE = 2;
+	private static final int NONE = -1;
+
+	private static final Language[] LANGUAGES = Language.values();
+	private static final TVShow.EpisodeStorage[] STORAGES = TVShow.EpisodeStorage.values();
+
+	private LibrarySnapshot() {
+	}
+
+	/**
+	 * Writes a snapshot of pLibrary.
+	 *
+	 * @param pLibrary
+	 *            the library to save
+	 * @param pFile
+	 *            the file to write, replaced atomically if it exists
+	 * @throws IOException
+	 *             if the file cannot be written, in which case an existing file is unchanged
+	 * @throws IllegalArgumentException
+	 *             if a watchlist contains a watchable that is not a movie, a show or an episode
+	 * @pre pLibrary != null && pFile != null
+	 */
+	public static void write(Library pLibrary, Path pFile) throws IOException {
+		assert pLibrary != null && pFile != null;
+		writeContents(pLibrary, pFile);
+	}
+
+	/*
+	 * Writes a snapshot of pLibrary, and returns the watchables and watchlists in the order of the file.
+	 */
+	static Contents writeContents(Library pLibrary, Path pFile) throws IOException {
+		Map<Movie, Integer> movies = new IdentityHashMap<>();
+		Map<TVShow, Integer> shows = new IdentityHashMap<>();
+		List<Movie> movieOrder = new ArrayList<>();
+		List<TVShow> showOrder = new ArrayList<>();
+		List<WatchList> watchLists = new ArrayList<>(pLibrary.getWatchLists());
+		Deque<Movie> pending = new ArrayDeque<>(pLibrary.getMovies());
+		for (TVShow show : pLibrary.getTVShows()) {
+			if (shows.putIfAbsent(show, shows.size()) == null) showOrder.add(show);
+		}
+		for (WatchList watchList : watchLists) {
+			for (Watchable item : watchList) {
+				collect(item, pending, shows, showOrder);
+			}
+			watchList.lastWatched().ifPresent(item -> collect(item, pending, shows, showOrder));
+		}
+		while (!pending.isEmpty()) {
+			Movie movie = pending.poll();
+			if (movies.putIfAbsent(movie, movies.size()) == null) {
+				movieOrder.add(movie);
+				if (movie.hasPrevious()) pending.add(movie.getPrevious());
+				if (movie.hasNext()) pending.add(movie.getNext());
+			}
+		}
+
+		Map<String, Integer> strings = new LinkedHashMap<>();
+		for (Movie movie : movieOrder) {
+			collect(strings, movie, movie.getPath());
+		}
+		for (TVShow show : showOrder) {
+			collect(strings, show, null);
+			for (TVShow.Episode episode : show) {
+				collect(strings, episode, episode.getPath());
+				for (String character : episode.getAllCharacters()) {
+					strings.putIfAbsent(character, strings.size());
+					strings.putIfAbsent(episode.getCast(character), strings.size());
+				}
+			}
+		}
+		for (WatchList watchList : watchLists) {
+			strings.putIfAbsent(watchList.getName(), strings.size());
+		}
+
+		// Written under a temporary name and renamed once complete, so that pFile is always either the previous
+		// snapshot or the new one, even if the process dies while writing.
+		Path temporary = pFile.resolveSibling(pFile.getFileName() + ".tmp");
+		try (Output out = new Output(temporary)) {
+			out.putInt(MAGIC);
+			out.putInt(VERSION);
+			out.putInt(strings.size());
+			for (String string : strings.keySet()) {
+				out.putString(string);
+			}
+			out.putInt(movieOrder.size());
+			for (Movie movie : movieOrder) {
+				putWatchable(out, strings, movie);
+				out.putInt(strings.get(movie.getPath().getPath()));
+				out.putInt(movie.hasPrevious() ? movies.get(movie.getPrevious()) : NONE);
+			}
+			out.putInt(showOrder.size());
+			for (TVShow show : showOrder) {
+				putWatchable(out, strings, show);
+				out.putInt(show.getStorage().ordinal());
+				out.putInt(show.aNextToWatch);
+				out.putInt(show.getTotalCount());
+				for (TVShow.Episode episode : show) {
+					out.putInt(strings.get(episode.getTitle()));
+					out.putInt(strings.get(episode.getPath().getPath()));
+					putTags(out, strings, episode);
+					out.putInt(episode.getAllCharacters().size());
+					for (String character : episode.getAllCharacters()) {
+						out.putInt(strings.get(character));
+						out.putInt(strings.get(episode.getCast(character)));
+					}
+				}
+			}
+			out.putInt(watchLists.size());
+			for (WatchList watchList : watchLists) {
+				out.putInt(strings.get(watchList.getName()));
+				out.putInt(watchList.aNext);
+				putReference(out, movies, shows, watchList.lastWatched().orElse(null));
+				out.putInt(watchList.getTotalCount());
+				for (Watchable item : watchList) {
+					putReference(out, movies, shows, item);
+				}
+			}
+		}
+		catch (IOException | RuntimeException e) {
+			Files.deleteIfExists(temporary);
+			throw e;
+		}
+		Files.move(temporary, pFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		forceDirectory(pFile);
+		return new Contents(pLibrary, movieOrder, showOrder, watchLists);
+	}
+
+	/*
+	 * Forces the directory of pFile to the storage device, so that the rename of pFile survives a crash.
+	 */
+	private static void forceDirectory(Path pFile) {
+		Path directory = pFile.toAbsolutePath().getParent();
+		if (directory == null) return;
+		try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+			channel.force(true);
+		}
+		catch (IOException e) {
+			// Not supported on every platform; the rename is still atomic.
+		}
+	}
+
+	/**
+	 * Reads a library from a snapshot.
+	 *
+	 * @param pFile
+	 *            the snapshot to read
+	 * @return a new library with the content of the snapshot
+	 * @throws IOException
+	 *             if the file cannot be read or is not a snapshot
+	 * @pre pFile != null
+	 */
+	public static Library read(Path pFile) throws IOException {
+		assert pFile != null;
+		return readContents(pFile).aLibrary;
+	}
+
+	/*
+	 * Reads a snapshot, and returns the watchables and watchlists in the order of the file.
+	 */
+	static Contents readContents(Path pFile) throws IOException {
+		ByteBuffer in;
+		try (FileChannel channel = FileChannel.open(pFile, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("Snapshot too large: " + pFile);
+			}
+			in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		if (in.remaining() < 8 || in.getInt() != MAGIC || in.getInt() != VERSION) {
+			throw new IOException("Not a library snapshot: " + pFile);
+		}
+		try {
+			return read(in);
+		}
+		catch (RuntimeException e) {
+			throw new IOException("Corrupted library snapshot: " + pFile, e);
+		}
+	}
+
+	private static Contents read(ByteBuffer pIn) {
+		String[] strings = new String[pIn.getInt()];
+		byte[] bytes = new byte[256];
+		for (int i = 0; i < strings.length; i++) {
+			int length = pIn.getInt();
+			if (length > bytes.length) bytes = new byte[Math.max(length, bytes.length * 2)];
+			pIn.get(bytes, 0, length);
+			strings[i] = new String(bytes, 0, length, StandardCharsets.UTF_8);
+		}
+		Library library = new Library();
+
+		Movie[] movies = new Movie[pIn.getInt()];
+		int[] prequels = new int[movies.length];
+		for (int i = 0; i < movies.length; i++) {
+			String title = strings[pIn.getInt()];
+			String studio = strings[pIn.getInt()];
+			Language language = LANGUAGES[pIn.getInt()];
+			Map<String, String> tags = getTags(pIn, strings);
+			movies[i] = Movie.restore(new File(strings[pIn.getInt()]), title, language, studio);
+			setTags(movies[i], tags);
+			prequels[i] = pIn.getInt();
+			library.addMovie(movies[i]);
+		}
+		for (int i = 0; i < movies.length; i++) {
+			if (prequels[i] != NONE) {
+				movies[i].setPrevious(movies[prequels[i]]);
+			}
+		}
+
+		TVShow[] shows = new TVShow[pIn.getInt()];
+		for (int i = 0; i < shows.length; i++) {
+			String title = strings[pIn.getInt()];
+			String studio = strings[pIn.getInt()];
+			Language language = LANGUAGES[pIn.getInt()];
+			Map<String, String> tags = getTags(pIn, strings);
+			TVShow show = new TVShow(title, language, studio, STORAGES[pIn.getInt()]);
+			setTags(show, tags);
+			int nextToWatch = pIn.getInt();
+			int episodes = pIn.getInt();
+			for (int j = 0; j < episodes; j++) {
+				String episodeTitle = strings[pIn.getInt()];
+				TVShow.Episode episode = show.createAndAddEpisode(new File(strings[pIn.getInt()]), episodeTitle);
+				setTags(episode, getTags(pIn, strings));
+				int cast = pIn.getInt();
+				for (int k = 0; k < cast; k++) {
+					episode.setCast(strings[pIn.getInt()], strings[pIn.getInt()]);
+				}
+			}
+			show.aNextToWatch = nextToWatch;
+			shows[i] = show;
+			library.addTVShow(show);
+		}
+
+		List<WatchList> watchLists = new ArrayList<>();
+		int watchListCount = pIn.getInt();
+		for (int i = 0; i < watchListCount; i++) {
+			String name = strings[pIn.getInt()];
+			int next = pIn.getInt();
+			Watchable lastWatched = getReference(pIn, movies, shows);
+			List<Watchable> items = new ArrayList<>();
+			int size = pIn.getInt();
+			for (int j = 0; j < size; j++) {
+				items.add(getReference(pIn, movies, shows));
+			}
+			WatchList watchList = new WatchList(name, items, next, Optional.ofNullable(lastWatched));
+			library.addWatchList(watchList);
+			watchLists.add(watchList);
+		}
+		return new Contents(library, Arrays.asList(movies), Arrays.asList(shows), watchLists);
+	}
+
+	private static void collect(Watchable pItem, Deque<Movie> pMovies, Map<TVShow, Integer> pShows,
+			List<TVShow> pShowOrder) {
+		TVShow show;
+		if (pItem instanceof Movie) {
+			pMovies.add((Movie) pItem);
+			return;
+		}
+		else if (pItem instanceof TVShow) {
+			show = (TVShow) pItem;
+		}
+		else if (pItem instanceof TVShow.Episode) {
+			show = ((TVShow.Episode) pItem).getTVShow();
+		}
+		else {
+			throw new IllegalArgumentException("Cannot save a " + pItem.getClass().getName());
+		}
+		if (pShows.putIfAbsent(show, pShows.size()) == null) pShowOrder.add(show);
+	}
+
+	private static void collect(Map<String, Integer> pStrings, AbstractWatchable pWatchable, File pPath) {
+		pStrings.putIfAbsent(pWatchable.getTitle(), pStrings.size());
+		pStrings.putIfAbsent(pWatchable.getStudio(), pStrings.size());
+		if (pPath != null) pStrings.putIfAbsent(pPath.getPath(), pStrings.size());
+		for (Map.Entry<String, String> tag : pWatchable.aTags.entrySet()) {
+			pStrings.putIfAbsent(tag.getKey(), pStrings.size());
+			pStrings.putIfAbsent(tag.getValue(), pStrings.size());
+		}
+	}
+
+	private static void putWatchable(Output pOut, Map<String, Integer> pStrings, AbstractWatchable pWatchable)
+			throws IOException {
+		pOut.putInt(pStrings.get(pWatchable.getTitle()));
+		pOut.putInt(pStrings.get(pWatchable.getStudio()));
+		pOut.putInt(pWatchable.getLanguage().ordinal());
+		putTags(pOut, pStrings, pWatchable);
+	}
+
+	private static void putTags(Output pOut, Map<String, Integer> pStrings, AbstractWatchable pWatchable)
+			throws IOException {
+		pOut.putInt(pWatchable.aTags.size());
+		for (Map.Entry<String, String> tag : pWatchable.aTags.entrySet()) {
+			pOut.putInt(pStrings.get(tag.getKey()));
+			pOut.putInt(pStrings.get(tag.getValue()));
+		}
+	}
+
+	private static Map<String, String> getTags(ByteBuffer pIn, String[] pStrings) {
+		int size = pIn.getInt();
+		if (size == 0) return Map.of();
+		Map<String, String> tags = new HashMap<>();
+		for (int i = 0; i < size; i++) {
+			tags.put(pStrings[pIn.getInt()], pStrings[pIn.getInt()]);
+		}
+		return tags;
+	}
+
+	private static void setTags(Watchable pWatchable, Map<String, String> pTags) {
+		for (Map.Entry<String, String> tag : pTags.entrySet()) {
+			pWatchable.setInfo(tag.getKey(), tag.getValue());
+		}
+	}
+
+	/*
+	 * A reference is the kind of watchable, the position of the movie or show, and the number of the episode.
+	 */
+	private static void putReference(Output pOut, Map<Movie, Integer> pMovies, Map<TVShow, Integer> pShows,
+			Watchable pItem) throws IOException {
+		if (pItem == null) {
+			pOut.putInt(NONE);
+			pOut.putInt(0);
+			pOut.putInt(0);
+		}
+		else if (pItem instanceof Movie) {
+			pOut.putInt(MOVIE);
+			pOut.putInt(pMovies.get(pItem));
+			pOut.putInt(0);
+		}
+		else if (pItem instanceof TVShow) {
+			pOut.putInt(TV_SHOW);
+			pOut.putInt(pShows.get(pItem));
+			pOut.putInt(0);
+		}
+		else {
+			TVShow.Episode episode = (TVShow.Episode) pItem;
+			pOut.putInt(EPISODE);
+			pOut.putInt(pShows.get(episode.getTVShow()));
+			pOut.putInt(episode.getEpisodeNumber());
+		}
+	}
+
+	private static Watchable getReference(ByteBuffer pIn, Movie[] pMovies, TVShow[] pShows) {
+		int kind = pIn.getInt();
+		int index = pIn.getInt();
+		int number = pIn.getInt();
+		switch (kind) {
+		case NONE:
+			return null;
+		case MOVIE:
+			return pMovies[index];
+		case TV_SHOW:
+			return pShows[index];
+		case EPISODE:
+			return pShows[index].getEpisode(number);
+		default:
+			throw new IllegalStateException("Unknown watchable kind: " + kind);
+		}
+	}
+
+	/*
+	 * The content of a snapshot, in the order of the file.
+	 */
+	static final class Contents {
+		final Library aLibrary;
+		final List<Movie> aMovies;
+		final List<TVShow> aTVShows;
+		final List<WatchList> aWatchLists;
+
+		Contents(Library pLibrary, List<Movie> pMovies, List<TVShow> pTVShows, List<WatchList> pWatchLists) {
+			aLibrary = pLibrary;
+			aMovies = pMovies;
+			aTVShows = pTVShows;
+			aWatchLists = pWatchLists;
+		}
+	}
+
+	/*
+	 * Writes through a buffer to a file channel. The file is forced to the storage device when it is closed.
+	 */
+	private static final class Output implements AutoCloseable {
+		private final FileChannel aChannel;
+		private final ByteBuffer aBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+		Output(Path pFile) throws IOException {
+			aChannel = FileChannel.open(pFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING);
+		}
+
+		void putInt(int pValue) throws IOException {
+			if (aBuffer.remaining() < Integer.BYTES) flush();
+			aBuffer.putInt(pValue);
+		}
+
+		void putString(String pString) throws IOException {
+			byte[] bytes = pString.getBytes(StandardCharsets.UTF_8);
+			putInt(bytes.length);
+			if (aBuffer.remaining() < bytes.length) flush();
+			if (bytes.length > aBuffer.capacity()) {
+				ByteBuffer large = ByteBuffer.wrap(bytes);
+				while (large.hasRemaining()) aChannel.write(large);
+			}
+			else {
+				aBuffer.put(bytes);
+			}
+		}
+
+		private void flush() throws IOException {
+			aBuffer.flip();
+			while (aBuffer.hasRemaining()) aChannel.write(aBuffer);
+			aBuffer.clear();
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				flush();
+				aChannel.force(true);
+			}
+			finally {
+				aChannel.close();
+			}
+		}
+	}
+}
@@ -10,6 +10,10 @@ public class Movie extends AbstractWatchable implements Sequenceable<Movie> {
 	private final File aPath;
 	private Movie prequel;
 	private Movie sequel;
+	private boolean aLinked = true;
+	// Notified of the changes of validity of the file while the movie has observers. The cache only references it
+	// weakly, so it does not keep the movie in memory.
+	private ValidityCache.Listener aValidityListener;
 
 	/**
 	 * Creates a movie from the file path. Callers must also provide required metadata about the movie.
@@ -27,36 +31,105 @@ public class Movie extends AbstractWatchable implements Sequenceable<Movie> {
 	 *             if the path doesn't point to a file (e.g., it denotes a directory)
 	 */
 	public Movie(File pPath, String pTitle, Language pLanguage, String pStudio) {
-		super(pTitle, pStudio, pLanguage);
-		assert pPath != null;
+		this(pTitle, pLanguage, pStudio, pPath);
 		if (pPath.exists() && !pPath.isFile()) {
 			throw new IllegalArgumentException("The path should point to a file.");
 		}
+	}
+	
+	/*
+	 * Creates the movie of record pRecord of a catalog segment. Its prequel and sequel are read when first needed, and
+	 * its validity is only tracked once it has observers, so the movie can be collected when it is no longer used.
+	 */
+	Movie(CatalogSegment pCatalog, int pRecord) {
+		this(pCatalog.getTitle(pRecord), pCatalog.getLanguage(pRecord), pCatalog.getStudio(pRecord),
+				pCatalog.getPath(pRecord));
+		aLinked = false;
+	}
+	
+	private Movie(String pTitle, Language pLanguage, String pStudio, File pPath) {
+		super(pTitle, pStudio, pLanguage);
+		assert pPath != null;
 		aPath = pPath; // ok because File is immutable.
 	}
+	
+	/**
+	 * Creates a movie whose path was checked when it was first created, e.g., when reading a saved library. Its
+	 * validity is only tracked once it has observers.
+	 *
+	 * @pre pPath!=null && pTitle!=null && pLanguage!=null && pStudio!=null
+	 */
+	static Movie restore(File pPath, String pTitle, Language pLanguage, String pStudio) {
+		return new Movie(pTitle, pLanguage, pStudio, pPath);
+	}
+	
+	/**
+	 * The validity of the movie is tracked while it has observers, the only ones notified of its changes.
+	 */
+	@Override
+	void stateChanged() {
+		if (hasObservers()) {
+			track();
+		}
+		super.stateChanged();
+	}
+	
+	@Override
+	void observersRemoved() {
+		if (aValidityListener != null) {
+			ValidityCache.instance().removeListener(aPath, aValidityListener);
+			aValidityListener = null;
+		}
+	}
+	
+	private void track() {
+		if (aValidityListener == null) {
+			aValidityListener = (path, valid) -> notifyValidityChanged(valid);
+			ValidityCache.instance().addListener(aPath, aValidityListener);
+		}
+	}
+	
+	private void link() {
+		if (!aLinked) {
+			aLinked = true;
+			if (prequel == null) prequel = aCatalog.getPrequel(aRecord);
+			if (sequel == null) sequel = aCatalog.getSequel(aRecord);
+		}
+	}
 
 	@Override
 	public boolean isValid() {
-		return aPath.isFile() && aPath.canRead();
+		return ValidityCache.instance().isValid(aPath);
 	}
 	
+	/**
+	 * @return the location of the movie on the file system
+	 */
+	public File getPath() {
+		return aPath;
+	}
+
 	@Override
 	public boolean hasPrevious() {
+		link();
 		return prequel != null;
 	}
 	
 	@Override
 	public boolean hasNext() {
+		link();
 		return sequel != null;
 	}
 	
 	@Override
 	public Movie getPrevious() {
+		link();
 		return prequel;
 	}
 	
 	@Override
 	public Movie getNext() {
+		link();
 		return sequel;
 	}
 	
@@ -70,13 +143,21 @@ public class Movie extends AbstractWatchable implements Sequenceable<Movie> {
 	 */
 	public void setPrevious(Movie pMovie) {
 		assert pMovie != null;
+		link();
+		pMovie.link();
 		if (prequel != null) {
+			prequel.link();
 			prequel.sequel = null;
+			prequel.stateChanged();
 		}
 		if (pMovie.sequel != null) {
+			pMovie.sequel.link();
 			pMovie.sequel.prequel = null;
+			pMovie.sequel.stateChanged();
 		}
 		prequel = pMovie;
 		pMovie.sequel = this;
+		stateChanged();
+		pMovie.stateChanged();
 	}
 }
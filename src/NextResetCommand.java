@@ -1,19 +1,53 @@
-public class NextResetCommand extends AbstractCommand{
+/**
+ * Moves the cursor of a watchlist, either by watching the next element or by resetting it.
+ */
+public class NextResetCommand extends AbstractCommand {
 
-    public NextResetCommand(WatchList pWatchList) {
+    private final int aNewNext;
+    private final boolean aIsNext;
+    private int aPrevNext;
+
+    /**
+     * Creates a command that moves the cursor to a given position, e.g., to reset it.
+     *
+     * @param pWatchList the watchlist to modify
+     * @param pNewNext the position of the cursor once the command is executed
+     */
+    public NextResetCommand(WatchList pWatchList, int pNewNext) {
+        this(pWatchList, pNewNext, false);
+    }
+
+    /**
+     * @param pWatchList the watchlist to modify
+     * @param pNewNext the position of the cursor once the command is executed
+     * @param pIsNext true if the command watches the next element, so that repeating it watches the following one
+     */
+    public NextResetCommand(WatchList pWatchList, int pNewNext, boolean pIsNext) {
         super(pWatchList);
+        aNewNext = pNewNext;
+        aIsNext = pIsNext;
+    }
+
+    int getNewNext() {
+        return aNewNext;
+    }
+
+    @Override
+    public void execute() {
+        aPrevNext = aWatchList.aNext;
+        aWatchList.aNext = aNewNext;
     }
 
     @Override
     public void unExecute() {
-        super.unExecute();
-        aWatchList.aNext = aPrevState.aNext;
+        aWatchList.aNext = aPrevNext;
     }
 
     @Override
-    public void reExecute() {
-        super.reExecute();
-        if(aNextState == null) return;
-        aWatchList.aNext = aNextState.aNext;
+    public Command repeat() {
+        if (!aIsNext) return new NextResetCommand(aWatchList, aNewNext);
+        if (aWatchList.aList.isEmpty()) return null;
+        int newNext = aWatchList.aNext + 1;
+        return new NextResetCommand(aWatchList, newNext >= aWatchList.aList.size() ? 0 : newNext, true);
     }
 }
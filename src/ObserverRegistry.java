@@ -0,0 +1,199 @@
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.WeakHashMap;
+
+/**
+ * The watchlists that observe a watchable. A watchlist observes a watchable once for each of its occurrences in the
+ * watchlist, so the registry counts the registrations of each watchlist. The watchlists are kept in a dense array, so
+ * notifying them is as cheap as iterating over a list, and a removed watchlist is replaced by the last one. Once there
+ * are more than a few watchlists, their positions are kept in a map, so adding and removing a registration take
+ * constant time.
+ *
+ * <p>
+ * The watchlists are only weakly referenced, so a watchlist that is no longer used, e.g., a generated watchlist that
+ * was discarded without removing its elements, can be collected even though the watchable is still in use. The
+ * registrations of collected watchlists are dropped the next time the registry is used.
+ *
+ * <p>
+ * Registrations may change on several threads at once, e.g., when watchlists that share a watchable are modified by
+ * different threads. Notifications are not blocked by registrations: an observer registered or removed during a
+ * notification may or may not be notified.
+ */
+final class ObserverRegistry implements Iterable<WatchList> {
+
+	private static final Observer[] NONE = new Observer[0];
+	// Number of watchlists up to which they are found by scanning the array.
+	private static final int SCAN_LIMIT = 8;
+
+	private volatile Observer[] aObservers = NONE;
+	private volatile int aSize;
+	// The positions of the watchlists, once there are more than SCAN_LIMIT of them. Weak keys, compared by identity
+	// since watchlists do not redefine equals.
+	private Map<WatchList, Observer> aPositions;
+	// Created with the first registration, since most watchables have no observers.
+	private ReferenceQueue<WatchList> aCollected;
+
+	/*
+	 * A registered watchlist, with its number of registrations and its position in the array.
+	 */
+	private static final class Observer extends WeakReference<WatchList> {
+		private int aCount = 1;
+		private int aIndex;
+
+		Observer(WatchList pWatchList, ReferenceQueue<WatchList> pQueue, int pIndex) {
+			super(pWatchList, pQueue);
+			aIndex = pIndex;
+		}
+	}
+
+	private Observer find(WatchList pWatchList) {
+		if (aPositions != null) return aPositions.get(pWatchList);
+		for (int i = 0; i < aSize; i++) {
+			if (aObservers[i].get() == pWatchList) return aObservers[i];
+		}
+		return null;
+	}
+
+	/**
+	 * Registers one more occurrence of pWatchList.
+	 *
+	 * @pre pWatchList != null
+	 */
+	synchronized void add(WatchList pWatchList) {
+		assert pWatchList != null;
+		expunge();
+		Observer observer = find(pWatchList);
+		if (observer != null) {
+			observer.aCount++;
+			return;
+		}
+		if (aCollected == null) {
+			aCollected = new ReferenceQueue<>();
+		}
+		if (aSize == aObservers.length) {
+			aObservers = Arrays.copyOf(aObservers, Math.max(2, aSize * 2));
+		}
+		observer = new Observer(pWatchList, aCollected, aSize);
+		aObservers[aSize] = observer;
+		aSize++;
+		if (aPositions != null) {
+			aPositions.put(pWatchList, observer);
+		}
+		else if (aSize > SCAN_LIMIT) {
+			aPositions = new WeakHashMap<>();
+			for (int i = 0; i < aSize; i++) {
+				WatchList watchList = aObservers[i].get();
+				if (watchList != null) {
+					aPositions.put(watchList, aObservers[i]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes one occurrence of pWatchList, if it is registered.
+	 */
+	synchronized void remove(WatchList pWatchList) {
+		expunge();
+		Observer observer = find(pWatchList);
+		if (observer == null || --observer.aCount > 0) return;
+		if (aPositions != null) {
+			aPositions.remove(pWatchList);
+		}
+		delete(observer);
+	}
+
+	/*
+	 * Removes an observer from the array by moving the last one in its place. The array shrinks, and the map of
+	 * positions is dropped, when there are few observers left, so a watchable that was in many discarded watchlists
+	 * does not keep the space they used.
+	 */
+	private void delete(Observer pObserver) {
+		int index = pObserver.aIndex;
+		int last = --aSize;
+		aObservers[index] = aObservers[last];
+		aObservers[index].aIndex = index;
+		aObservers[last] = null;
+		pObserver.aIndex = -1;
+		if (aSize < aObservers.length / 4 && aObservers.length > SCAN_LIMIT) {
+			aObservers = Arrays.copyOf(aObservers, aObservers.length / 2);
+		}
+		if (aPositions != null && aSize <= SCAN_LIMIT / 2) {
+			aPositions = null;
+		}
+	}
+
+	/*
+	 * Drops the registrations of the watchlists that were collected. The map of positions drops its own entries.
+	 */
+	private void expunge() {
+		if (aCollected == null) return;
+		Observer observer;
+		while ((observer = (Observer) aCollected.poll()) != null) {
+			if (observer.aIndex >= 0) {
+				delete(observer);
+			}
+		}
+	}
+
+	synchronized boolean isEmpty() {
+		expunge();
+		return aSize == 0;
+	}
+
+	/**
+	 * Iterates over the registered watchlists that were not collected, once each however many times they are
+	 * registered. The iteration does not lock the registry: if the registrations change during the iteration, a
+	 * watchlist that stays registered may be skipped or returned twice.
+	 */
+	@Override
+	public Iterator<WatchList> iterator() {
+		Observer[] observers = aObservers;
+		int size = Math.min(aSize, observers.length);
+		return new Iterator<WatchList>() {
+			private int aIndex;
+			private WatchList aNext;
+
+			@Override
+			public boolean hasNext() {
+				while (aNext == null && aIndex < size) {
+					Observer observer = observers[aIndex++];
+					if (observer != null) {
+						aNext = observer.get();
+					}
+				}
+				return aNext != null;
+			}
+
+			@Override
+			public WatchList next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				WatchList next = aNext;
+				aNext = null;
+				return next;
+			}
+		};
+	}
+
+	/**
+	 * @return a copy of the registrations, in which each watchlist appears as many times as it is registered
+	 */
+	synchronized List<WatchList> occurrences() {
+		List<WatchList> result = new ArrayList<>();
+		for (int i = 0; i < aSize; i++) {
+			WatchList watchList = aObservers[i].get();
+			for (int j = 0; watchList != null && j < aObservers[i].aCount; j++) {
+				result.add(watchList);
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,145 @@
+import java.io.File;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A page of the matches of a filter in a given order, returned by
+ * {@link Library#queryPage(WatchListFilter, Page.Order, int, int)}. A page that is not the last one has a cursor
+ * from which the following page can be computed without going through the earlier pages again.
+ */
+public final class Page {
+
+	/**
+	 * The orders in which the matches can be paginated. Ties are broken by path, show title, episode number, studio
+	 * and language, which are stored with the watchables, so the order does not depend on the objects that represent
+	 * them, e.g., the episodes of a columnar show or the watchables of a catalog, which are created again when they
+	 * are read. Matches that are equal on all of these keep the order in which the library enumerates them.
+	 */
+	public enum Order {
+		/** By title. */
+		TITLE(Comparator.comparing(Watchable::getTitle)),
+		/** By studio, then title. */
+		STUDIO(Comparator.comparing(Watchable::getStudio).thenComparing(Watchable::getTitle)),
+		/** By episode number, then title. Movies come first, as if their number were 0. */
+		EPISODE_NUMBER(Comparator.comparingInt(Page::episodeNumber).thenComparing(Watchable::getTitle));
+
+		private final Comparator<Watchable> aComparator;
+
+		Order(Comparator<Watchable> pComparator) {
+			aComparator = pComparator.thenComparing(Page::path).thenComparing(Page::showTitle)
+					.thenComparingInt(Page::episodeNumber).thenComparing(Watchable::getStudio)
+					.thenComparing(Watchable::getLanguage);
+		}
+
+		Comparator<Watchable> comparator() {
+			return aComparator;
+		}
+	}
+
+	private final List<Watchable> aItems;
+	private final Cursor aNext;
+
+	Page(List<Watchable> pItems, Cursor pNext) {
+		aItems = Collections.unmodifiableList(pItems);
+		aNext = pNext;
+	}
+
+	/**
+	 * @return the matches of this page, in order
+	 */
+	public List<Watchable> getItems() {
+		return aItems;
+	}
+
+	/**
+	 * @return true if there are matches after this page
+	 */
+	public boolean hasNext() {
+		return aNext != null;
+	}
+
+	/**
+	 * @return the position after the last match of this page
+	 * @pre hasNext()
+	 */
+	public Cursor getNextCursor() {
+		assert hasNext();
+		return aNext;
+	}
+
+	/**
+	 * A position in the ordered matches of a query, i.e., the sort key of the last match of a page, and the number of
+	 * matches with that key up to this position. The following page is made of the matches that come after this key,
+	 * and of those with the same key beyond that number, so it stays consistent if the library changes in between.
+	 */
+	public static final class Cursor {
+		private final Order aOrder;
+		private final Watchable aLast;
+		private final int aTies;
+
+		private Cursor(Order pOrder, Watchable pLast, int pTies) {
+			aOrder = pOrder;
+			aLast = pLast;
+			aTies = pTies;
+		}
+
+		/*
+		 * Returns the cursor after the last of pItems, the matches in order up to the end of a page, which follow
+		 * pPrevious if it is not null.
+		 */
+		static Cursor after(Order pOrder, List<Watchable> pItems, Cursor pPrevious) {
+			Watchable last = pItems.get(pItems.size() - 1);
+			int ties = 0;
+			while (ties < pItems.size()
+					&& pOrder.comparator().compare(pItems.get(pItems.size() - 1 - ties), last) == 0) {
+				ties++;
+			}
+			if (ties == pItems.size() && pPrevious != null && pPrevious.compareTo(last) == 0) {
+				ties += pPrevious.aTies;
+			}
+			return new Cursor(pOrder, last, ties);
+		}
+
+		/**
+		 * @return the order of the query that produced this cursor
+		 */
+		public Order getOrder() {
+			return aOrder;
+		}
+
+		/*
+		 * Returns a negative number, zero or a positive number if pWatchable comes after the key of this position, has
+		 * that key, or comes before it.
+		 */
+		int compareTo(Watchable pWatchable) {
+			return aOrder.comparator().compare(aLast, pWatchable);
+		}
+
+		/*
+		 * Returns the number of matches with the key of this position, up to and including it.
+		 */
+		int getTies() {
+			return aTies;
+		}
+	}
+
+	private static int episodeNumber(Watchable pWatchable) {
+		return pWatchable instanceof TVShow.Episode ? ((TVShow.Episode) pWatchable).getEpisodeNumber() : 0;
+	}
+
+	private static String path(Watchable pWatchable) {
+		File path = null;
+		if (pWatchable instanceof Movie) {
+			path = ((Movie) pWatchable).getPath();
+		}
+		else if (pWatchable instanceof TVShow.Episode) {
+			path = ((TVShow.Episode) pWatchable).getPath();
+		}
+		return path == null ? "" : path.getPath();
+	}
+
+	private static String showTitle(Watchable pWatchable) {
+		return pWatchable instanceof TVShow.Episode ? ((TVShow.Episode) pWatchable).getTVShow().getTitle() : "";
+	}
+}
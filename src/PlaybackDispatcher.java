@@ -0,0 +1,310 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+
+/**
+ * Plays watchables in the background, in the order they are requested, so the thread that requests a play, e.g., a
+ * user interface, does not wait for the media files. When a play starts, the first bytes of the files of the next few
+ * queued watchables are read ahead by other threads, so that they are in memory when their turn comes instead of
+ * being read from cold storage.
+ *
+ * <p>
+ * Each play is measured from the time it was requested: the time it waited in the queue, and the time to read the
+ * first bytes of its file once it started.
+ *
+ * <p>
+ * The watchables are watched on the playback thread, so their observers are notified on that thread.
+ */
+public class PlaybackDispatcher implements AutoCloseable {
+
+	private static final int DEFAULT_READ_AHEAD_COUNT = 2;
+	private static final long DEFAULT_READ_AHEAD_BYTES = 4L << 20;
+	private static final int BUFFER_SIZE = 64 << 10;
+
+	// Marks the end of the requests in the queue.
+	private static final Request STOP = new Request(null);
+
+	private final int aReadAheadCount;
+	private final long aReadAheadBytes;
+	private final BlockingQueue<Request> aRequests = new LinkedBlockingQueue<>();
+	private final ExecutorService aReadAhead;
+	private final Thread aPlayer;
+	private final ByteBuffer aBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	private volatile Consumer<Play> aPlayListener = play -> {};
+	// Guarded by this dispatcher, so that no request is queued after STOP.
+	private boolean aClosed;
+
+	/**
+	 * Creates a dispatcher that reads ahead the first 4 MB of the files of the next 2 watchables.
+	 */
+	public PlaybackDispatcher() {
+		this(DEFAULT_READ_AHEAD_COUNT, DEFAULT_READ_AHEAD_BYTES);
+	}
+
+	/**
+	 * Creates a dispatcher with a given read-ahead.
+	 *
+	 * @param pReadAheadCount
+	 *            the number of queued watchables whose files are read ahead when a play starts, possibly 0
+	 * @param pReadAheadBytes
+	 *            the number of bytes read ahead at the start of each file
+	 * @pre pReadAheadCount >= 0 && pReadAheadBytes > 0
+	 */
+	public PlaybackDispatcher(int pReadAheadCount, long pReadAheadBytes) {
+		assert pReadAheadCount >= 0 && pReadAheadBytes > 0;
+		aReadAheadCount = pReadAheadCount;
+		aReadAheadBytes = pReadAheadBytes;
+		aReadAhead = Executors.newFixedThreadPool(Math.max(1, pReadAheadCount), runnable -> {
+			Thread thread = new Thread(runnable, "read-ahead");
+			thread.setDaemon(true);
+			return thread;
+		});
+		aPlayer = new Thread(this::play, "playback");
+		aPlayer.setDaemon(true);
+		aPlayer.start();
+	}
+
+	/*
+	 * A requested play, and the reading ahead of its file once it is started.
+	 */
+	private static final class Request {
+		private final Watchable aWatchable;
+		private final long aRequestTime = System.nanoTime();
+		private final CompletableFuture<Play> aResult = new CompletableFuture<>();
+		// Only used by the playback thread.
+		private Future<?> aReadAhead;
+
+		Request(Watchable pWatchable) {
+			aWatchable = pWatchable;
+		}
+	}
+
+	/**
+	 * Sets a listener called on the playback thread after each play. The exceptions it throws are ignored.
+	 *
+	 * @pre pListener != null
+	 */
+	public void setPlayListener(Consumer<Play> pListener) {
+		assert pListener != null;
+		aPlayListener = pListener;
+	}
+
+	/**
+	 * Requests pWatchable to be watched after the watchables already requested.
+	 *
+	 * @return the play, completed once the watchable is watched, or completed exceptionally with the exception thrown
+	 *         by its watch() method
+	 * @throws IllegalStateException
+	 *             if the dispatcher is closed
+	 * @pre pWatchable != null
+	 */
+	public CompletableFuture<Play> watch(Watchable pWatchable) {
+		assert pWatchable != null;
+		Request request = new Request(pWatchable);
+		synchronized (this) {
+			if (aClosed) {
+				throw new IllegalStateException("The dispatcher is closed");
+			}
+			aRequests.add(request);
+		}
+		return request.aResult;
+	}
+
+	/**
+	 * Requests the next pCount elements of pSource to be watched, in order. The elements are taken from pSource on
+	 * the calling thread, so the position of pSource advances immediately, and the files of the upcoming elements are
+	 * read ahead while the first ones play.
+	 *
+	 * @return the plays, in the order of the elements
+	 * @throws IllegalStateException
+	 *             if the dispatcher is closed
+	 * @pre pSource != null && pCount >= 0
+	 */
+	public List<CompletableFuture<Play>> binge(Bingeable<? extends Watchable> pSource, int pCount) {
+		assert pSource != null && pCount >= 0;
+		List<CompletableFuture<Play>> plays = new ArrayList<>();
+		for (int i = 0; i < pCount && pSource.getRemainingCount() > 0; i++) {
+			plays.add(watch(pSource.next()));
+		}
+		return plays;
+	}
+
+	/**
+	 * Plays the watchables already requested, then stops the playback thread. Waits for the plays to end.
+	 */
+	@Override
+	public void close() {
+		synchronized (this) {
+			if (aClosed) return;
+			aClosed = true;
+			aRequests.add(STOP);
+		}
+		try {
+			aPlayer.join();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		aReadAhead.shutdownNow();
+	}
+
+	/*
+	 * Runs on the playback thread: takes the requests in order and plays them.
+	 */
+	private void play() {
+		while (true) {
+			Request request;
+			try {
+				request = aRequests.take();
+			}
+			catch (InterruptedException e) {
+				return;
+			}
+			if (request == STOP) return;
+			readAhead();
+			long start = System.nanoTime();
+			Play play;
+			try {
+				boolean readAhead = request.aReadAhead != null && request.aReadAhead.isDone();
+				long firstByte = firstFile(request.aWatchable).map(this::readFirstBytes).orElse(-1L);
+				request.aWatchable.watch();
+				play = new Play(request.aWatchable, start - request.aRequestTime, firstByte, readAhead);
+			}
+			catch (RuntimeException | Error e) {
+				request.aResult.completeExceptionally(e);
+				continue;
+			}
+			request.aResult.complete(play);
+			try {
+				aPlayListener.accept(play);
+			}
+			catch (RuntimeException e) {
+				// Ignored: the following requests are played however the listener fails.
+			}
+		}
+	}
+
+	/*
+	 * Starts reading ahead the files of the next queued watchables, unless they are already being read.
+	 */
+	private void readAhead() {
+		Iterator<Request> upcoming = aRequests.iterator();
+		for (int i = 0; i < aReadAheadCount && upcoming.hasNext(); i++) {
+			Request request = upcoming.next();
+			if (request == STOP || request.aReadAhead != null) continue;
+			Optional<File> file = firstFile(request.aWatchable);
+			request.aReadAhead = file.isPresent() ? aReadAhead.submit(() -> readAhead(file.get()))
+					: CompletableFuture.completedFuture(null);
+		}
+	}
+
+	/*
+	 * Reads the first bytes of pFile and discards them, so that the file system keeps them in memory. Errors are
+	 * ignored: the file is read again when it is played.
+	 */
+	private void readAhead(File pFile) {
+		ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		try (FileChannel channel = FileChannel.open(pFile.toPath(), StandardOpenOption.READ)) {
+			long position = 0;
+			while (position < aReadAheadBytes) {
+				buffer.clear();
+				buffer.limit((int) Math.min(BUFFER_SIZE, aReadAheadBytes - position));
+				int read = channel.read(buffer, position);
+				if (read < 0) break;
+				position += read;
+			}
+		}
+		catch (IOException e) {
+			// Reported, if it persists, when the file is played.
+		}
+	}
+
+	/*
+	 * @return the time taken to open pFile and read its first bytes, or -1 if it cannot be read
+	 */
+	private long readFirstBytes(File pFile) {
+		long start = System.nanoTime();
+		try (FileChannel channel = FileChannel.open(pFile.toPath(), StandardOpenOption.READ)) {
+			aBuffer.clear();
+			channel.read(aBuffer, 0);
+			return System.nanoTime() - start;
+		}
+		catch (IOException e) {
+			return -1;
+		}
+	}
+
+	/*
+	 * @return the file played first when pWatchable is watched: the file of a movie or episode, or of the first
+	 *         episode of a show
+	 */
+	private static Optional<File> firstFile(Watchable pWatchable) {
+		if (pWatchable instanceof Movie) {
+			return Optional.of(((Movie) pWatchable).getPath());
+		}
+		if (pWatchable instanceof TVShow.Episode) {
+			return Optional.of(((TVShow.Episode) pWatchable).getPath());
+		}
+		if (pWatchable instanceof TVShow) {
+			Iterator<TVShow.Episode> episodes = ((TVShow) pWatchable).iterator();
+			if (episodes.hasNext()) return Optional.of(episodes.next().getPath());
+		}
+		return Optional.empty();
+	}
+
+	/**
+	 * A completed play and its timings.
+	 */
+	public static final class Play {
+		private final Watchable aWatchable;
+		private final long aQueuedNanos;
+		private final long aFirstByteNanos;
+		private final boolean aReadAhead;
+
+		private Play(Watchable pWatchable, long pQueuedNanos, long pFirstByteNanos, boolean pReadAhead) {
+			aWatchable = pWatchable;
+			aQueuedNanos = pQueuedNanos;
+			aFirstByteNanos = pFirstByteNanos;
+			aReadAhead = pReadAhead;
+		}
+
+		public Watchable getWatchable() {
+			return aWatchable;
+		}
+
+		/**
+		 * @return the time between the request and the start of the play
+		 */
+		public long getQueuedNanos() {
+			return aQueuedNanos;
+		}
+
+		/**
+		 * @return the time taken, once the play started, to open the file and read its first bytes, or -1 if the
+		 *         watchable has no file or its file cannot be read
+		 */
+		public long getTimeToFirstByteNanos() {
+			return aFirstByteNanos;
+		}
+
+		/**
+		 * @return true if the start of the file was read ahead before the play started
+		 */
+		public boolean isReadAhead() {
+			return aReadAhead;
+		}
+	}
+}
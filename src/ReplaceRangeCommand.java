@@ -0,0 +1,124 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+/**
+ * Replaces a range of positions of a watchlist by a sequence of watchables, as a single action. Adding many
+ * watchables at once, removing a range, or transforming every element are all special cases.
+ */
+public class ReplaceRangeCommand extends AbstractCommand {
+
+    private final int aFrom;
+    private final int aTo;
+    private final List<Watchable> aInserted;
+    private List<Watchable> aRemoved;
+    private int aPrevNext;
+    // The operator that computed the inserted watchables from the removed ones, if any.
+    private final UnaryOperator<Watchable> aOperator;
+
+    /**
+     * @param pWatchList the watchlist to modify
+     * @param pFrom the first position to replace, inclusive
+     * @param pTo the last position to replace, exclusive
+     * @param pInserted the watchables to insert in place of the range
+     * @pre 0 <= pFrom && pFrom <= pTo && pTo <= pWatchList.getTotalCount() && pInserted != null
+     */
+    public ReplaceRangeCommand(WatchList pWatchList, int pFrom, int pTo, List<Watchable> pInserted) {
+        this(pWatchList, pFrom, pTo, pInserted, null);
+    }
+
+    /**
+     * @param pWatchList the watchlist to modify
+     * @param pFrom the first position to replace, inclusive
+     * @param pTo the last position to replace, exclusive
+     * @param pInserted the watchables to insert in place of the range
+     * @param pOperator the operator that maps each watchable of the range to the one inserted in its place, or null
+     * @pre 0 <= pFrom && pFrom <= pTo && pTo <= pWatchList.getTotalCount() && pInserted != null
+     */
+    ReplaceRangeCommand(WatchList pWatchList, int pFrom, int pTo, List<Watchable> pInserted,
+            UnaryOperator<Watchable> pOperator) {
+        super(pWatchList);
+        assert 0 <= pFrom && pFrom <= pTo && pTo <= pWatchList.aList.size() && pInserted != null;
+        aFrom = pFrom;
+        aTo = pTo;
+        aInserted = new ArrayList<>(pInserted);
+        aOperator = pOperator;
+    }
+
+    int getFrom() {
+        return aFrom;
+    }
+
+    int getTo() {
+        return aTo;
+    }
+
+    List<Watchable> getInserted() {
+        return aInserted;
+    }
+
+    @Override
+    public void execute() {
+        aPrevNext = aWatchList.aNext;
+        if (aRemoved == null) {
+            aRemoved = new ArrayList<>(aWatchList.aList.subList(aFrom, aTo));
+        }
+        replace(aRemoved, aInserted);
+        // Elements inserted at the cursor go after it, as with addWatchable; a cursor inside the range stays at the
+        // same offset, as far as the inserted elements allow.
+        if (aPrevNext > aFrom) {
+            if (aPrevNext >= aTo) {
+                aWatchList.aNext = aPrevNext + aInserted.size() - aRemoved.size();
+            }
+            else {
+                aWatchList.aNext = aFrom + Math.min(aPrevNext - aFrom, aInserted.size());
+            }
+        }
+    }
+
+    @Override
+    public void unExecute() {
+        replace(aInserted, aRemoved);
+        aWatchList.aNext = aPrevNext;
+    }
+
+    /**
+     * Adding watchables is repeated by adding them again at the end of the watchlist, and transforming the elements by
+     * applying the operator again. Other replacements are repeated on the same range, if it still exists.
+     */
+    @Override
+    public Command repeat() {
+        int size = aWatchList.aList.size();
+        if (aOperator != null) {
+            if (size == 0) return null;
+            List<Watchable> watchables = new ArrayList<>(size);
+            for (Watchable item : aWatchList.aList) {
+                watchables.add(aOperator.apply(item));
+            }
+            return new ReplaceRangeCommand(aWatchList, 0, size, watchables, aOperator);
+        }
+        if (aFrom == aTo) return new ReplaceRangeCommand(aWatchList, size, size, aInserted);
+        if (aTo > size) return null;
+        return new ReplaceRangeCommand(aWatchList, aFrom, aTo, aInserted);
+    }
+
+    @Override
+    public long getFootprint() {
+        return super.getFootprint() + 8L * (aInserted.size() + (aRemoved == null ? 0 : aRemoved.size()));
+    }
+
+    private void replace(List<Watchable> pOld, List<Watchable> pNew) {
+        for (Watchable watchable : pOld) {
+            if (watchable.isValid()) aWatchList.aValidCount--;
+            watchable.removeObserver(aWatchList);
+        }
+        aWatchList.aList.removeRange(aFrom, aFrom + pOld.size());
+        aWatchList.aList.addAll(aFrom, pNew);
+        aWatchList.aList.publish();
+        for (Watchable watchable : pNew) {
+            boolean valid = watchable.isValid();
+            watchable.addObserver(aWatchList);
+            if (valid) aWatchList.aValidCount++;
+        }
+    }
+}
@@ -1,19 +1,46 @@
+/**
+ * Renames a watchlist.
+ */
 public class SetNameCommand extends AbstractCommand {
 
-    public SetNameCommand(WatchList pWatchList) {
+    private final String aNewName;
+    private String aPrevName;
+
+    /**
+     * @param pWatchList the watchlist to modify
+     * @param pNewName the name of the watchlist once the command is executed
+     * @pre pNewName != null
+     */
+    public SetNameCommand(WatchList pWatchList, String pNewName) {
         super(pWatchList);
+        assert pNewName != null;
+        aNewName = pNewName;
+    }
+
+    String getNewName() {
+        return aNewName;
+    }
+
+    @Override
+    public void execute() {
+        aPrevName = aWatchList.aName;
+        aWatchList.aName = aNewName;
     }
 
     @Override
     public void unExecute() {
-        super.unExecute();
-        aWatchList.aName = aPrevState.aName;
+        aWatchList.aName = aPrevName;
+    }
+
+    @Override
+    public Command repeat() {
+        return new SetNameCommand(aWatchList, aNewName);
     }
 
     @Override
-    public void reExecute() {
-        super.reExecute();
-        if(aNextState == null) return;
-        aWatchList.aName = aNextState.aName;
+    public long getFootprint() {
+        long footprint = super.getFootprint() + 2L * aNewName.length();
+        if (aPrevName != null) footprint += 2L * aPrevName.length();
+        return footprint;
     }
 }
@@ -0,0 +1,53 @@
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Dictionary of the strings that are repeated across many watchables, such as studio names and tag keys and values.
+ * Interning a string returns the single shared instance equal to it, so each distinct value is stored once however
+ * many watchables use it.
+ *
+ * <p>
+ * The dictionary only refers to the strings weakly, so a string that no watchable uses any longer, e.g., a value of
+ * free-form metadata that was replaced, is dropped from it.
+ */
+public final class StringDictionary {
+
+	private static final StringDictionary INSTANCE = new StringDictionary();
+
+	// The values refer to the keys weakly too, so that they do not keep the entries alive.
+	private final Map<String, WeakReference<String>> aStrings = new WeakHashMap<>();
+
+	private StringDictionary() {
+	}
+
+	/**
+	 * @return the dictionary shared by all watchables
+	 */
+	public static StringDictionary instance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * @param pString
+	 *            a string, or null
+	 * @return the shared instance equal to pString, or null if pString is null
+	 */
+	public synchronized String intern(String pString) {
+		if (pString == null) return null;
+		WeakReference<String> reference = aStrings.get(pString);
+		String shared = reference == null ? null : reference.get();
+		if (shared == null) {
+			aStrings.put(pString, new WeakReference<>(pString));
+			shared = pString;
+		}
+		return shared;
+	}
+
+	/**
+	 * @return the number of distinct strings in the dictionary that may still be in use
+	 */
+	public synchronized int size() {
+		return aStrings.size();
+	}
+}
@@ -8,6 +8,10 @@ public class StudioFilterStrategy implements WatchListFilter {
         aStudio = pStudio;
     }
 
+    public String getStudio() {
+        return aStudio;
+    }
+
     /**
      *
      * @param pMovie
@@ -1,13 +1,20 @@
 
 import java.io.File;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.file.Path;
+import java.util.AbstractList;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Optional;
+import java.util.RandomAccess;
 import java.util.Set;
+import java.util.function.Consumer;
 
 
 /**
@@ -15,9 +22,33 @@ import java.util.Set;
  */
 public class TVShow extends AbstractWatchable implements Bingeable<TVShow.Episode> {
 	
+	/**
+	 * How the episodes of a show are stored.
+	 */
+	public enum EpisodeStorage {
+		/** One object per episode. */
+		OBJECTS,
+		/**
+		 * Columns of titles and paths. Episode objects are only created when accessed, and only kept while they are
+		 * referenced or have observers or metadata.
+		 */
+		COLUMNS
+	}
+	
+	// The columnar episodes collected since their views were last removed, for all the shows.
+	private static final ReferenceQueue<Episode> COLLECTED_EPISODES = new ReferenceQueue<>();
+	
 	private Optional<Episode> aPrototype = Optional.empty();
-	private List<Episode> aEpisodes = new ArrayList<>();
-	private int aNextToWatch;
+	private final List<Episode> aEpisodes;
+	private final EpisodeStorage aStorage;
+	int aNextToWatch;
+	private int aValidEpisodeCount;
+	// The validity of the episodes is tracked from the first call to isValid() or the first observer of an episode, by
+	// a single listener for all their files. The cache only references it weakly, so it does not keep the show in
+	// memory.
+	private ValidityCache.Listener aValidityListener;
+	// Called with each episode added to this show, e.g., by the libraries that maintain standing queries.
+	private List<Consumer<Episode>> aEpisodeListeners = List.of();
 
 	/**
 	 * Creates a TVShow with required metadata about the show.
@@ -31,18 +62,51 @@ public class TVShow extends AbstractWatchable implements Bingeable<TVShow.Episod
 	 * @pre pTitle!=null && pLanguage!=null && pStudio!=null
 	 */
 	public TVShow(String pTitle, Language pLanguage, String pStudio) {
+		this(pTitle, pLanguage, pStudio, EpisodeStorage.OBJECTS);
+	}
+	
+	/**
+	 * Creates a TVShow with required metadata about the show, and a choice of storage for its episodes.
+	 *
+	 * @param pTitle
+	 *            official title of the TVShow
+	 * @param pLanguage
+	 *            language of the TVShow
+	 * @param pStudio
+	 *            studio which originally published the movie
+	 * @param pStorage
+	 *            how the episodes are stored
+	 * @pre pTitle!=null && pLanguage!=null && pStudio!=null && pStorage!=null
+	 */
+	public TVShow(String pTitle, Language pLanguage, String pStudio, EpisodeStorage pStorage) {
 		super(pTitle, pStudio, pLanguage);
+		assert pStorage != null;
 		aNextToWatch = 0;
+		aStorage = pStorage;
+		aEpisodes = pStorage == EpisodeStorage.COLUMNS ? new EpisodeColumns() : new EpisodeArray();
 	}
 	
+	/**
+	 * @return how the episodes of this show are stored
+	 */
+	public EpisodeStorage getStorage() {
+		return aStorage;
+	}
+	
+	/**
+	 * Watches the show and each of its valid episodes. The observers are updated once at the end, with the last
+	 * episode watched.
+	 */
 	@Override
 	public void watch() {
-		super.watch();
-		for (Episode episode : aEpisodes) {
-			if (episode.isValid()) {
-				episode.watch();
+		coalesceNotifications(() -> {
+			super.watch();
+			for (Episode episode : this) {
+				if (episode.isValid()) {
+					episode.watch();
+				}
 			}
-		}
+		});
 	}
 	
 	/**
@@ -52,9 +116,96 @@ public class TVShow extends AbstractWatchable implements Bingeable<TVShow.Episod
 	 */
 	@Override
 	public boolean isValid() {
-		for (Episode episode : aEpisodes)
-			if (episode.isValid()) return true;
-		return false;
+		track();
+		ValidityCache.instance().refresh();
+		return aValidEpisodeCount > 0;
+	}
+
+	/*
+	 * Starts tracking the validity of the episodes, if it is not tracked yet. Called when the validity of the show is
+	 * first queried, and when an episode gets observers, since they are notified of the changes of its file.
+	 */
+	private void track() {
+		if (aValidityListener == null) {
+			aValidityListener = this::fileValidityChanged;
+			for (int i = 0; i < aEpisodes.size(); i++) {
+				trackValidity(getPath(i));
+			}
+		}
+	}
+
+	/*
+	 * Adds an episode at the end of the list and keeps the number of valid episodes up to date.
+	 */
+	private void addEpisode(Episode pEpisode) {
+		aEpisodes.add(pEpisode);
+		if (aValidityListener != null) {
+			trackValidity(pEpisode.aPath);
+		}
+		for (Consumer<Episode> listener : aEpisodeListeners) {
+			listener.accept(pEpisode);
+		}
+	}
+
+	/*
+	 * Registers a listener called with each episode added to this show from now on. The listeners are copied on
+	 * write, since shows rarely have any.
+	 */
+	void addEpisodeListener(Consumer<Episode> pListener) {
+		List<Consumer<Episode>> listeners = new ArrayList<>(aEpisodeListeners);
+		listeners.add(pListener);
+		aEpisodeListeners = listeners;
+	}
+
+	void removeEpisodeListener(Consumer<Episode> pListener) {
+		List<Consumer<Episode>> listeners = new ArrayList<>(aEpisodeListeners);
+		listeners.remove(pListener);
+		aEpisodeListeners = listeners.isEmpty() ? List.of() : listeners;
+	}
+
+	/*
+	 * Counts an episode if it is valid and listens to the validity changes of its file.
+	 */
+	private void trackValidity(File pPath) {
+		if (ValidityCache.instance().isValid(pPath)) {
+			aValidEpisodeCount++;
+		}
+		ValidityCache.instance().addListener(pPath, aValidityListener);
+	}
+
+	/*
+	 * Updates the episodes whose file became valid or invalid. They are found by comparing the names of the files
+	 * first, since changes are rare and the show does not keep a map from files to episodes. A columnar episode that
+	 * is not in memory has no observers to notify.
+	 */
+	private void fileValidityChanged(Path pPath, boolean pValid) {
+		String name = pPath.getFileName() == null ? "" : pPath.getFileName().toString();
+		for (int i = 0; i < aEpisodes.size(); i++) {
+			File path = getPath(i);
+			if (!path.getName().equals(name) || !ValidityCache.key(path).equals(pPath)) continue;
+			Episode episode = aEpisodes instanceof EpisodeColumns ? ((EpisodeColumns) aEpisodes).getIfPresent(i)
+					: aEpisodes.get(i);
+			if (episode != null) {
+				episode.notifyValidityChanged(pValid);
+			}
+			episodeValidityChanged(pValid);
+		}
+	}
+
+	/*
+	 * @return the file of the episode at pIndex, without creating a columnar episode
+	 */
+	private File getPath(int pIndex) {
+		return aEpisodes instanceof EpisodeColumns ? ((EpisodeColumns) aEpisodes).getPath(pIndex)
+				: aEpisodes.get(pIndex).aPath;
+	}
+
+	private void episodeValidityChanged(boolean pValid) {
+		boolean wasValid = aValidEpisodeCount > 0;
+		aValidEpisodeCount += pValid ? 1 : -1;
+		if (wasValid != aValidEpisodeCount > 0) {
+			notifyValidityChanged(!wasValid);
+		}
 	}
 	
 	/**
@@ -68,7 +219,7 @@ public class TVShow extends AbstractWatchable implements Bingeable<TVShow.Episod
 	 */
 	public Episode createAndAddEpisode(File pPath, String pTitle) {
 		Episode episode = new Episode(aEpisodes.size() + 1, pTitle, pPath, getStudio(), getLanguage());
-		aEpisodes.add(episode);
+		addEpisode(episode);
 		return episode;
 	}
 	
@@ -104,7 +255,8 @@ public class TVShow extends AbstractWatchable implements Bingeable<TVShow.Episod
 		episode.aEpisodeNumber = aEpisodes.size() + 1;
 		episode.aPath = pPath;
 		episode.aTitle = pTitle;
-		aEpisodes.add(episode);
+		TagIndex.instance().add(episode);
+		addEpisode(episode);
 		return episode;
 	}
 	
@@ -147,9 +299,30 @@ public class TVShow extends AbstractWatchable implements Bingeable<TVShow.Episod
 		aNextToWatch = 0;
 	}
 	
+	/**
+	 * Returns an iterator over the episodes as of the call. Episodes are only ever added at the end of a show, so the
+	 * iterator only records the number of episodes: it does not copy them, and does not see the episodes added later,
+	 * including by other threads during the iteration.
+	 */
 	@Override
 	public Iterator<Episode> iterator() {
-		return Collections.unmodifiableList(aEpisodes).iterator();
+		int size = aEpisodes.size();
+		return new Iterator<Episode>() {
+			private int aIndex;
+
+			@Override
+			public boolean hasNext() {
+				return aIndex < size;
+			}
+
+			@Override
+			public Episode next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return aEpisodes.get(aIndex++);
+			}
+		};
 	}
 	
 	/**
@@ -160,7 +333,7 @@ public class TVShow extends AbstractWatchable implements Bingeable<TVShow.Episod
 		
 		private File aPath;
 		private int aEpisodeNumber;
-		private Map<String, String> aCast = new HashMap<>();
+		private CompactMap aCast = CompactMap.EMPTY;
 
 		/**
 		 * Creates an episode from the file path. This method should not be called by a client. Use
@@ -183,9 +356,16 @@ public class TVShow extends AbstractWatchable implements Bingeable<TVShow.Episod
 
 		@Override
 		public boolean isValid() {
-			return aPath.isFile() && aPath.canRead();
+			return ValidityCache.instance().isValid(aPath);
 		}
 		
+		/**
+		 * @return the location of the video file of the episode
+		 */
+		public File getPath() {
+			return aPath;
+		}
+
 		public TVShow getTVShow() {
 			return TVShow.this;
 		}
@@ -198,12 +378,10 @@ public class TVShow extends AbstractWatchable implements Bingeable<TVShow.Episod
 		}
 		
 		public String setCast(String pCharacter, String pActor) {
-			if (pActor == null) {
-				return aCast.remove(pCharacter);
-			}
-			else {
-				return aCast.put(pCharacter, pActor);
-			}
+			String old = aCast.get(pCharacter);
+			aCast = pActor == null ? aCast.without(pCharacter) : aCast.with(pCharacter, pActor);
+			stateChanged();
+			return old;
 		}
 		
 		public String getCast(String pCharacter) {
@@ -211,12 +389,30 @@ public class TVShow extends AbstractWatchable implements Bingeable<TVShow.Episod
 		}
 		
 		public Set<String> getAllCharacters() {
-			return Collections.unmodifiableSet(aCast.keySet());
+			return aCast.keySet();
 		}
 		
 
 
 
+		@Override
+		void stateChanged() {
+			super.stateChanged();
+			if (hasObservers()) {
+				track();
+			}
+			if (aEpisodes instanceof EpisodeColumns) {
+				((EpisodeColumns) aEpisodes).pin(this);
+			}
+			// The show keeps the episode, so a show read from a catalog segment must be kept too.
+			TVShow.this.stateChanged();
+		}
+		
+		@Override
+		boolean hasState() {
+			return super.hasState() || !aCast.isEmpty();
+		}
+
 		@Override
 		public boolean hasPrevious() {
 			return aEpisodeNumber > 1;
@@ -240,10 +436,8 @@ public class TVShow extends AbstractWatchable implements Bingeable<TVShow.Episod
 		@Override
 		public Episode clone() {
 			try {
-				Episode clone = (Episode) super.clone();
-				clone.aCast = new HashMap<>(this.aCast);
-				clone.aTags = new HashMap<>(this.aTags);
-				return clone;
+				// The cast and tags are immutable, so the clone shares them until either episode changes them.
+				return (Episode) super.clone();
 			}
 			catch (CloneNotSupportedException e) {
 				assert false;
@@ -251,4 +445,161 @@ public class TVShow extends AbstractWatchable implements Bingeable<TVShow.Episod
 			}
 		}
 	}
-}
\ No newline at end of file
+	
+	/*
+	 * Episodes of a show stored as objects, in an array that only grows at its end. The array is replaced before the
+	 * size grows, and a replaced array keeps its content, so a thread that reads the size first then finds at least
+	 * that many episodes in the array.
+	 */
+	private static final class EpisodeArray extends AbstractList<Episode> implements RandomAccess {
+		private volatile Episode[] aItems = new Episode[8];
+		private volatile int aSize;
+		
+		@Override
+		public int size() {
+			return aSize;
+		}
+		
+		@Override
+		public Episode get(int pIndex) {
+			int size = aSize;
+			if (pIndex < 0 || pIndex >= size) {
+				throw new IndexOutOfBoundsException("Index: " + pIndex + ", Size: " + size);
+			}
+			return aItems[pIndex];
+		}
+		
+		@Override
+		public boolean add(Episode pEpisode) {
+			Episode[] items = aItems;
+			if (aSize == items.length) {
+				items = Arrays.copyOf(items, aSize * 2);
+				aItems = items;
+			}
+			items[aSize] = pEpisode;
+			aSize++;
+			modCount++;
+			return true;
+		}
+	}
+	
+	/*
+	 * Episodes of a show stored as columns of paths and titles, the other properties of an episode being those of the
+	 * show or its position. An Episode object is created when an episode is accessed, and reused as long as it is
+	 * reachable, so an episode is always represented by a single object. Episodes with observers or metadata are
+	 * pinned, since their state is not in the columns.
+	 *
+	 * The titles are stored as is: they are mostly distinct, so interning them would only grow the dictionary.
+	 */
+	private final class EpisodeColumns extends AbstractList<Episode> implements RandomAccess {
+		private String[] aPaths = new String[8];
+		private String[] aTitles = new String[8];
+		private int aSize;
+		private final Map<Integer, Episode> aPinned = new HashMap<>();
+		private final Map<Integer, View> aViews = new HashMap<>();
+		
+		@Override
+		public synchronized int size() {
+			return aSize;
+		}
+		
+		@Override
+		public Episode get(int pIndex) {
+			expunge();
+			synchronized (this) {
+				Episode episode = present(pIndex);
+				if (episode == null) {
+					episode = new Episode(pIndex + 1, aTitles[pIndex], new File(aPaths[pIndex]), getStudio(),
+							getLanguage());
+					aViews.put(pIndex, new View(episode, this, pIndex));
+				}
+				return episode;
+			}
+		}
+		
+		/**
+		 * @return the object currently representing an episode, or null if there is none
+		 */
+		Episode getIfPresent(int pIndex) {
+			expunge();
+			synchronized (this) {
+				return present(pIndex);
+			}
+		}
+		
+		private Episode present(int pIndex) {
+			assert Thread.holdsLock(this);
+			if (pIndex < 0 || pIndex >= aSize) {
+				throw new IndexOutOfBoundsException("Index: " + pIndex + ", Size: " + aSize);
+			}
+			Episode episode = aPinned.get(pIndex);
+			if (episode != null) return episode;
+			View view = aViews.get(pIndex);
+			return view == null ? null : view.get();
+		}
+		
+		synchronized File getPath(int pIndex) {
+			return new File(aPaths[pIndex]);
+		}
+		
+		@Override
+		public boolean add(Episode pEpisode) {
+			expunge();
+			synchronized (this) {
+				if (aSize == aPaths.length) {
+					aPaths = Arrays.copyOf(aPaths, aSize * 2);
+					aTitles = Arrays.copyOf(aTitles, aSize * 2);
+				}
+				aPaths[aSize] = pEpisode.aPath.getPath();
+				aTitles[aSize] = pEpisode.getTitle();
+				if (pEpisode.hasState()) {
+					aPinned.put(aSize, pEpisode);
+				}
+				else {
+					aViews.put(aSize, new View(pEpisode, this, aSize));
+				}
+				aSize++;
+				modCount++;
+				return true;
+			}
+		}
+		
+		/**
+		 * Keeps pEpisode in memory, if it represents one of the episodes.
+		 */
+		synchronized void pin(Episode pEpisode) {
+			int index = pEpisode.aEpisodeNumber - 1;
+			if (index < aSize && present(index) == pEpisode) {
+				aPinned.put(index, pEpisode);
+				aViews.remove(index);
+			}
+		}
+		
+		synchronized void remove(View pView) {
+			aViews.remove(pView.aIndex, pView);
+		}
+	}
+	
+	/*
+	 * Removes the views of the collected episodes of all the columnar shows, so that a show that is no longer accessed
+	 * does not keep them. Called without holding the lock of any show, since it takes the locks of the shows of the
+	 * views.
+	 */
+	private static void expunge() {
+		View view;
+		while ((view = (View) COLLECTED_EPISODES.poll()) != null) {
+			view.aColumns.remove(view);
+		}
+	}
+	
+	private static final class View extends WeakReference<Episode> {
+		final EpisodeColumns aColumns;
+		final int aIndex;
+		
+		View(Episode pEpisode, EpisodeColumns pColumns, int pIndex) {
+			super(pEpisode, COLLECTED_EPISODES);
+			aColumns = pColumns;
+			aIndex = pIndex;
+		}
+	}
+}
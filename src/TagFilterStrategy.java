@@ -0,0 +1,96 @@
+
+
+/*
+ * Strategy to filter Movies, TVShows or Episodes that have a tag, optionally with a given value, answered from the
+ * TagIndex. A TVShow is included if it or one of its episodes has the tag, so that its episodes are considered.
+ */
+public class TagFilterStrategy implements WatchListFilter {
+
+    private final String aKey;
+    private final String aValue;
+
+    /**
+     * Creates a filter for the watchables that have a tag pKey, whatever its value.
+     *
+     * @pre pKey != null
+     */
+    public TagFilterStrategy(String pKey) {
+        this(pKey, null);
+    }
+
+    /**
+     * Creates a filter for the watchables whose tag pKey has the value pValue.
+     *
+     * @param pValue
+     *            the required value, or null to only require the presence of the tag
+     * @pre pKey != null
+     */
+    public TagFilterStrategy(String pKey, String pValue) {
+        assert pKey != null;
+        aKey = pKey;
+        aValue = pValue;
+    }
+
+    public String getKey() {
+        return aKey;
+    }
+
+    /**
+     * @return the required value, or null if only the presence of the tag is required
+     */
+    public String getValue() {
+        return aValue;
+    }
+
+    /**
+     * @return the ids of the watchables that have the tag. The bitmap must not be modified.
+     */
+    public CompressedBitmap getMatches() {
+        if (aValue == null) return TagIndex.instance().withKey(aKey);
+        return TagIndex.instance().withValue(aKey, aValue);
+    }
+
+    /**
+     *
+     * @param pMovie
+     *            a Watchable to potentially include in the Watchlist
+     * @pre pMovie != null
+     * @return true if the Watchable must be included, false otherwise
+     */
+    @Override
+    public boolean filter(Movie pMovie) {
+        assert pMovie != null;
+        return getMatches().contains(pMovie.getId());
+    }
+
+    /**
+     *
+     * @param pTVShow
+     *            a Watchable to potentially include in the Watchlist
+     * @pre pTVShow != null
+     * @return true if the Watchable must be included, false otherwise
+     */
+    @Override
+    public boolean filter(TVShow pTVShow) {
+        assert pTVShow != null;
+        CompressedBitmap matches = getMatches();
+        if (matches.contains(pTVShow.getId())) return true;
+        for (TVShow.Episode episode : pTVShow) {
+            if (matches.contains(episode.getId())) return true;
+        }
+        return false;
+    }
+
+    /**
+     *
+     * @param pEpisode
+     *            a Watchable to potentially include in the Watchlist
+     * @pre pEpisode != null
+     * @return true if the Watchable must be included, false otherwise
+     */
+    @Override
+    public boolean filter(TVShow.Episode pEpisode) {
+        assert pEpisode != null;
+        return getMatches().contains(pEpisode.getId());
+    }
+}
@@ -0,0 +1,184 @@
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Inverted index of the tags set on watchables with {@link Watchable#setInfo(String, String)}, shared by all
+ * libraries. For each tag key, and for each key/value pair, the index keeps the ids of the watchables that have it in
+ * a compressed bitmap, so a tag lookup does not have to visit the watchables. The index is updated by setInfo.
+ *
+ * <p>
+ * The index does not keep the watchables alive: it refers to them weakly, and the ids of the watchables that were
+ * garbage collected are removed from the bitmaps on the next update of the index. A key or value no longer set on any
+ * watchable has no bitmap.
+ *
+ * <p>
+ * Looking up the index does not modify it, so filters may look up tags from several threads at once, as long as no
+ * tag changes in the meantime.
+ */
+public final class TagIndex {
+
+	private static final TagIndex INSTANCE = new TagIndex();
+	private static final CompressedBitmap EMPTY = new CompressedBitmap();
+
+	private final Map<String, CompressedBitmap> aByKey = new HashMap<>();
+	private final Map<String, Map<String, CompressedBitmap>> aByKeyAndValue = new HashMap<>();
+	private final Map<Integer, Tagged> aTagged = new HashMap<>();
+	private final ReferenceQueue<AbstractWatchable> aCollected = new ReferenceQueue<>();
+	private final List<Consumer<AbstractWatchable>> aListeners = new ArrayList<>();
+
+	private TagIndex() {
+	}
+
+	/*
+	 * A weak reference to a watchable with tags, with the id and the tags it had when they were last indexed, so that
+	 * they can be removed from the index once the watchable is collected.
+	 */
+	private static final class Tagged extends WeakReference<AbstractWatchable> {
+		private final int aId;
+		private final CompactMap aTags;
+
+		Tagged(AbstractWatchable pWatchable, ReferenceQueue<AbstractWatchable> pQueue) {
+			super(pWatchable, pQueue);
+			aId = pWatchable.getId();
+			aTags = pWatchable.aTags;
+		}
+	}
+
+	/**
+	 * @return the index shared by all watchables
+	 */
+	public static TagIndex instance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * @return the ids of the watchables that have a tag pKey, whatever its value. The bitmap must not be modified.
+	 */
+	public CompressedBitmap withKey(String pKey) {
+		return aByKey.getOrDefault(pKey, EMPTY);
+	}
+
+	/**
+	 * @return the ids of the watchables whose tag pKey has the value pValue. The bitmap must not be modified.
+	 */
+	public CompressedBitmap withValue(String pKey, String pValue) {
+		Map<String, CompressedBitmap> values = aByKeyAndValue.get(pKey);
+		if (values == null) return EMPTY;
+		return values.getOrDefault(pValue, EMPTY);
+	}
+
+	/**
+	 * @param pId
+	 *            the id of a watchable that has at least one tag
+	 * @return the watchable with id pId, or null if it has no tag or was garbage collected
+	 */
+	public Watchable get(int pId) {
+		Tagged tagged = aTagged.get(pId);
+		return tagged == null ? null : tagged.get();
+	}
+
+	/**
+	 * Registers a listener called with each watchable whose tags change, after the index is updated.
+	 *
+	 * @pre pListener != null
+	 */
+	public void addListener(Consumer<AbstractWatchable> pListener) {
+		assert pListener != null;
+		aListeners.add(pListener);
+	}
+
+	public void removeListener(Consumer<AbstractWatchable> pListener) {
+		aListeners.remove(pListener);
+	}
+
+	/**
+	 * Indexes the tags of pWatchable, a new watchable created with tags, e.g., a clone. The listeners are not called:
+	 * the creation of the watchable is announced by its owner, e.g., a show for its episodes.
+	 */
+	void add(AbstractWatchable pWatchable) {
+		expunge();
+		if (pWatchable.aTags.isEmpty()) return;
+		for (Map.Entry<String, String> tag : pWatchable.aTags.entrySet()) {
+			add(pWatchable.getId(), tag.getKey(), tag.getValue());
+		}
+		aTagged.put(pWatchable.getId(), new Tagged(pWatchable, aCollected));
+	}
+
+	/**
+	 * Records that the tag pKey of pWatchable changed from pOldValue to pNewValue, either of which may be null if
+	 * the tag was absent.
+	 *
+	 * @param pHasTags
+	 *            true if pWatchable still has at least one tag after the change
+	 */
+	void update(AbstractWatchable pWatchable, String pKey, String pOldValue, String pNewValue, boolean pHasTags) {
+		expunge();
+		int id = pWatchable.getId();
+		if (pOldValue != null) {
+			remove(id, pKey, pOldValue, pNewValue == null);
+		}
+		if (pNewValue != null) {
+			add(id, pKey, pNewValue);
+		}
+		if (pHasTags) {
+			// Replaced, so that the reference records the current tags.
+			aTagged.put(id, new Tagged(pWatchable, aCollected));
+		}
+		else {
+			aTagged.remove(id);
+		}
+		for (Consumer<AbstractWatchable> listener : new ArrayList<>(aListeners)) {
+			listener.accept(pWatchable);
+		}
+	}
+
+	private void add(int pId, String pKey, String pValue) {
+		aByKeyAndValue.computeIfAbsent(pKey, key -> new HashMap<>())
+				.computeIfAbsent(pValue, key -> new CompressedBitmap()).add(pId);
+		aByKey.computeIfAbsent(pKey, key -> new CompressedBitmap()).add(pId);
+	}
+
+	/*
+	 * Removes pId from the bitmap of pKey and pValue, and from the bitmap of pKey if pFromKey, and drops the bitmaps
+	 * that become empty.
+	 */
+	private void remove(int pId, String pKey, String pValue, boolean pFromKey) {
+		Map<String, CompressedBitmap> values = aByKeyAndValue.get(pKey);
+		CompressedBitmap bitmap = values.get(pValue);
+		bitmap.remove(pId);
+		if (bitmap.isEmpty()) {
+			values.remove(pValue);
+			if (values.isEmpty()) {
+				aByKeyAndValue.remove(pKey);
+			}
+		}
+		if (pFromKey) {
+			CompressedBitmap keyBitmap = aByKey.get(pKey);
+			keyBitmap.remove(pId);
+			if (keyBitmap.isEmpty()) {
+				aByKey.remove(pKey);
+			}
+		}
+	}
+
+	/*
+	 * Removes the tags of the watchables that were garbage collected. Called before the index is looked up from
+	 * several threads, since lookups do not remove them.
+	 */
+	void expunge() {
+		for (Object reference = aCollected.poll(); reference != null; reference = aCollected.poll()) {
+			Tagged tagged = (Tagged) reference;
+			// A reference replaced by a later update was never in the index with its tags.
+			if (aTagged.get(tagged.aId) != tagged) continue;
+			aTagged.remove(tagged.aId);
+			for (Map.Entry<String, String> tag : tagged.aTags.entrySet()) {
+				remove(tagged.aId, tag.getKey(), tag.getValue(), true);
+			}
+		}
+	}
+}
@@ -0,0 +1,334 @@
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shared cache of the validity of media files, i.e., whether they are readable regular files. A file is only checked
+ * on the file system the first time it is queried. Afterwards, a background thread keeps the cache up to date by
+ * watching the directories of the cached files and by checking again every file whose last check is older than a
+ * time-to-live, in case a change was not reported (e.g., on network-mounted file systems).
+ *
+ * Changes detected in the background are not visible right away: they are applied, and the listeners notified, on the
+ * thread that next calls {@link #refresh()} or {@link #isValid(File)}. A client used by a single thread can thus
+ * maintain derived information (such as a number of valid elements) without synchronization; the listeners of a
+ * client used by several threads may be notified on any of them.
+ *
+ * <p>
+ * The listeners are only weakly referenced, so registering a listener does not keep its client in memory: the client
+ * must keep a reference to its listener for as long as it listens. The files that have no listener and were not
+ * queried for a time-to-live are dropped from the cache instead of being checked again.
+ */
+public final class ValidityCache {
+
+	public static final long DEFAULT_TTL_MILLIS = 30_000;
+
+	private static final ValidityCache INSTANCE = new ValidityCache(DEFAULT_TTL_MILLIS);
+
+	/**
+	 * Callback notified when a file becomes valid or invalid.
+	 */
+	public interface Listener {
+		/**
+		 * @param pPath
+		 *            the absolute and normalized path of the file
+		 * @param pValid
+		 *            the new validity of the file
+		 */
+		void validityChanged(Path pPath, boolean pValid);
+	}
+
+	private final long aTTL;
+	private final Map<Path, Entry> aEntries = new ConcurrentHashMap<>();
+	private final Queue<Entry> aChanged = new ConcurrentLinkedQueue<>();
+	private final Set<Path> aWatchedDirectories = ConcurrentHashMap.newKeySet();
+	private WatchService aWatchService;
+	private Thread aWatcher;
+
+	private ValidityCache(long pTTL) {
+		assert pTTL > 0;
+		aTTL = pTTL;
+	}
+
+	/**
+	 * @return the cache shared by all watchables
+	 */
+	public static ValidityCache instance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * @param pFile
+	 *            the file to check
+	 * @return true if pFile was a readable regular file as of the last check
+	 * @pre pFile != null
+	 */
+	public boolean isValid(File pFile) {
+		assert pFile != null;
+		refresh();
+		Entry entry = entry(pFile);
+		entry.aQueriedAt = System.currentTimeMillis();
+		return entry.aReported;
+	}
+
+	/**
+	 * Registers a listener notified each time pFile becomes valid or invalid, once however many times it is
+	 * registered. The listener is only weakly referenced: it is dropped once its client no longer references it.
+	 *
+	 * @pre pFile != null && pListener != null
+	 */
+	public void addListener(File pFile, Listener pListener) {
+		assert pFile != null && pListener != null;
+		while (!entry(pFile).add(pListener)) {
+			// The entry was just dropped from the cache: use the new one.
+		}
+	}
+
+	/**
+	 * @pre pFile != null
+	 */
+	public void removeListener(File pFile, Listener pListener) {
+		assert pFile != null;
+		Entry entry = aEntries.get(key(pFile));
+		if (entry != null) {
+			entry.remove(pListener);
+		}
+	}
+
+	/**
+	 * Applies the changes detected since the last call and notifies the corresponding listeners, on the calling thread.
+	 */
+	public void refresh() {
+		Entry entry;
+		while ((entry = aChanged.poll()) != null) {
+			List<Listener> listeners;
+			boolean valid;
+			synchronized (entry) {
+				valid = entry.aValid;
+				if (valid == entry.aReported) continue;
+				entry.aReported = valid;
+				listeners = entry.listeners();
+			}
+			for (Listener listener : listeners) {
+				listener.validityChanged(entry.aPath, valid);
+			}
+		}
+	}
+
+	/**
+	 * Records the result of a check of pFile done by a client, e.g., by a bulk scan. The change, if any, is applied on
+	 * the next call to {@link #refresh()}.
+	 *
+	 * @param pFile
+	 *            the file that was checked
+	 * @param pValid
+	 *            true if pFile was found to be a readable regular file
+	 * @pre pFile != null
+	 */
+	public void publish(File pFile, boolean pValid) {
+		assert pFile != null;
+		Entry entry = aEntries.computeIfAbsent(key(pFile), key -> new Entry(key, pValid));
+		update(entry, pValid);
+	}
+
+	/**
+	 * @return the path under which pFile is cached and reported to the listeners
+	 * @pre pFile != null
+	 */
+	static Path key(File pFile) {
+		return pFile.toPath().toAbsolutePath().normalize();
+	}
+
+	private static boolean check(Path pPath) {
+		return Files.isRegularFile(pPath) && Files.isReadable(pPath);
+	}
+
+	private Entry entry(File pFile) {
+		Path path = key(pFile);
+		Entry entry = aEntries.get(path);
+		if (entry == null) {
+			entry = aEntries.computeIfAbsent(path, key -> new Entry(key, check(key)));
+			watch(path.getParent());
+		}
+		return entry;
+	}
+
+	private void update(Entry pEntry, boolean pValid) {
+		pEntry.aCheckedAt = System.currentTimeMillis();
+		if (pEntry.aValid != pValid) {
+			pEntry.aValid = pValid;
+			aChanged.add(pEntry);
+		}
+	}
+
+	/*
+	 * Registers a directory with the watch service, and starts the background thread on first use. Directories that
+	 * cannot be watched are only covered by the time-to-live.
+	 */
+	private synchronized void watch(Path pDirectory) {
+		if (aWatcher == null) {
+			try {
+				aWatchService = FileSystems.getDefault().newWatchService();
+			}
+			catch (IOException | UnsupportedOperationException e) {
+				aWatchService = null;
+			}
+			aWatcher = new Thread(this::run, "validity-watcher");
+			aWatcher.setDaemon(true);
+			aWatcher.start();
+		}
+		if (aWatchService == null || pDirectory == null || aWatchedDirectories.contains(pDirectory)) return;
+		try {
+			pDirectory.register(aWatchService, StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+			aWatchedDirectories.add(pDirectory);
+		}
+		catch (IOException | UnsupportedOperationException e) {
+			// The directory does not exist or cannot be watched: rely on the time-to-live.
+		}
+	}
+
+	private void run() {
+		long period = Math.max(1, aTTL / 2);
+		try {
+			while (true) {
+				if (aWatchService == null) {
+					Thread.sleep(period);
+				}
+				else {
+					WatchKey key = aWatchService.poll(period, TimeUnit.MILLISECONDS);
+					while (key != null) {
+						handle(key);
+						key = aWatchService.poll();
+					}
+				}
+				recheckExpired();
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void handle(WatchKey pKey) {
+		Path directory = (Path) pKey.watchable();
+		for (WatchEvent<?> event : pKey.pollEvents()) {
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+				for (Entry entry : aEntries.values()) {
+					if (directory.equals(entry.aPath.getParent())) {
+						update(entry, check(entry.aPath));
+					}
+				}
+			}
+			else {
+				Entry entry = aEntries.get(directory.resolve((Path) event.context()));
+				if (entry != null) {
+					update(entry, check(entry.aPath));
+				}
+			}
+		}
+		if (!pKey.reset()) {
+			aWatchedDirectories.remove(directory);
+		}
+	}
+
+	/*
+	 * Checks again the files whose last check is older than the time-to-live, and drops those that are no longer
+	 * used: without listeners and not queried since the time-to-live.
+	 */
+	private void recheckExpired() {
+		long now = System.currentTimeMillis();
+		for (Entry entry : aEntries.values()) {
+			if (now - entry.aCheckedAt < aTTL) continue;
+			if (now - entry.aQueriedAt >= aTTL && entry.evict()) {
+				aEntries.remove(entry.aPath, entry);
+			}
+			else {
+				update(entry, check(entry.aPath));
+			}
+		}
+	}
+
+	/*
+	 * A cached file. Its listeners, its reported validity and its eviction are guarded by the entry.
+	 */
+	private static final class Entry {
+		final Path aPath;
+		volatile boolean aValid;          // latest result, written by the background thread
+		volatile long aCheckedAt;
+		volatile long aQueriedAt;
+		volatile boolean aReported;       // value last delivered to the listeners
+		private List<WeakReference<Listener>> aListeners = List.of();
+		private boolean aEvicted;
+
+		Entry(Path pPath, boolean pValid) {
+			aPath = pPath;
+			aValid = pValid;
+			aReported = pValid;
+			aCheckedAt = System.currentTimeMillis();
+			aQueriedAt = aCheckedAt;
+		}
+
+		/**
+		 * @return false if the entry was dropped from the cache, in which case the listener is not added
+		 */
+		synchronized boolean add(Listener pListener) {
+			if (aEvicted) return false;
+			List<WeakReference<Listener>> listeners = new ArrayList<>(aListeners.size() + 1);
+			for (WeakReference<Listener> reference : aListeners) {
+				Listener listener = reference.get();
+				if (listener == pListener) return true;
+				if (listener != null) listeners.add(reference);
+			}
+			listeners.add(new WeakReference<>(pListener));
+			aListeners = listeners;
+			return true;
+		}
+
+		synchronized void remove(Listener pListener) {
+			List<WeakReference<Listener>> listeners = new ArrayList<>(aListeners.size());
+			for (WeakReference<Listener> reference : aListeners) {
+				Listener listener = reference.get();
+				if (listener != null && listener != pListener) listeners.add(reference);
+			}
+			aListeners = listeners.isEmpty() ? List.of() : listeners;
+		}
+
+		/**
+		 * @return the listeners that were not collected
+		 */
+		synchronized List<Listener> listeners() {
+			List<Listener> listeners = new ArrayList<>(aListeners.size());
+			for (WeakReference<Listener> reference : aListeners) {
+				Listener listener = reference.get();
+				if (listener != null) listeners.add(listener);
+			}
+			return listeners;
+		}
+
+		/**
+		 * Marks the entry as dropped if it has no listeners left.
+		 *
+		 * @return true if the entry was marked
+		 */
+		synchronized boolean evict() {
+			if (!listeners().isEmpty()) return false;
+			aEvicted = true;
+			return true;
+		}
+	}
+}
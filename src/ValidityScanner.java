@@ -0,0 +1,139 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Validates all the media files of a library at once, e.g., at startup or after storage is remounted, and publishes
+ * the results into the shared {@link ValidityCache}. The files are deduplicated and grouped by directory, and the
+ * directories are scanned in parallel with a bounded number of threads.
+ */
+public class ValidityScanner {
+
+	private final int aParallelism;
+
+	/**
+	 * @param pParallelism
+	 *            maximum number of directories scanned at the same time
+	 * @pre pParallelism > 0
+	 */
+	public ValidityScanner(int pParallelism) {
+		assert pParallelism > 0;
+		aParallelism = pParallelism;
+	}
+
+	/**
+	 * Checks every movie and episode file of pLibrary and publishes the results. The changes are applied to the
+	 * watchables, and their watchlists notified, on the calling thread before this method returns.
+	 *
+	 * @param pLibrary
+	 *            the library to scan
+	 * @return statistics about the scan
+	 * @pre pLibrary != null
+	 */
+	public Report scan(Library pLibrary) {
+		assert pLibrary != null;
+		long start = System.nanoTime();
+		Map<File, List<File>> directories = new HashMap<>();
+		for (File file : pLibrary.getMediaFiles()) {
+			directories.computeIfAbsent(file.getParentFile(), key -> new ArrayList<>()).add(file);
+		}
+		AtomicInteger valid = new AtomicInteger();
+		AtomicInteger total = new AtomicInteger();
+		ForkJoinPool pool = new ForkJoinPool(aParallelism);
+		try {
+			List<ForkJoinTask<?>> tasks = new ArrayList<>();
+			for (List<File> files : directories.values()) {
+				tasks.add(pool.submit(() -> {
+					for (File file : files) {
+						boolean isValid = check(file.toPath());
+						ValidityCache.instance().publish(file, isValid);
+						total.incrementAndGet();
+						if (isValid) valid.incrementAndGet();
+					}
+				}));
+			}
+			for (ForkJoinTask<?> task : tasks) {
+				task.join();
+			}
+		}
+		finally {
+			pool.shutdown();
+		}
+		ValidityCache.instance().refresh();
+		return new Report(total.get(), valid.get(), directories.size(), System.nanoTime() - start);
+	}
+
+	private static boolean check(Path pPath) {
+		try {
+			BasicFileAttributes attributes = Files.readAttributes(pPath, BasicFileAttributes.class);
+			return attributes.isRegularFile() && Files.isReadable(pPath);
+		}
+		catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Statistics about a completed scan.
+	 */
+	public static final class Report {
+		private final int aFileCount;
+		private final int aValidCount;
+		private final int aDirectoryCount;
+		private final long aElapsedNanos;
+
+		private Report(int pFileCount, int pValidCount, int pDirectoryCount, long pElapsedNanos) {
+			aFileCount = pFileCount;
+			aValidCount = pValidCount;
+			aDirectoryCount = pDirectoryCount;
+			aElapsedNanos = pElapsedNanos;
+		}
+
+		/**
+		 * @return the number of distinct files checked
+		 */
+		public int getFileCount() {
+			return aFileCount;
+		}
+
+		/**
+		 * @return the number of files found to be readable regular files
+		 */
+		public int getValidCount() {
+			return aValidCount;
+		}
+
+		/**
+		 * @return the number of distinct directories containing the files
+		 */
+		public int getDirectoryCount() {
+			return aDirectoryCount;
+		}
+
+		public long getElapsedNanos() {
+			return aElapsedNanos;
+		}
+
+		/**
+		 * @return the throughput of the scan, in files per second
+		 */
+		public double getFilesPerSecond() {
+			return aElapsedNanos == 0 ? 0 : aFileCount * 1e9 / aElapsedNanos;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d files (%d valid) in %d directories, %.0f files/s", aFileCount, aValidCount,
+					aDirectoryCount, getFilesPerSecond());
+		}
+	}
+}
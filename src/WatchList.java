@@ -1,20 +1,33 @@
 
 import java.util.*;
+import java.util.function.UnaryOperator;
 
 /**
  * Represents a sequence of watchables to watch in FIFO order.
+ *
+ * <p>
+ * The elements are published after each change, so an iterator sees the elements as of its creation even if another
+ * thread changes the watchlist during the iteration. The other methods are not meant to be called concurrently with a
+ * change.
  */
 public class WatchList implements Bingeable<Watchable> {
 
-	protected List<Watchable> aList = new LinkedList<>();
+	protected IndexedList<Watchable> aList = new IndexedList<>();
 	protected String aName;
 	protected int aNext;
+	protected int aValidCount;
+	// False until the elements of a watchlist read from a snapshot are counted by the first call to getValidCount().
+	private boolean aValidCounted = true;
 	private Optional<Watchable> aLastWatched = Optional.empty();
+	// The last element watched during the current batch of coalesced notifications, or null.
+	Watchable aPendingLastWatched;
 
-	private int undoPointer = -1;
-	private int redoPointer = -1;
-	private Stack<Command> undoStack = new Stack<>();
-	private Stack<Command> redoStack = new Stack<>();
+	final CommandHistory aHistory = new CommandHistory();
+	// The journal that records the changes to this watchlist, and the number of the watchlist in it, if any.
+	WatchListJournal aJournal;
+	int aJournalId;
+	// True if the last action was neither undone nor redone, so that redo() repeats it.
+	private boolean aRepeatable;
 
 	/**
 	 * Creates a new empty watchlist.
@@ -29,11 +42,44 @@ public class WatchList implements Bingeable<Watchable> {
 		aNext = 0;
 	}
 
+	/**
+	 * Creates a copy of a watchlist, with the same name, elements and position. The copy shares the storage of its
+	 * elements with pWatchList until either of them is modified. The copy observes its elements like the original, so
+	 * registering it takes time linear in the number of elements. The undo/redo history is not copied.
+	 *
+	 * @param pWatchList
+	 *            the watchlist to copy
+	 * @pre pWatchList!=null;
+	 */
 	public WatchList(WatchList pWatchList) {
+		assert pWatchList != null;
 		aName = pWatchList.aName;
-		aList = new LinkedList<>(pWatchList.aList);
+		aList = new IndexedList<>(pWatchList.aList);
 		aNext = pWatchList.aNext;
+		aList.publish();
 		aLastWatched = pWatchList.aLastWatched;
+		aValidCount = pWatchList.aValidCount;
+		aValidCounted = pWatchList.aValidCounted;
+		for (Watchable item : aList) {
+			item.addObserver(this);
+		}
+	}
+
+	/*
+	 * Creates a watchlist with the given elements and state without recording an action in the history, e.g., when
+	 * reading a saved library. The watchlist observes its elements, but their files are only checked, and their
+	 * validity tracked, on the first call to getValidCount().
+	 */
+	WatchList(String pName, List<Watchable> pElements, int pNext, Optional<Watchable> pLastWatched) {
+		this(pName);
+		aList = new IndexedList<>(pElements);
+		aList.publish();
+		aNext = pNext;
+		aLastWatched = pLastWatched;
+		aValidCounted = false;
+		for (Watchable item : aList) {
+			((AbstractWatchable) item).addObserverUntracked(this);
+		}
 	}
 
 	/**
@@ -44,6 +90,19 @@ public class WatchList implements Bingeable<Watchable> {
 		aLastWatched = Optional.of(pLastWatched);
 	}
 
+	/**
+	 * Updates the number of valid elements when one of the elements becomes valid or invalid. Called once for each
+	 * occurrence of the element in this watchlist.
+	 *
+	 * @param pWatchable
+	 *            the element whose validity changed
+	 * @param pValid
+	 *            the new validity of the element
+	 */
+	public void validityChanged(Watchable pWatchable, boolean pValid) {
+		aValidCount += pValid ? 1 : -1;
+	}
+
 	public Optional<Watchable> lastWatched() {
 		return aLastWatched;
 	}
@@ -63,19 +122,7 @@ public class WatchList implements Bingeable<Watchable> {
 	 */
 	public void addWatchable(Watchable pWatchable) {
 		assert pWatchable != null;
-
-		deleteElementsAfterPointer(undoPointer);
-		redoStack = new Stack<>();
-		redoPointer = -1;
-
-		Command command = new AddRemoveWatchable(this);
-		command.execute();
-		undoStack.push(command);
-		undoPointer++;
-
-		aList.add(pWatchable);
-		pWatchable.addObserver(this);
-
+		execute(new AddRemoveWatchable(this, pWatchable, aList.size(), true));
 	}
 	
 	/**
@@ -88,35 +135,85 @@ public class WatchList implements Bingeable<Watchable> {
 	 */
 	public Watchable removeWatchable(int pIndex) {
 		assert pIndex < aList.size() && pIndex >= 0;
+		Watchable watchable = aList.get(pIndex);
+		execute(new AddRemoveWatchable(this, watchable, pIndex, false));
+		return watchable;
+	}
+	
+	/**
+	 * Adds watchables at the end of this watchlist, in the order of the collection, as a single action that can be
+	 * undone. Also adds the watchlist to the observers of each watchable.
+	 *
+	 * @param pWatchables
+	 *            the watchables to add
+	 * @pre pWatchables!=null && !pWatchables.contains(null);
+	 */
+	public void addAll(Collection<? extends Watchable> pWatchables) {
+		assert pWatchables != null;
+		List<Watchable> watchables = new ArrayList<>(pWatchables);
+		assert !watchables.contains(null);
+		if (watchables.isEmpty()) return;
+		execute(new ReplaceRangeCommand(this, aList.size(), aList.size(), watchables));
+	}
 
-		deleteElementsAfterPointer(undoPointer);
-		redoStack = new Stack<>();
-		redoPointer = -1;
-
-		Command command = new AddRemoveWatchable(this);
-		command.execute();
-		undoStack.push(command);
-		undoPointer++;
+	/**
+	 * Removes the watchables between two positions, as a single action that can be undone. Also removes the watchlist
+	 * from the observers of each watchable.
+	 *
+	 * @param pFrom
+	 *            the position of the first watchable to remove, inclusive
+	 * @param pTo
+	 *            the position of the last watchable to remove, exclusive
+	 * @pre 0 <= pFrom && pFrom <= pTo && pTo <= getTotalCount()
+	 */
+	public void removeRange(int pFrom, int pTo) {
+		assert 0 <= pFrom && pFrom <= pTo && pTo <= aList.size();
+		if (pFrom == pTo) return;
+		execute(new ReplaceRangeCommand(this, pFrom, pTo, Collections.emptyList()));
+	}
 
-		if (aNext > pIndex) {
-			aNext--;
+	/**
+	 * Replaces each watchable of this watchlist by the result of applying an operator to it, as a single action that
+	 * can be undone. The position of the next watchable to watch is unchanged.
+	 *
+	 * @param pOperator
+	 *            the operator to apply to each watchable
+	 * @pre pOperator!=null; pOperator never returns null
+	 */
+	public void replaceAll(UnaryOperator<Watchable> pOperator) {
+		assert pOperator != null;
+		List<Watchable> watchables = new ArrayList<>(aList.size());
+		for (Watchable item : aList) {
+			Watchable replacement = pOperator.apply(item);
+			assert replacement != null;
+			watchables.add(replacement);
 		}
-		Watchable pWatchable =  aList.remove(pIndex);
-		pWatchable.removeObserver(this);
-		return pWatchable;
+		if (watchables.isEmpty()) return;
+		execute(new ReplaceRangeCommand(this, 0, aList.size(), watchables, pOperator));
 	}
-	
+
 	/**
 	 * @return the total number of valid watchable elements
 	 */
 	public int getValidCount() {
-		int count = 0;
+		ValidityCache.instance().refresh();
+		if (!aValidCounted) {
+			countValid();
+		}
+		return aValidCount;
+	}
+
+	/*
+	 * Counts the valid elements and tracks their validity from now on. The changes made to the count before, by
+	 * commands or notifications, are discarded.
+	 */
+	private void countValid() {
+		aValidCounted = true;
+		aValidCount = 0;
 		for (Watchable item : aList) {
-			if (item.isValid()) {
-				count++;
-			}
+			((AbstractWatchable) item).stateChanged();
+			if (item.isValid()) aValidCount++;
 		}
-		return count;
 	}
 	
 	@Override
@@ -131,37 +228,20 @@ public class WatchList implements Bingeable<Watchable> {
 	
 	@Override
 	public Watchable next() {
-		assert getRemainingCount() > 0;
-
-		deleteElementsAfterPointer(undoPointer);
-		redoStack = new Stack<>();
-		redoPointer = -1;
-
-		Command command = new NextResetCommand(this);
-		command.execute();
-		undoStack.push(command);
-		undoPointer++;
-
+		// Reads the state itself rather than getRemainingCount(), which a subclass may answer from a published copy.
+		assert aList.size() - aNext > 0;
 		Watchable next = aList.get(aNext);
-		aNext++;
-		if (aNext >= aList.size()) {
-			aNext = 0;
+		int newNext = aNext + 1;
+		if (newNext >= aList.size()) {
+			newNext = 0;
 		}
+		execute(new NextResetCommand(this, newNext, true));
 		return next;
 	}
 	
 	@Override
 	public void reset() {
-		deleteElementsAfterPointer(undoPointer);
-		redoStack = new Stack<>();
-		redoPointer = -1;
-
-		Command command = new NextResetCommand(this);
-		command.execute();
-		undoStack.push(command);
-		undoPointer++;
-
-		aNext = 0;
+		execute(new NextResetCommand(this, 0));
 	}
 
 	/**
@@ -173,56 +253,100 @@ public class WatchList implements Bingeable<Watchable> {
 	 */
 	public void setName(String pName) {
 		assert pName != null;
-		deleteElementsAfterPointer(undoPointer);
-		redoStack = new Stack<>();
-		redoPointer = -1;
-
-		Command command = new SetNameCommand(this);
-		command.execute();
-		undoStack.push(command);
-		undoPointer++;
-		aName = pName;
+		execute(new SetNameCommand(this, pName));
 	}
 
-	private void deleteElementsAfterPointer(int undoRedoPointer) {
-		if(undoStack.size()<1)return;
-		for(int i = undoStack.size()-1; i > undoRedoPointer; i--)
-		{
-			undoStack.remove(i);
+	/**
+	 * Executes a state-modifying command and records it in the history, and in the journal if there is one. Any undone
+	 * action can no longer be redone.
+	 *
+	 * @param pCommand
+	 *            the command to execute
+	 */
+	private void execute(Command pCommand) {
+		aRepeatable = true;
+		if (aJournal != null) {
+			aJournal.execute(this, pCommand);
+		}
+		else {
+			aHistory.execute(pCommand);
 		}
 	}
 
+	/**
+	 * Reverses the last action that was not undone. Does nothing if all the actions were undone.
+	 */
 	public void undo() {
-		if(undoPointer < 0) return;
-		Command command = undoStack.get(undoPointer);
-
-		redoStack.push(command);
-		redoPointer++;
-
-		command.unExecute();
-		undoPointer--;
+		aRepeatable = false;
+		if (aJournal != null) {
+			aJournal.undo(this);
+		}
+		else {
+			aHistory.undo();
+		}
 	}
 
+	/**
+	 * Performs again the last undone action. Right after an action other than undo(), repeats that action instead,
+	 * e.g., calling redo() right after next() is equivalent to calling next() a second time. Does nothing once all the
+	 * undone actions are redone.
+	 */
 	public void redo() {
-
-		if(redoPointer < 0) {
-			if(undoPointer >=0) {
-				Command command = undoStack.get(undoPointer);
-				command.reExecute();
+		if (aHistory.getRedoCount() == 0) {
+			Command repeat = aRepeatable && aHistory.getUndoCount() > 0
+					? aHistory.getCommand(aHistory.getUndoCount() - 1).repeat() : null;
+			if (repeat != null) {
+				execute(repeat);
 			}
 			return;
 		}
-		Command command = redoStack.get(redoPointer);
+		aRepeatable = false;
+		if (aJournal != null) {
+			aJournal.redo(this);
+		}
+		else {
+			aHistory.redo();
+		}
+	}
 
-		undoStack.push(command);
-		undoPointer++;
+	/**
+	 * Bounds the undo/redo history of this watchlist. The oldest actions are forgotten once either bound is exceeded.
+	 *
+	 * @param pMaxDepth
+	 *            maximum number of actions kept in the history
+	 * @param pMaxFootprint
+	 *            maximum estimated number of bytes retained by the history
+	 * @pre pMaxDepth > 0 && pMaxFootprint > 0
+	 */
+	public void setHistoryLimits(int pMaxDepth, long pMaxFootprint) {
+		if (aJournal != null) {
+			aJournal.setHistoryLimits(this, pMaxDepth, pMaxFootprint);
+		}
+		else {
+			aHistory.setLimits(pMaxDepth, pMaxFootprint);
+		}
+	}
 
-		command.reExecute();
-		redoPointer--;
+	/**
+	 * @return the number of actions currently kept in the undo/redo history
+	 */
+	public int getHistoryDepth() {
+		return aHistory.getDepth();
+	}
+
+	/**
+	 * @return the estimated number of bytes retained by the undo/redo history
+	 */
+	public long getHistoryFootprint() {
+		return aHistory.getFootprint();
 	}
 	
+	/**
+	 * Returns an iterator over the elements as of the last completed change. The iterator does not copy the elements
+	 * and is not affected by later changes, including changes made by other threads during the iteration.
+	 */
 	@Override
 	public Iterator<Watchable> iterator() {
-		return Collections.unmodifiableList(aList).iterator();
+		return Collections.unmodifiableList(aList.snapshot()).iterator();
 	}
 }
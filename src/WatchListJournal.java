@@ -0,0 +1,939 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of the commands applied to the watchlists of a library, so that the watchlists, including their
+ * undo/redo history, survive the process. The journal is kept in a directory with a {@link LibrarySnapshot} of the
+ * library; opening it reads the snapshot and replays the journal on top of it. When the journal grows past a
+ * threshold, it is compacted: a new snapshot is written and the journal restarts with only the history of the
+ * watchlists.
+ *
+ * Each record is framed with its length and a checksum, so a record torn by a crash is detected and dropped on
+ * recovery. A change is applied first, then recorded; the method that made it returns once the record is as durable
+ * as the {@link Durability} of the journal requires. Watchlists of several threads can share a journal: their changes
+ * are serialized by the journal.
+ *
+ * Changes to watchables that are not commands, e.g., new tags or the last watched element of a watchlist, are saved by
+ * the next compaction, not by the journal. The episodes added to a show are recorded before the first record that
+ * refers to the show or one of its episodes.
+ */
+public final class WatchListJournal implements AutoCloseable {
+
+	/**
+	 * When a change is on the storage device.
+	 */
+	public enum Durability {
+		/**
+		 * Records are written to the file in batches without forcing it, so a crash may lose the latest changes.
+		 */
+		BUFFERED,
+		/**
+		 * Each change returns once its record is forced to the storage device. The changes made by several threads
+		 * at the same time share a single force.
+		 */
+		GROUP_COMMIT,
+		/**
+		 * Each change forces the file on its own.
+		 */
+		SYNC_EACH
+	}
+
+	public static final long DEFAULT_COMPACTION_THRESHOLD = 64L << 20;
+
+	private static final int MAGIC = 0x574c4a4e;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 12;
+	private static final int FRAME_SIZE = 8;
+	private static final int BUFFER_LIMIT = 1 << 16;
+
+	private static final byte ATTACH = 1;
+	private static final byte MOVIE = 2;
+	private static final byte TV_SHOW = 3;
+	private static final byte ADD_REMOVE = 4;
+	private static final byte NEXT_RESET = 5;
+	private static final byte SET_NAME = 6;
+	private static final byte REPLACE_RANGE = 7;
+	private static final byte UNDO = 8;
+	private static final byte REDO = 9;
+	private static final byte LIMITS = 10;
+	private static final byte EPISODES = 11;
+
+	private static final Language[] LANGUAGES = Language.values();
+	private static final TVShow.EpisodeStorage[] STORAGES = TVShow.EpisodeStorage.values();
+
+	private final Path aDirectory;
+	private final Durability aDurability;
+	private final Library aLibrary;
+	private long aGeneration;
+	private FileChannel aChannel;
+	private long aSize;
+	private long aCompactedSize;
+	private long aCompactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+	private IOException aFailure;
+
+	// Numbers of the movies and shows in the journal. An episode is referred to by its show and its number.
+	private final Map<Watchable, Integer> aIds = new IdentityHashMap<>();
+	// Number of episodes of each show in the journal, the episodes added since then being recorded when needed.
+	private final Map<TVShow, Integer> aEpisodeCounts = new IdentityHashMap<>();
+	private List<WatchList> aWatchLists = new ArrayList<>();
+
+	private final ByteArrayOutputStream aBytes = new ByteArrayOutputStream();
+	private final DataOutputStream aOut = new DataOutputStream(aBytes);
+	private final CRC32 aChecksum = new CRC32();
+	private ByteBuffer aPending = ByteBuffer.allocate(BUFFER_LIMIT);
+	private ByteBuffer aSpare;
+	private long aAppended;
+	private long aDurable;
+	private boolean aSyncing;
+
+	private WatchListJournal(Path pDirectory, Durability pDurability, long pGeneration) throws IOException {
+		aDirectory = pDirectory;
+		aDurability = pDurability;
+		aGeneration = pGeneration;
+		Path snapshot = snapshotFile(pGeneration);
+		LibrarySnapshot.Contents contents = Files.exists(snapshot) ? LibrarySnapshot.readContents(snapshot)
+				: new LibrarySnapshot.Contents(new Library(), List.of(), List.of(), List.of());
+		aLibrary = contents.aLibrary;
+		List<Watchable> watchables = index(contents);
+		Path journal = journalFile(pGeneration);
+		if (!Files.exists(journal)) {
+			writeJournal(journal, pGeneration);
+		}
+		long length = replay(journal, watchables);
+		aChannel = FileChannel.open(journal, StandardOpenOption.WRITE);
+		aChannel.truncate(length);
+		aChannel.position(length);
+		aSize = length;
+		deleteOtherGenerations();
+		for (WatchList watchList : aWatchLists) {
+			aLibrary.addWatchList(watchList);
+		}
+		attachAll();
+	}
+
+	/**
+	 * Opens the journal of a directory, creating it if needed, and recovers the library it records.
+	 *
+	 * @param pDirectory
+	 *            the directory of the snapshot and journal files
+	 * @param pDurability
+	 *            when changes are on the storage device
+	 * @return the journal, whose library and watchlists are in the recorded state
+	 * @throws IOException
+	 *             if the directory cannot be read or written, or its files are corrupted
+	 * @pre pDirectory != null && pDurability != null
+	 */
+	public static WatchListJournal open(Path pDirectory, Durability pDurability) throws IOException {
+		assert pDirectory != null && pDurability != null;
+		Files.createDirectories(pDirectory);
+		long generation = 0;
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(pDirectory, "journal-*")) {
+			for (Path file : files) {
+				String suffix = file.getFileName().toString().substring("journal-".length());
+				if (suffix.matches("[0-9]+")) {
+					generation = Math.max(generation, Long.parseLong(suffix));
+				}
+			}
+		}
+		WatchListJournal journal = new WatchListJournal(pDirectory, pDurability, generation);
+		synchronized (journal) {
+			journal.compactIfNeeded();
+		}
+		return journal;
+	}
+
+	/**
+	 * @return the library recorded by this journal. Its watchlists are journaled.
+	 */
+	public Library getLibrary() {
+		return aLibrary;
+	}
+
+	/**
+	 * Sets the size of the journal file above which it is compacted.
+	 *
+	 * @pre pBytes > 0
+	 */
+	public synchronized void setCompactionThreshold(long pBytes) {
+		assert pBytes > 0;
+		aCompactionThreshold = pBytes;
+	}
+
+	/**
+	 * @return the number of bytes of the journal file, including the records not yet written
+	 */
+	public synchronized long getSize() {
+		return aSize;
+	}
+
+	/**
+	 * Adds a watchlist to the library and records its changes from now on. Its current content and undo/redo history
+	 * are recorded first.
+	 *
+	 * @param pWatchList
+	 *            the watchlist to record
+	 * @throws UncheckedIOException
+	 *             if the journal cannot be written
+	 * @pre pWatchList != null && pWatchList is not recorded by another journal
+	 */
+	public void attach(WatchList pWatchList) {
+		assert pWatchList != null && (pWatchList.aJournal == null || pWatchList.aJournal == this);
+		long sequence;
+		synchronized (this) {
+			checkOpen();
+			if (pWatchList.aJournal == this) return;
+			int done = rewind(pWatchList);
+			try {
+				List<Watchable> items = new ArrayList<>();
+				pWatchList.forEach(items::add);
+				Watchable lastWatched = pWatchList.lastWatched().orElse(null);
+				define(items);
+				define(lastWatched);
+				begin(ATTACH);
+				aOut.writeInt(aWatchLists.size());
+				writeString(pWatchList.getName());
+				aOut.writeInt(pWatchList.aNext);
+				writeReference(lastWatched);
+				aOut.writeInt(items.size());
+				for (Watchable item : items) {
+					writeReference(item);
+				}
+				end();
+				pWatchList.aJournalId = aWatchLists.size();
+				aWatchLists.add(pWatchList);
+				writeHistory(pWatchList, pWatchList.aHistory.getDepth() - done);
+			}
+			catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			finally {
+				for (int i = 0; i < done; i++) {
+					pWatchList.aHistory.redo();
+				}
+			}
+			pWatchList.aJournal = this;
+			aLibrary.addWatchList(pWatchList);
+			sequence = appended();
+		}
+		awaitDurable(sequence);
+	}
+
+	/**
+	 * Writes the records not yet written and forces the journal to the storage device, whatever its durability.
+	 *
+	 * @throws IOException
+	 *             if the journal cannot be written
+	 */
+	public void sync() throws IOException {
+		long sequence;
+		synchronized (this) {
+			checkOpen();
+			sequence = aAppended;
+		}
+		try {
+			awaitDurable(sequence, true);
+		}
+		catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Writes a new snapshot of the library and restarts the journal with the undo/redo history of the watchlists. The
+	 * watchlists of the library that were not recorded are recorded from now on.
+	 *
+	 * @throws IOException
+	 *             if the snapshot or the journal cannot be written
+	 */
+	public synchronized void compact() throws IOException {
+		checkOpen();
+		while (aSyncing) {
+			awaitSync();
+		}
+		Map<WatchList, Integer> done = new IdentityHashMap<>();
+		for (WatchList watchList : aLibrary.getWatchLists()) {
+			done.put(watchList, rewind(watchList));
+		}
+		Path journal = journalFile(aGeneration + 1);
+		try {
+			// The snapshot holds the state of the watchlists before their history, which the new journal replays. The
+			// pending records are obsolete: their changes are in the snapshot.
+			LibrarySnapshot.Contents contents = LibrarySnapshot.writeContents(aLibrary, snapshotFile(aGeneration + 1));
+			index(contents);
+			aPending.clear();
+			aSize = HEADER_SIZE;
+			for (WatchList watchList : aWatchLists) {
+				writeHistory(watchList, watchList.aHistory.getDepth() - done.get(watchList));
+			}
+			writeJournal(journal, aGeneration + 1);
+		}
+		catch (IOException e) {
+			aFailure = e;
+			throw e;
+		}
+		finally {
+			for (Map.Entry<WatchList, Integer> entry : done.entrySet()) {
+				for (int i = 0; i < entry.getValue(); i++) {
+					entry.getKey().aHistory.redo();
+				}
+			}
+		}
+		aChannel.close();
+		aChannel = FileChannel.open(journal, StandardOpenOption.WRITE);
+		aSize = aChannel.size();
+		aCompactedSize = aSize;
+		aChannel.position(aSize);
+		aGeneration++;
+		deleteOtherGenerations();
+		attachAll();
+		aDurable = aAppended;
+		notifyAll();
+	}
+
+	/**
+	 * Writes and forces the records not yet written, and stops recording the watchlists.
+	 *
+	 * @throws IOException
+	 *             if the journal cannot be written
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (this) {
+			if (aChannel == null) return;
+		}
+		sync();
+		synchronized (this) {
+			while (aSyncing) {
+				awaitSync();
+			}
+			for (WatchList watchList : aWatchLists) {
+				watchList.aJournal = null;
+			}
+			aChannel.close();
+			aChannel = null;
+		}
+	}
+
+	/*
+	 * Executes pCommand on pWatchList and records it.
+	 */
+	void execute(WatchList pWatchList, Command pCommand) {
+		long sequence;
+		synchronized (this) {
+			checkOpen();
+			byte[] record;
+			try {
+				record = encode(pWatchList, pCommand);
+			}
+			catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			pWatchList.aHistory.execute(pCommand);
+			append(record);
+			sequence = appended();
+		}
+		awaitDurable(sequence);
+	}
+
+	void undo(WatchList pWatchList) {
+		change(pWatchList, UNDO, () -> pWatchList.aHistory.undo());
+	}
+
+	void redo(WatchList pWatchList) {
+		change(pWatchList, REDO, () -> pWatchList.aHistory.redo());
+	}
+
+	void setHistoryLimits(WatchList pWatchList, int pMaxDepth, long pMaxFootprint) {
+		long sequence;
+		synchronized (this) {
+			checkOpen();
+			pWatchList.aHistory.setLimits(pMaxDepth, pMaxFootprint);
+			try {
+				writeLimits(pWatchList);
+			}
+			catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			sequence = appended();
+		}
+		awaitDurable(sequence);
+	}
+
+	private void change(WatchList pWatchList, byte pType, Runnable pChange) {
+		long sequence;
+		synchronized (this) {
+			checkOpen();
+			pChange.run();
+			try {
+				begin(pType);
+				aOut.writeInt(pWatchList.aJournalId);
+				end();
+			}
+			catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			sequence = appended();
+		}
+		awaitDurable(sequence);
+	}
+
+	/*
+	 * Encodes the record of a command, after recording the watchables it refers to.
+	 */
+	private byte[] encode(WatchList pWatchList, Command pCommand) throws IOException {
+		if (pCommand instanceof AddRemoveWatchable) {
+			AddRemoveWatchable command = (AddRemoveWatchable) pCommand;
+			define(command.getWatchable());
+			begin(ADD_REMOVE);
+			aOut.writeInt(pWatchList.aJournalId);
+			writeReference(command.getWatchable());
+			aOut.writeInt(command.getIndex());
+			aOut.writeBoolean(command.isAdd());
+		}
+		else if (pCommand instanceof NextResetCommand) {
+			begin(NEXT_RESET);
+			aOut.writeInt(pWatchList.aJournalId);
+			aOut.writeInt(((NextResetCommand) pCommand).getNewNext());
+		}
+		else if (pCommand instanceof SetNameCommand) {
+			begin(SET_NAME);
+			aOut.writeInt(pWatchList.aJournalId);
+			writeString(((SetNameCommand) pCommand).getNewName());
+		}
+		else if (pCommand instanceof ReplaceRangeCommand) {
+			ReplaceRangeCommand command = (ReplaceRangeCommand) pCommand;
+			define(command.getInserted());
+			begin(REPLACE_RANGE);
+			aOut.writeInt(pWatchList.aJournalId);
+			aOut.writeInt(command.getFrom());
+			aOut.writeInt(command.getTo());
+			aOut.writeInt(command.getInserted().size());
+			for (Watchable item : command.getInserted()) {
+				writeReference(item);
+			}
+		}
+		else {
+			throw new IllegalArgumentException("Cannot record a " + pCommand.getClass().getName());
+		}
+		aOut.flush();
+		return aBytes.toByteArray();
+	}
+
+	/*
+	 * Undoes all the commands of the history of pWatchList, and returns how many there were.
+	 */
+	private static int rewind(WatchList pWatchList) {
+		int done = pWatchList.aHistory.getUndoCount();
+		for (int i = 0; i < done; i++) {
+			pWatchList.aHistory.undo();
+		}
+		return done;
+	}
+
+	/*
+	 * Records the history of a rewound watchlist: its bounds, all its commands, and the undoing of the pUndone most
+	 * recent ones, which had been undone before the rewind.
+	 */
+	private void writeHistory(WatchList pWatchList, int pUndone) throws IOException {
+		CommandHistory history = pWatchList.aHistory;
+		writeLimits(pWatchList);
+		for (int i = 0; i < history.getDepth(); i++) {
+			append(encode(pWatchList, history.getCommand(i)));
+		}
+		for (int i = 0; i < pUndone; i++) {
+			begin(UNDO);
+			aOut.writeInt(pWatchList.aJournalId);
+			end();
+		}
+	}
+
+	private void writeLimits(WatchList pWatchList) throws IOException {
+		begin(LIMITS);
+		aOut.writeInt(pWatchList.aJournalId);
+		aOut.writeInt(pWatchList.aHistory.getMaxDepth());
+		aOut.writeLong(pWatchList.aHistory.getMaxFootprint());
+		end();
+	}
+
+	private void define(List<Watchable> pWatchables) throws IOException {
+		for (Watchable watchable : pWatchables) {
+			define(watchable);
+		}
+	}
+
+	/*
+	 * Records a movie or show that the journal does not know yet, or the episodes added to a show since it was
+	 * recorded, so that later records can refer to them.
+	 */
+	private void define(Watchable pWatchable) throws IOException {
+		if (pWatchable == null) return;
+		if (pWatchable instanceof TVShow.Episode) {
+			define(((TVShow.Episode) pWatchable).getTVShow());
+			return;
+		}
+		if (aIds.containsKey(pWatchable)) {
+			if (pWatchable instanceof TVShow) {
+				defineEpisodes((TVShow) pWatchable);
+			}
+			return;
+		}
+		if (pWatchable instanceof Movie) {
+			Movie movie = (Movie) pWatchable;
+			begin(MOVIE);
+			aOut.writeInt(aIds.size());
+			writeString(movie.getPath().getPath());
+			writeString(movie.getTitle());
+			aOut.writeInt(movie.getLanguage().ordinal());
+			writeString(movie.getStudio());
+		}
+		else if (pWatchable instanceof TVShow) {
+			TVShow show = (TVShow) pWatchable;
+			begin(TV_SHOW);
+			aOut.writeInt(aIds.size());
+			writeString(show.getTitle());
+			aOut.writeInt(show.getLanguage().ordinal());
+			writeString(show.getStudio());
+			aOut.writeInt(show.getStorage().ordinal());
+			aOut.writeInt(show.getTotalCount());
+			for (TVShow.Episode episode : show) {
+				writeString(episode.getTitle());
+				writeString(episode.getPath().getPath());
+			}
+			aEpisodeCounts.put(show, show.getTotalCount());
+		}
+		else {
+			throw new IllegalArgumentException("Cannot record a " + pWatchable.getClass().getName());
+		}
+		aIds.put(pWatchable, aIds.size());
+		end();
+	}
+
+	/*
+	 * Records the episodes added to a recorded show since it was recorded.
+	 */
+	private void defineEpisodes(TVShow pTVShow) throws IOException {
+		int recorded = aEpisodeCounts.get(pTVShow);
+		int count = pTVShow.getTotalCount();
+		if (count == recorded) return;
+		begin(EPISODES);
+		aOut.writeInt(aIds.get(pTVShow));
+		aOut.writeInt(recorded);
+		aOut.writeInt(count - recorded);
+		for (int number = recorded + 1; number <= count; number++) {
+			TVShow.Episode episode = pTVShow.getEpisode(number);
+			writeString(episode.getTitle());
+			writeString(episode.getPath().getPath());
+		}
+		aEpisodeCounts.put(pTVShow, count);
+		end();
+	}
+
+	private void writeReference(Watchable pWatchable) throws IOException {
+		if (pWatchable == null) {
+			aOut.writeInt(-1);
+			aOut.writeInt(0);
+		}
+		else if (pWatchable instanceof TVShow.Episode) {
+			TVShow.Episode episode = (TVShow.Episode) pWatchable;
+			aOut.writeInt(aIds.get(episode.getTVShow()));
+			aOut.writeInt(episode.getEpisodeNumber());
+		}
+		else {
+			aOut.writeInt(aIds.get(pWatchable));
+			aOut.writeInt(0);
+		}
+	}
+
+	private void writeString(String pString) throws IOException {
+		byte[] bytes = pString.getBytes(StandardCharsets.UTF_8);
+		aOut.writeInt(bytes.length);
+		aOut.write(bytes);
+	}
+
+	private void begin(byte pType) throws IOException {
+		aBytes.reset();
+		aOut.writeByte(pType);
+	}
+
+	/*
+	 * Appends the record being encoded to the pending records.
+	 */
+	private void end() throws IOException {
+		aOut.flush();
+		append(aBytes.toByteArray());
+	}
+
+	private void append(byte[] pRecord) {
+		if (aPending.remaining() < FRAME_SIZE + pRecord.length) {
+			ByteBuffer buffer = ByteBuffer.allocate(Math.max(aPending.capacity() * 2,
+					aPending.position() + FRAME_SIZE + pRecord.length));
+			aPending.flip();
+			aPending = buffer.put(aPending);
+		}
+		aChecksum.reset();
+		aChecksum.update(pRecord);
+		aPending.putInt(pRecord.length);
+		aPending.putInt((int) aChecksum.getValue());
+		aPending.put(pRecord);
+		aSize += FRAME_SIZE + pRecord.length;
+	}
+
+	/*
+	 * Counts the records appended to the pending buffer as a new change, writes them if the durability requires it,
+	 * and compacts the journal if it is too large. Returns the sequence number of the change.
+	 */
+	private long appended() {
+		long sequence = ++aAppended;
+		try {
+			if (aDurability == Durability.SYNC_EACH || aDurability == Durability.BUFFERED
+					&& aPending.position() >= BUFFER_LIMIT) {
+				while (aSyncing) {
+					awaitSync();
+				}
+				write(aPending);
+				if (aDurability == Durability.SYNC_EACH) {
+					aChannel.force(false);
+					aDurable = sequence;
+				}
+			}
+			compactIfNeeded();
+		}
+		catch (IOException e) {
+			aFailure = e;
+			throw new UncheckedIOException(e);
+		}
+		return sequence;
+	}
+
+	/*
+	 * Compacts the journal if it exceeds the threshold, and has at least doubled since the last compaction, so that
+	 * large histories do not cause a compaction at every change.
+	 */
+	private void compactIfNeeded() throws IOException {
+		if (aSize > aCompactionThreshold && aSize > 2 * aCompactedSize) {
+			compact();
+		}
+	}
+
+	private void awaitDurable(long pSequence) {
+		awaitDurable(pSequence, aDurability == Durability.GROUP_COMMIT);
+	}
+
+	/*
+	 * Waits until the change pSequence is on the storage device. The first waiting thread writes and forces all the
+	 * pending records, on behalf of the other threads, which wait for it.
+	 */
+	private void awaitDurable(long pSequence, boolean pForce) {
+		if (!pForce) return;
+		while (true) {
+			ByteBuffer batch;
+			long last;
+			synchronized (this) {
+				while (aSyncing && aDurable < pSequence) {
+					awaitSync();
+				}
+				if (aDurable >= pSequence) return;
+				if (aFailure != null) throw new UncheckedIOException(aFailure);
+				checkOpen();
+				aSyncing = true;
+				batch = aPending;
+				aPending = aSpare == null ? ByteBuffer.allocate(BUFFER_LIMIT) : aSpare;
+				aSpare = null;
+				last = aAppended;
+			}
+			IOException failure = null;
+			try {
+				write(batch);
+				aChannel.force(false);
+			}
+			catch (IOException e) {
+				failure = e;
+			}
+			synchronized (this) {
+				aSyncing = false;
+				if (batch.capacity() == BUFFER_LIMIT) aSpare = batch;
+				if (failure == null) {
+					aDurable = Math.max(aDurable, last);
+				}
+				else {
+					aFailure = failure;
+				}
+				notifyAll();
+				if (failure != null) throw new UncheckedIOException(failure);
+				if (aDurable >= pSequence) return;
+			}
+		}
+	}
+
+	private void write(ByteBuffer pBuffer) throws IOException {
+		pBuffer.flip();
+		while (pBuffer.hasRemaining()) {
+			aChannel.write(pBuffer);
+		}
+		pBuffer.clear();
+	}
+
+	private void awaitSync() {
+		try {
+			wait();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for the journal", e);
+		}
+	}
+
+	private void checkOpen() {
+		if (aChannel == null) throw new IllegalStateException("The journal is closed");
+		if (aFailure != null) throw new UncheckedIOException(aFailure);
+	}
+
+	/*
+	 * Numbers the watchables and watchlists of a snapshot in the order of the file, and returns the watchables by
+	 * number.
+	 */
+	private List<Watchable> index(LibrarySnapshot.Contents pContents) {
+		aIds.clear();
+		aEpisodeCounts.clear();
+		List<Watchable> watchables = new ArrayList<>(pContents.aMovies);
+		watchables.addAll(pContents.aTVShows);
+		for (int i = 0; i < watchables.size(); i++) {
+			aIds.put(watchables.get(i), i);
+		}
+		for (TVShow show : pContents.aTVShows) {
+			aEpisodeCounts.put(show, show.getTotalCount());
+		}
+		aWatchLists = new ArrayList<>(pContents.aWatchLists);
+		for (int i = 0; i < aWatchLists.size(); i++) {
+			aWatchLists.get(i).aJournalId = i;
+		}
+		return watchables;
+	}
+
+	private void attachAll() {
+		for (WatchList watchList : aWatchLists) {
+			watchList.aJournal = this;
+		}
+	}
+
+	/*
+	 * Applies the records of a journal file, and returns the length of its valid prefix. Records after a torn or
+	 * corrupted one are ignored.
+	 */
+	private long replay(Path pJournal, List<Watchable> pWatchables) throws IOException {
+		ByteBuffer in;
+		try (FileChannel channel = FileChannel.open(pJournal, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("Journal too large: " + pJournal);
+			}
+			in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		if (in.remaining() < HEADER_SIZE || in.getInt() != MAGIC || in.getInt() != VERSION
+				|| in.getInt() != (int) aGeneration) {
+			throw new IOException("Not a watchlist journal: " + pJournal);
+		}
+		while (in.remaining() >= FRAME_SIZE) {
+			int start = in.position();
+			int length = in.getInt();
+			int checksum = in.getInt();
+			if (length <= 0 || length > in.remaining()) {
+				return start;
+			}
+			ByteBuffer record = in.slice(in.position(), length);
+			aChecksum.reset();
+			aChecksum.update(record.duplicate());
+			if ((int) aChecksum.getValue() != checksum) {
+				return start;
+			}
+			try {
+				apply(record, pWatchables);
+			}
+			catch (RuntimeException e) {
+				throw new IOException("Corrupted watchlist journal: " + pJournal, e);
+			}
+			in.position(start + FRAME_SIZE + length);
+		}
+		return in.position();
+	}
+
+	private void apply(ByteBuffer pIn, List<Watchable> pWatchables) {
+		byte type = pIn.get();
+		if (type == MOVIE) {
+			int id = pIn.getInt();
+			File path = new File(readString(pIn));
+			String title = readString(pIn);
+			Language language = LANGUAGES[pIn.getInt()];
+			Movie movie = Movie.restore(path, title, language, readString(pIn));
+			register(id, movie, pWatchables);
+			return;
+		}
+		if (type == TV_SHOW) {
+			int id = pIn.getInt();
+			String title = readString(pIn);
+			Language language = LANGUAGES[pIn.getInt()];
+			String studio = readString(pIn);
+			TVShow show = new TVShow(title, language, studio, STORAGES[pIn.getInt()]);
+			readEpisodes(pIn, show);
+			register(id, show, pWatchables);
+			aEpisodeCounts.put(show, show.getTotalCount());
+			return;
+		}
+		if (type == EPISODES) {
+			TVShow show = (TVShow) pWatchables.get(pIn.getInt());
+			if (pIn.getInt() != show.getTotalCount()) throw new IllegalStateException("Unexpected episodes");
+			readEpisodes(pIn, show);
+			aEpisodeCounts.put(show, show.getTotalCount());
+			return;
+		}
+		if (type == ATTACH) {
+			int id = pIn.getInt();
+			String name = readString(pIn);
+			int next = pIn.getInt();
+			Watchable lastWatched = readReference(pIn, pWatchables);
+			List<Watchable> items = readReferences(pIn, pWatchables);
+			if (id != aWatchLists.size()) throw new IllegalStateException("Unexpected watchlist " + id);
+			WatchList watchList = new WatchList(name, items, next, Optional.ofNullable(lastWatched));
+			watchList.aJournalId = id;
+			aWatchLists.add(watchList);
+			return;
+		}
+		WatchList watchList = aWatchLists.get(pIn.getInt());
+		switch (type) {
+		case ADD_REMOVE:
+			Watchable watchable = readReference(pIn, pWatchables);
+			int index = pIn.getInt();
+			watchList.aHistory.execute(new AddRemoveWatchable(watchList, watchable, index, pIn.get() != 0));
+			break;
+		case NEXT_RESET:
+			watchList.aHistory.execute(new NextResetCommand(watchList, pIn.getInt()));
+			break;
+		case SET_NAME:
+			watchList.aHistory.execute(new SetNameCommand(watchList, readString(pIn)));
+			break;
+		case REPLACE_RANGE:
+			int from = pIn.getInt();
+			int to = pIn.getInt();
+			watchList.aHistory.execute(new ReplaceRangeCommand(watchList, from, to, readReferences(pIn, pWatchables)));
+			break;
+		case UNDO:
+			watchList.aHistory.undo();
+			break;
+		case REDO:
+			watchList.aHistory.redo();
+			break;
+		case LIMITS:
+			int depth = pIn.getInt();
+			watchList.aHistory.setLimits(depth, pIn.getLong());
+			break;
+		default:
+			throw new IllegalStateException("Unknown record type: " + type);
+		}
+	}
+
+	private static void readEpisodes(ByteBuffer pIn, TVShow pTVShow) {
+		int episodes = pIn.getInt();
+		for (int i = 0; i < episodes; i++) {
+			String title = readString(pIn);
+			pTVShow.createAndAddEpisode(new File(readString(pIn)), title);
+		}
+	}
+
+	private void register(int pId, Watchable pWatchable, List<Watchable> pWatchables) {
+		if (pId != pWatchables.size()) throw new IllegalStateException("Unexpected watchable " + pId);
+		pWatchables.add(pWatchable);
+		aIds.put(pWatchable, pId);
+	}
+
+	private static List<Watchable> readReferences(ByteBuffer pIn, List<Watchable> pWatchables) {
+		int size = pIn.getInt();
+		List<Watchable> watchables = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			watchables.add(readReference(pIn, pWatchables));
+		}
+		return watchables;
+	}
+
+	private static Watchable readReference(ByteBuffer pIn, List<Watchable> pWatchables) {
+		int id = pIn.getInt();
+		int number = pIn.getInt();
+		if (id < 0) return null;
+		if (number > 0) return ((TVShow) pWatchables.get(id)).getEpisode(number);
+		return pWatchables.get(id);
+	}
+
+	private static String readString(ByteBuffer pIn) {
+		byte[] bytes = new byte[pIn.getInt()];
+		pIn.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/*
+	 * Writes a journal file with the pending records under a temporary name, forces it, and renames it, so that a
+	 * journal file always has a complete header and the complete history of its watchlists.
+	 */
+	private void writeJournal(Path pFile, long pGeneration) throws IOException {
+		Path temporary = pFile.resolveSibling(pFile.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC).putInt(VERSION).putInt((int) pGeneration);
+			header.flip();
+			while (header.hasRemaining()) channel.write(header);
+			aPending.flip();
+			while (aPending.hasRemaining()) channel.write(aPending);
+			aPending.clear();
+			channel.force(true);
+		}
+		Files.move(temporary, pFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		forceDirectory();
+	}
+
+	private void deleteOtherGenerations() throws IOException {
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(aDirectory)) {
+			for (Path file : files) {
+				String name = file.getFileName().toString();
+				if ((name.startsWith("journal-") || name.startsWith("snapshot-"))
+						&& !file.equals(journalFile(aGeneration)) && !file.equals(snapshotFile(aGeneration))) {
+					Files.delete(file);
+				}
+			}
+		}
+	}
+
+	/*
+	 * Forces the directory entries, e.g., of a renamed file, on file systems that support it.
+	 */
+	private void forceDirectory() {
+		try (FileChannel directory = FileChannel.open(aDirectory, StandardOpenOption.READ)) {
+			directory.force(true);
+		}
+		catch (IOException e) {
+			// Not supported on every platform; the rename is still atomic.
+		}
+	}
+
+	private Path journalFile(long pGeneration) {
+		return aDirectory.resolve("journal-" + pGeneration);
+	}
+
+	private Path snapshotFile(long pGeneration) {
+		return aDirectory.resolve("snapshot-" + pGeneration);
+	}
+}
@@ -0,0 +1,29 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.Collections;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class CatalogSegmentTest {
+
+	@Test
+	public void episodeMetadataOutlivesTheShowObject(@TempDir Path pDirectory) throws Exception {
+		TVShow show = new TVShow("Show", Language.ENGLISH, "Studio");
+		for (int e = 0; e < 3; e++) {
+			show.createAndAddEpisode(new File("e" + e + ".mp4"), "Episode " + e);
+		}
+		CatalogSegment catalog = CatalogSegment.write(pDirectory.resolve("catalog"), Collections.emptyList(),
+				Collections.singletonList(show));
+		catalog.getTVShow(0).getEpisode(1).setInfo("genre", "noir");
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+			Thread.sleep(50);
+		}
+		assertTrue(catalog.getTVShow(0).getEpisode(1).hasInfo("genre"));
+		assertEquals(1, new TagFilterStrategy("genre", "noir").getMatches().getCardinality());
+	}
+}
@@ -0,0 +1,202 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntConsumer;
+
+import org.junit.jupiter.api.Test;
+
+public class ConcurrentWatchListTest {
+
+	private static final int THREADS = 4;
+	private static final int MOVIES = 10;
+	private static final int OPERATIONS = 20_000;
+	private static final int ROUNDS = 20;
+
+	@Test
+	public void concurrentNextsReturnEachElementInTurn() throws InterruptedException {
+		ConcurrentWatchList watchList = new ConcurrentWatchList("Shared");
+		List<Movie> movies = movies();
+		watchList.addAll(movies);
+		Queue<Watchable> watched = new ConcurrentLinkedQueue<>();
+		runConcurrently(thread -> {
+			for (int i = 0; i < OPERATIONS; i++) {
+				watched.add(watchList.next());
+			}
+		});
+		// Whatever the interleaving, the nexts are applied one after the other, so none is lost or repeated.
+		Map<Watchable, Integer> counts = new IdentityHashMap<>();
+		for (Watchable watchable : watched) {
+			counts.merge(watchable, 1, Integer::sum);
+		}
+		for (Movie movie : movies) {
+			assertEquals(THREADS * OPERATIONS / MOVIES, counts.get(movie));
+		}
+		assertEquals(MOVIES, watchList.getRemainingCount());
+	}
+
+	@Test
+	public void concurrentNextsAndUndosAreLinearizable() throws InterruptedException {
+		ConcurrentWatchList watchList = new ConcurrentWatchList("Shared");
+		List<Movie> movies = movies();
+		watchList.addAll(movies);
+		Queue<Watchable> watched = new ConcurrentLinkedQueue<>();
+		runConcurrently(thread -> {
+			for (int i = 0; i < OPERATIONS; i++) {
+				watched.add(watchList.next());
+				watchList.undo();
+			}
+		});
+		// In any order of the operations, each thread has at most one next that is not undone, so each next starts at
+		// one of the first THREADS positions, and all the nexts are undone in the end.
+		List<Movie> reachable = movies.subList(0, THREADS);
+		for (Watchable watchable : watched) {
+			assertTrue(reachable.contains(watchable), watchable.getTitle() + " was returned");
+		}
+		assertEquals(THREADS * OPERATIONS, watched.size());
+		assertEquals(MOVIES, watchList.getRemainingCount());
+		assertSame(movies.get(0), watchList.next());
+	}
+
+	@Test
+	public void nextSeesAnAddAppliedBeforeIt() throws InterruptedException {
+		for (int round = 0; round < ROUNDS; round++) {
+			ConcurrentWatchList watchList = new ConcurrentWatchList("Shared");
+			CountDownLatch removing = new CountDownLatch(1);
+			AtomicBoolean holding = new AtomicBoolean();
+			// Holds the thread that applies its removal until the add and the next are in the log. Either may then
+			// apply both: the view published by the removal is empty, but the next comes after the add.
+			Movie slow = new Movie(new File("slow.mp4"), "Slow", Language.ENGLISH, "Studio") {
+				@Override
+				public boolean isValid() {
+					if (holding.get()) {
+						removing.countDown();
+						sleep(60);
+					}
+					return super.isValid();
+				}
+			};
+			watchList.addWatchable(slow);
+			holding.set(true);
+			Movie added = new Movie(new File("added.mp4"), "Added", Language.ENGLISH, "Studio");
+			Queue<Watchable> watched = new ConcurrentLinkedQueue<>();
+			Queue<Throwable> failures = new ConcurrentLinkedQueue<>();
+			List<Thread> threads = List.of(new Thread(() -> watchList.removeWatchable(0)), new Thread(() -> {
+				await(removing);
+				watchList.addWatchable(added);
+			}), new Thread(() -> {
+				try {
+					await(removing);
+					sleep(20);
+					watched.add(watchList.next());
+				}
+				catch (Throwable e) {
+					failures.add(e);
+				}
+			}));
+			threads.forEach(Thread::start);
+			for (Thread thread : threads) {
+				thread.join();
+			}
+			assertTrue(failures.isEmpty(), () -> "next() failed: " + failures.peek());
+			assertSame(added, watched.peek());
+		}
+	}
+
+	@Test
+	public void applyingThreadStopsAfterItsOwnOperation() throws InterruptedException {
+		ConcurrentWatchList watchList = new ConcurrentWatchList("Shared");
+		CountDownLatch removing = new CountDownLatch(1);
+		AtomicBoolean holding = new AtomicBoolean();
+		// Holds the thread that applies its removal until the replacement is in the log.
+		Movie slow = new Movie(new File("slow.mp4"), "Slow", Language.ENGLISH, "Studio") {
+			@Override
+			public boolean isValid() {
+				if (holding.get()) {
+					removing.countDown();
+					sleep(100);
+				}
+				return super.isValid();
+			}
+		};
+		watchList.addAll(List.of(slow, movies().get(0)));
+		holding.set(true);
+		Queue<Thread> appliers = new ConcurrentLinkedQueue<>();
+		Thread remover = new Thread(() -> watchList.removeWatchable(0));
+		Thread replacer = new Thread(() -> {
+			await(removing);
+			watchList.replaceAll(watchable -> {
+				appliers.add(Thread.currentThread());
+				return watchable;
+			});
+		});
+		remover.start();
+		replacer.start();
+		remover.join();
+		replacer.join();
+		// The operator runs on the thread that applies the replacement, which came after the removal in the log.
+		assertEquals(List.of(replacer), List.copyOf(appliers));
+	}
+
+	private static List<Movie> movies() {
+		List<Movie> movies = new ArrayList<>();
+		for (int i = 0; i < MOVIES; i++) {
+			movies.add(new Movie(new File("movie" + i + ".mp4"), "Movie " + i, Language.ENGLISH, "Studio"));
+		}
+		return movies;
+	}
+
+	/*
+	 * Runs pTask on THREADS threads, which start together, and rethrows the first failure of any of them.
+	 */
+	private static void runConcurrently(IntConsumer pTask) throws InterruptedException {
+		CountDownLatch start = new CountDownLatch(1);
+		Queue<Throwable> failures = new ConcurrentLinkedQueue<>();
+		List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < THREADS; t++) {
+			int thread = t;
+			threads.add(new Thread(() -> {
+				try {
+					start.await();
+					pTask.accept(thread);
+				}
+				catch (Throwable e) {
+					failures.add(e);
+				}
+			}));
+		}
+		threads.forEach(Thread::start);
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertTrue(failures.isEmpty(), () -> "A thread failed: " + failures.peek());
+	}
+
+	private static void await(CountDownLatch pLatch) {
+		try {
+			pLatch.await();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void sleep(long pMillis) {
+		try {
+			Thread.sleep(pMillis);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
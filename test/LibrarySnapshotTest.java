@@ -0,0 +1,36 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class LibrarySnapshotTest {
+
+	@TempDir
+	Path aDirectory;
+
+	@Test
+	public void restoredWatchListCountsAndTracksItsValidElements() throws IOException {
+		File present = Files.createFile(aDirectory.resolve("present.mp4")).toFile();
+		File missing = aDirectory.resolve("missing.mp4").toFile();
+		Library library = new Library();
+		WatchList watchList = new WatchList("Watchlist");
+		library.addWatchList(watchList);
+		watchList.addWatchable(new Movie(present, "Present", Language.ENGLISH, "Studio"));
+		watchList.addWatchable(new Movie(missing, "Missing", Language.ENGLISH, "Studio"));
+		watchList.addWatchable(new Movie(present, "Present again", Language.ENGLISH, "Studio"));
+		Path file = aDirectory.resolve("library");
+		LibrarySnapshot.write(library, file);
+
+		WatchList restored = LibrarySnapshot.read(file).getWatchLists().iterator().next();
+		assertEquals(2, restored.getValidCount());
+		ValidityCache.instance().publish(missing, true);
+		assertEquals(3, restored.getValidCount());
+		ValidityCache.instance().publish(present, false);
+		assertEquals(1, restored.getValidCount());
+	}
+}
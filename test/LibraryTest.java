@@ -0,0 +1,163 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+public class LibraryTest {
+
+	@Test
+	public void standingQueryFollowsTagChangesAndClientEdits() {
+		Library library = new Library();
+		List<AbstractWatchable> tagged = new ArrayList<>();
+		for (int i = 0; i < 40; i++) {
+			Movie movie = new Movie(new File("m" + i + ".mp4"), "Movie " + i, Language.ENGLISH, "Studio");
+			library.addMovie(movie);
+			tagged.add(movie);
+		}
+		List<TVShow> shows = new ArrayList<>();
+		for (int s = 0; s < 3; s++) {
+			TVShow show = new TVShow("Show " + s, Language.ENGLISH, "Studio");
+			for (int e = 0; e < 15; e++) {
+				tagged.add(show.createAndAddEpisode(new File("s" + s + "e" + e + ".mp4"), "Episode " + e));
+			}
+			library.addTVShow(show);
+			tagged.add(show);
+			shows.add(show);
+		}
+		WatchListFilter filter = new TagFilterStrategy("genre", "drama");
+		WatchList watchList = library.addStandingQuery("Drama", filter);
+		List<Movie> own = new ArrayList<>();
+		Random random = new Random(303);
+		for (int step = 0; step < 3000; step++) {
+			int action = random.nextInt(10);
+			if (action == 0) {
+				Movie movie = new Movie(new File("own.mp4"), "Own " + step, Language.ENGLISH, "Studio");
+				own.add(movie);
+				watchList.addWatchable(movie);
+			}
+			else if (action == 1 && !own.isEmpty()) {
+				Movie movie = own.remove(random.nextInt(own.size()));
+				watchList.removeWatchable(items(watchList).indexOf(movie));
+			}
+			else {
+				AbstractWatchable watchable = tagged.get(random.nextInt(tagged.size()));
+				watchable.setInfo("genre", random.nextBoolean() ? "drama" : null);
+			}
+			Set<Watchable> expected = identitySet();
+			for (Movie movie : library.getMovies()) {
+				if (filter.filter(movie)) expected.add(movie);
+			}
+			for (TVShow show : shows) {
+				for (TVShow.Episode episode : show) {
+					if (filter.filter(show) && filter.filter(episode)) expected.add(episode);
+				}
+			}
+			List<Watchable> actual = items(watchList);
+			actual.removeAll(own);
+			assertEquals(expected.size(), actual.size(), "step " + step);
+			Set<Watchable> distinct = identitySet();
+			distinct.addAll(actual);
+			assertEquals(expected, distinct, "step " + step);
+		}
+	}
+
+	@Test
+	public void pagesCoverEveryMatchOnceDespiteTies() {
+		Library library = new Library();
+		for (int i = 0; i < 25; i++) {
+			// Movies that are equal on every key of the orders.
+			library.addMovie(new Movie(new File("same.mp4"), "Same", Language.ENGLISH, "Studio"));
+			library.addMovie(new Movie(new File("m" + i % 5 + ".mp4"), "Movie " + i % 3, Language.ENGLISH, "Studio"));
+		}
+		TVShow show = new TVShow("Show", Language.ENGLISH, "Studio", TVShow.EpisodeStorage.COLUMNS);
+		for (int e = 0; e < 20; e++) {
+			show.createAndAddEpisode(new File("same.mp4"), "Same");
+		}
+		library.addTVShow(show);
+		WatchListFilter all = new LanguageFilterStrategy(Language.ENGLISH);
+		// Counted without a watchlist, which would keep the episodes in memory as its observers.
+		int total = (int) library.streamWatchList(all).count();
+		for (Page.Order order : Page.Order.values()) {
+			for (int limit : new int[] { 1, 3, 7 }) {
+				List<String> keys = new ArrayList<>();
+				Page page = library.queryPage(all, order, 0, limit);
+				keys.addAll(keys(page));
+				while (page.hasNext()) {
+					// The columnar episodes of the previous page may be read again as new objects.
+					System.gc();
+					page = library.queryPage(all, page.getNextCursor(), limit);
+					keys.addAll(keys(page));
+					assertTrue(keys.size() <= total, order + " by " + limit + " repeats matches");
+				}
+				List<String> expected = keys(library.queryPage(all, order, 0, total));
+				assertEquals(expected, keys, order + " by " + limit);
+			}
+		}
+	}
+
+	@Test
+	public void episodeTagChangeOnlyEvaluatesTheEpisode() {
+		Library library = new Library();
+		TVShow show = new TVShow("Show", Language.ENGLISH, "Studio");
+		for (int e = 0; e < 1000; e++) {
+			show.createAndAddEpisode(new File("e" + e + ".mp4"), "Episode " + e);
+		}
+		library.addTVShow(show);
+		TagFilterStrategy tag = new TagFilterStrategy("genre", "western");
+		int[] episodeEvaluations = new int[1];
+		WatchListFilter counting = new WatchListFilter() {
+			@Override
+			public boolean filter(Movie pMovie) {
+				return tag.filter(pMovie);
+			}
+
+			@Override
+			public boolean filter(TVShow pTVShow) {
+				return tag.filter(pTVShow);
+			}
+
+			@Override
+			public boolean filter(TVShow.Episode pEpisode) {
+				episodeEvaluations[0]++;
+				return tag.filter(pEpisode);
+			}
+		};
+		WatchList watchList = library.addStandingQuery("Westerns", counting);
+		show.getEpisode(1).setInfo("genre", "western");
+		assertEquals(1, watchList.getTotalCount());
+		episodeEvaluations[0] = 0;
+		show.getEpisode(2).setInfo("genre", "western");
+		show.getEpisode(1).setInfo("genre", "drama");
+		show.getEpisode(3).setInfo("mood", "dark");
+		assertEquals(3, episodeEvaluations[0]);
+		assertEquals(List.of(show.getEpisode(2)), items(watchList));
+	}
+
+	private static List<String> keys(Page pPage) {
+		List<String> keys = new ArrayList<>();
+		for (Watchable watchable : pPage.getItems()) {
+			keys.add(watchable instanceof TVShow.Episode
+					? watchable.getTitle() + " #" + ((TVShow.Episode) watchable).getEpisodeNumber()
+					: watchable.getTitle() + " " + ((Movie) watchable).getPath());
+		}
+		return keys;
+	}
+
+	private static Set<Watchable> identitySet() {
+		return Collections.newSetFromMap(new IdentityHashMap<>());
+	}
+
+	private static List<Watchable> items(WatchList pWatchList) {
+		List<Watchable> items = new ArrayList<>();
+		pWatchList.forEach(items::add);
+		return items;
+	}
+}
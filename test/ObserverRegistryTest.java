@@ -0,0 +1,57 @@
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.lang.ref.Reference;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class ObserverRegistryTest {
+
+	private static final int MOVIES = 200;
+	private static final int WATCHLISTS = 100_000;
+	// Before the watchlists were referenced weakly, the heap grew by more than 1 GB.
+	private static final long MAX_GROWTH = 32L << 20;
+
+	@Test
+	public void throwawayWatchListsDoNotGrowTheHeap() throws InterruptedException {
+		Library library = new Library();
+		List<Movie> movies = new ArrayList<>();
+		for (int i = 0; i < MOVIES; i++) {
+			Movie movie = new Movie(new File("movie" + i + ".mp4"), "Movie " + i, Language.ENGLISH, "Studio");
+			library.addMovie(movie);
+			movies.add(movie);
+		}
+		WatchListFilter all = new LanguageFilterStrategy(Language.ENGLISH);
+		library.generateWatchList("Warmup", all);
+		long before = usedHeap();
+		for (int i = 0; i < WATCHLISTS; i++) {
+			library.generateWatchList("Throwaway " + i, all);
+		}
+		// Registers an observer with each movie once the collected watchlists are queued, so that the registries
+		// drop them.
+		collect();
+		new WatchList("Probe").addAll(movies);
+		long growth = usedHeap() - before;
+		// The movies must stay reachable until the heap is measured, since they hold the leaked watchlists if any.
+		Reference.reachabilityFence(movies);
+		assertTrue(growth < MAX_GROWTH, "The heap grew by " + (growth >> 20) + " MB");
+	}
+
+	private static long usedHeap() throws InterruptedException {
+		collect();
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/*
+	 * Collects the garbage and leaves time for the weak references that were cleared to be queued.
+	 */
+	private static void collect() throws InterruptedException {
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+			Thread.sleep(100);
+		}
+	}
+}
@@ -0,0 +1,84 @@
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+public class PlaybackDispatcherTest {
+
+	private static final int ROUNDS = 2000;
+	private static final int THREADS = 3;
+	private static final int REQUESTS = 100;
+
+	@Test
+	public void failingListenerDoesNotStopThePlayback() throws Exception {
+		Movie movie = silentMovie();
+		List<CompletableFuture<PlaybackDispatcher.Play>> plays = new ArrayList<>();
+		try (PlaybackDispatcher dispatcher = new PlaybackDispatcher(0, 1)) {
+			dispatcher.setPlayListener(play -> {
+				throw new IllegalStateException("Listener failure");
+			});
+			plays.add(dispatcher.watch(movie));
+			plays.add(dispatcher.watch(movie));
+			plays.get(0).get(10, TimeUnit.SECONDS);
+			plays.add(dispatcher.watch(movie));
+		}
+		for (CompletableFuture<PlaybackDispatcher.Play> play : plays) {
+			assertTrue(play.isDone() && !play.isCompletedExceptionally());
+		}
+	}
+
+	@Test
+	public void everyAcceptedRequestCompletesWhenClosedConcurrently() throws Exception {
+		Movie movie = silentMovie();
+		for (int round = 0; round < ROUNDS; round++) {
+			PlaybackDispatcher dispatcher = new PlaybackDispatcher(0, 1);
+			CountDownLatch start = new CountDownLatch(1);
+			Queue<CompletableFuture<PlaybackDispatcher.Play>> accepted = new ConcurrentLinkedQueue<>();
+			List<Thread> threads = new ArrayList<>();
+			for (int t = 0; t < THREADS; t++) {
+				threads.add(new Thread(() -> {
+					try {
+						start.await();
+						for (int i = 0; i < REQUESTS; i++) {
+							accepted.add(dispatcher.watch(movie));
+						}
+					}
+					catch (IllegalStateException | InterruptedException e) {
+						// The dispatcher is closed.
+					}
+				}));
+			}
+			threads.forEach(Thread::start);
+			start.countDown();
+			Thread.yield();
+			dispatcher.close();
+			for (Thread thread : threads) {
+				thread.join();
+			}
+			// The requests accepted before close() are played before it returns, and no other request is accepted.
+			for (CompletableFuture<PlaybackDispatcher.Play> play : accepted) {
+				assertTrue(play.isDone(), "A request accepted in round " + round + " was never played");
+			}
+		}
+	}
+
+	/*
+	 * Returns a movie that does not print anything when it is watched.
+	 */
+	private static Movie silentMovie() {
+		return new Movie(new File("missing.mp4"), "Movie", Language.ENGLISH, "Studio") {
+			@Override
+			public void watch() {
+				notifyObservers();
+			}
+		};
+	}
+}
@@ -0,0 +1,32 @@
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+
+import org.junit.jupiter.api.Test;
+
+public class StringDictionaryTest {
+
+	private static final int VALUES = 100_000;
+
+	@Test
+	public void equalStringsShareAnInstance() {
+		String first = StringDictionary.instance().intern(new String("Studio"));
+		assertSame(first, StringDictionary.instance().intern(new String("Studio")));
+	}
+
+	@Test
+	public void replacedTagValuesAreDropped() throws InterruptedException {
+		Movie movie = new Movie(new File("movie.mp4"), "Movie", Language.ENGLISH, "Studio");
+		int before = StringDictionary.instance().size();
+		for (int i = 0; i < VALUES; i++) {
+			movie.setInfo("note", "Note " + i);
+		}
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+			Thread.sleep(50);
+		}
+		int growth = StringDictionary.instance().size() - before;
+		assertTrue(growth < VALUES / 10, growth + " values were kept");
+	}
+}
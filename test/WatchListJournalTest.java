@@ -0,0 +1,88 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class WatchListJournalTest {
+
+	@TempDir
+	Path aDirectory;
+
+	@Test
+	public void replaysEpisodesAddedAfterTheShowWasRecorded() throws IOException {
+		try (WatchListJournal journal = WatchListJournal.open(aDirectory, WatchListJournal.Durability.SYNC_EACH)) {
+			TVShow show = new TVShow("Show", Language.ENGLISH, "Studio");
+			show.createAndAddEpisode(new File("e1.mp4"), "Episode 1");
+			WatchList watchList = new WatchList("Watchlist");
+			journal.attach(watchList);
+			watchList.addWatchable(show.getEpisode(1));
+			show.createAndAddEpisode(new File("e2.mp4"), "Episode 2");
+			show.createAndAddEpisodeFromPrototype(new File("e3.mp4"), "Episode 3");
+			watchList.addWatchable(show.getEpisode(3));
+		}
+		assertEquals(List.of("Episode 1", "Episode 3"), titles(reopen()));
+	}
+
+	@Test
+	public void replaysEpisodesAddedToAShowOfTheSnapshot() throws IOException {
+		TVShow show;
+		try (WatchListJournal journal = WatchListJournal.open(aDirectory, WatchListJournal.Durability.SYNC_EACH)) {
+			show = new TVShow("Show", Language.ENGLISH, "Studio");
+			show.createAndAddEpisode(new File("e1.mp4"), "Episode 1");
+			WatchList watchList = new WatchList("Watchlist");
+			journal.attach(watchList);
+			watchList.addWatchable(show.getEpisode(1));
+			journal.compact();
+		}
+		try (WatchListJournal journal = WatchListJournal.open(aDirectory, WatchListJournal.Durability.SYNC_EACH)) {
+			WatchList watchList = journal.getLibrary().getWatchLists().iterator().next();
+			TVShow restored = ((TVShow.Episode) items(watchList).get(0)).getTVShow();
+			restored.createAndAddEpisode(new File("e2.mp4"), "Episode 2");
+			watchList.addWatchable(restored.getEpisode(2));
+		}
+		WatchList watchList = reopen();
+		assertEquals(List.of("Episode 1", "Episode 2"), titles(watchList));
+		assertEquals(2, ((TVShow.Episode) items(watchList).get(1)).getEpisodeNumber());
+	}
+
+	@Test
+	public void replaysEpisodesAddedToAShowInAWatchList() throws IOException {
+		try (WatchListJournal journal = WatchListJournal.open(aDirectory, WatchListJournal.Durability.SYNC_EACH)) {
+			TVShow show = new TVShow("Show", Language.ENGLISH, "Studio");
+			show.createAndAddEpisode(new File("e1.mp4"), "Episode 1");
+			WatchList watchList = new WatchList("Watchlist");
+			journal.attach(watchList);
+			watchList.addWatchable(show);
+			show.createAndAddEpisode(new File("e2.mp4"), "Episode 2");
+			watchList.addWatchable(show);
+		}
+		WatchList watchList = reopen();
+		assertEquals(2, ((TVShow) items(watchList).get(1)).getTotalCount());
+	}
+
+	private WatchList reopen() throws IOException {
+		try (WatchListJournal journal = WatchListJournal.open(aDirectory, WatchListJournal.Durability.SYNC_EACH)) {
+			return journal.getLibrary().getWatchLists().iterator().next();
+		}
+	}
+
+	private static List<Watchable> items(WatchList pWatchList) {
+		List<Watchable> items = new ArrayList<>();
+		pWatchList.forEach(items::add);
+		return items;
+	}
+
+	private static List<String> titles(WatchList pWatchList) {
+		List<String> titles = new ArrayList<>();
+		for (Watchable watchable : pWatchList) {
+			titles.add(watchable.getTitle());
+		}
+		return titles;
+	}
+}